@@ -0,0 +1,153 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Input of benchmarks: the trees and variables of the tests, and rule files from the classpath.
+ *
+ * The test resources are read from the directory named by the system property RESOURCES_PROPERTY,
+ * which bin/benchmark sets, or else from src/test/resources in the working directory.
+ * A synthetic set at a larger scale conjoins the clauses of consecutive test sentences into a single sentence.
+ */
+class BenchmarkData {
+    static final String RESOURCES_PROPERTY = "baleen.resources";
+    static final String[] EXTRACT_FILES = {
+            "change:tsurgeon/extract/change.tfm",
+            "increase:tsurgeon/extract/increase.tfm",
+            "decrease:tsurgeon/extract/decrease.tfm"
+    };
+    static final String[] PREPROCESSING_FILES = {"tsurgeon/preproc/preproc.tfm"};
+    static final String[] PRUNE_FILES = {
+            "tsurgeon/prune/coordination.tfm",
+            "tsurgeon/prune/parenthetical.tfm",
+            "tsurgeon/prune/non-restrict.tfm",
+            "tsurgeon/prune/modifiers.tfm"
+    };
+
+    private static Path resources() {
+        return Paths.get(System.getProperty(RESOURCES_PROPERTY, "src/test/resources"));
+    }
+
+    private static List<Path> files(String dir) {
+        try {
+            return Files.list(resources().resolve(dir)).sorted().collect(Collectors.toList());
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    /**
+     * Lines of the test tree files, which are all well-formed trees
+     */
+    static List<String> trees() {
+        List<String> lines = new ArrayList<>();
+
+        try {
+            for (Path file : files("trees")) {
+                lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+            }
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+        return lines;
+    }
+
+    /**
+     * As many trees as there are test trees, each conjoining the clauses of scale consecutive test trees,
+     * so scale 1 gives the test trees themselves
+     */
+    static List<String> trees(int scale) {
+        List<String> lines = trees();
+
+        if (scale == 1) {
+            return lines;
+        }
+        List<Tree> clauses = new ArrayList<>();
+
+        for (String line : lines) {
+            // the clause below ROOT
+            clauses.add(Tree.valueOf(line).firstChild());
+        }
+        List<String> scaled = new ArrayList<>();
+
+        for (int i = 0; i < clauses.size(); i++) {
+            StringBuilder tree = new StringBuilder("(ROOT (S");
+
+            for (int j = 0; j < scale; j++) {
+                if (j > 0) {
+                    tree.append(" (CC and)");
+                }
+                tree.append(' ').append(clauses.get((i + j) % clauses.size()));
+            }
+            scaled.add(tree.append("))").toString());
+        }
+        return scaled;
+    }
+
+    /**
+     * Records of the test variable files
+     */
+    static List<ObjectNode> vars() {
+        List<ObjectNode> records = new ArrayList<>();
+
+        try {
+            for (Path file : files("vars")) {
+                try (RecordReader reader = RecordReader.open(file)) {
+                    ObjectNode record;
+
+                    while ((record = reader.next()) != null) {
+                        records.add(record);
+                    }
+                }
+            }
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+        return records;
+    }
+
+    static List<TreeExtractor> extractors() {
+        List<TreeExtractor> extractors = new ArrayList<>();
+
+        for (String pair : EXTRACT_FILES) {
+            String[] parts = pair.split(":", 2);
+
+            try (InputStream stream = resource(parts[1])) {
+                extractors.add(new TreeExtractor(parts[0], stream));
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }
+        return extractors;
+    }
+
+    static TreeTransformer transformer(String file) {
+        try (InputStream stream = resource(file)) {
+            return new TreeTransformer(stream);
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    private static InputStream resource(String name) {
+        InputStream stream = BenchmarkData.class.getClassLoader().getResourceAsStream(name);
+
+        if (stream == null) {
+            throw new IllegalArgumentException("no resource " + name);
+        }
+        return stream;
+    }
+}
@@ -0,0 +1,62 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pruning of all test variables to their full closure under all prune rule files, as prune-vars does,
+ * up to a maximum depth, where 0 means no limit
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClosureBenchmark {
+    @Param({"1", "2", "0"})
+    public int maxDepth;
+
+    private Transformation transformation;
+    private List<ObjectNode> records;
+    private final List<ObjectNode> descendants = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        List<TreeTransformer> transformers = new ArrayList<>();
+
+        for (String file : BenchmarkData.PRUNE_FILES) {
+            transformers.add(BenchmarkData.transformer(file));
+        }
+        transformation = new Transformation(transformers);
+        transformation.setMaxDepth(maxDepth);
+        records = BenchmarkData.vars();
+    }
+
+    @Benchmark
+    public void transformTree(Blackhole blackhole) throws IOException {
+        for (ObjectNode record : records) {
+            descendants.clear();
+            // records get descendants, so each run starts from a copy
+            transformation.transformTree(record.deepCopy(), descendants, null, 100);
+            blackhole.consume(descendants);
+        }
+    }
+}
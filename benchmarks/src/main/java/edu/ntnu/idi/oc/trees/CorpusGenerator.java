@@ -0,0 +1,386 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.trees.Tree;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generator of synthetic parse trees in PTB format, sampled from a grammar read off the test trees.
+ *
+ * Productions and words are drawn with their frequencies in the test trees, up to a maximum depth,
+ * beyond which only the productions closest to the leaves are drawn.
+ * Verbs and nouns are replaced with the given rate by the words anchoring the extraction rules,
+ * so generated trees contain variables to extract.
+ * Sentences of several clauses conjoin the clauses as BenchmarkData does.
+ * The same seed gives the same sentences, and a smaller corpus is a prefix of a larger one.
+ */
+public class CorpusGenerator {
+    static final int DEFAULT_MAX_DEPTH = 12;
+    static final double DEFAULT_ANCHOR_RATE = 0.2;
+    static final int DEFAULT_FILE_SIZE = 1000;
+    static final long DEFAULT_SEED = 1;
+
+    private static final List<String> VERB_TAGS = Arrays.asList("VB", "VBD", "VBG", "VBN", "VBP", "VBZ");
+    private static final List<String> NOUN_TAGS = Arrays.asList("NN", "NNS");
+    // node with a disjunction of words as its child or head, e.g. "(VBN|VBD|VBG=d1 < add|accumulate=word"
+    private static final Pattern ANCHOR = Pattern.compile("([^\\s(]+)\\s+<<?#?\\s*([a-z][a-z|-]*)=word");
+
+    /**
+     * Productions of a label, ordered by the minimum height of the trees they derive
+     */
+    private static class Productions {
+        final String[][] children;
+        final int[] heights;
+
+        Productions(String[][] children, int[] heights) {
+            this.children = children;
+            this.heights = heights;
+        }
+
+        /**
+         * Number of productions deriving trees of at most height, or of minimum height if there are none
+         */
+        int count(int height) {
+            int limit = Math.max(height, heights[0]);
+            int n = 0;
+
+            while (n < heights.length && heights[n] <= limit) {
+                n++;
+            }
+            return n;
+        }
+    }
+
+    private final Map<String, Productions> productions = new HashMap<>();
+    private final Map<String, String[]> words = new HashMap<>();
+    private final Map<String, String[]> anchors = new HashMap<>();
+    private final Random random;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private double anchorRate = DEFAULT_ANCHOR_RATE;
+
+    /**
+     * Generator with grammar read off trees, and words anchoring the rules in extractRules
+     */
+    CorpusGenerator(List<Tree> trees, List<String> extractRules, long seed) {
+        Map<String, List<String[]>> phrasal = new HashMap<>();
+        Map<String, List<String>> lexical = new HashMap<>();
+
+        for (Tree tree : trees) {
+            addProductions(tree, phrasal, lexical);
+        }
+
+        for (Map.Entry<String, List<String>> entry : lexical.entrySet()) {
+            words.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+        }
+        Map<String, Integer> minHeights = minHeights(phrasal);
+
+        for (Map.Entry<String, List<String[]>> entry : phrasal.entrySet()) {
+            List<String[]> sorted = new ArrayList<>(entry.getValue());
+            sorted.sort(Comparator.comparingInt(children -> height(children, minHeights)));
+            int[] heights = new int[sorted.size()];
+
+            for (int i = 0; i < heights.length; i++) {
+                heights[i] = height(sorted.get(i), minHeights);
+            }
+            productions.put(entry.getKey(), new Productions(sorted.toArray(new String[0][]), heights));
+        }
+        addAnchors(extractRules);
+        random = new Random(seed);
+    }
+
+    /**
+     * Generator with the grammar of the test trees and the anchors of the extraction rules on the classpath
+     */
+    static CorpusGenerator fromTestData(long seed) {
+        TreeParser parser = new TreeParser();
+        List<Tree> trees = new ArrayList<>();
+
+        for (String line : BenchmarkData.trees()) {
+            trees.add(parser.parse(line));
+        }
+        List<String> rules = new ArrayList<>();
+
+        for (String pair : BenchmarkData.EXTRACT_FILES) {
+            String file = pair.split(":", 2)[1];
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    BenchmarkData.class.getClassLoader().getResourceAsStream(file), StandardCharsets.UTF_8))) {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    rules.add(line);
+                }
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }
+        return new CorpusGenerator(trees, rules, seed);
+    }
+
+    void setMaxDepth(int maxDepth) {
+        if (maxDepth < 2) {
+            throw new IllegalArgumentException("maximum depth must be at least 2: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    void setAnchorRate(double anchorRate) {
+        if (anchorRate < 0 || anchorRate > 1) {
+            throw new IllegalArgumentException("anchor rate must be between 0 and 1: " + anchorRate);
+        }
+        this.anchorRate = anchorRate;
+    }
+
+    private static void addProductions(Tree tree, Map<String, List<String[]>> phrasal,
+                                       Map<String, List<String>> lexical) {
+        if (tree.isLeaf()) {
+            return;
+        }
+        String label = tree.value();
+
+        if (tree.isPreTerminal()) {
+            lexical.computeIfAbsent(label, k -> new ArrayList<>()).add(tree.firstChild().value());
+            return;
+        }
+        String[] children = new String[tree.numChildren()];
+
+        for (int i = 0; i < children.length; i++) {
+            children[i] = tree.getChild(i).value();
+            addProductions(tree.getChild(i), phrasal, lexical);
+        }
+        phrasal.computeIfAbsent(label, k -> new ArrayList<>()).add(children);
+    }
+
+    /**
+     * Minimum height of trees derived from each label, where preterminals have height 1
+     */
+    private Map<String, Integer> minHeights(Map<String, List<String[]>> phrasal) {
+        Map<String, Integer> minHeights = new HashMap<>();
+
+        for (String tag : words.keySet()) {
+            minHeights.put(tag, 1);
+        }
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (Map.Entry<String, List<String[]>> entry : phrasal.entrySet()) {
+                for (String[] children : entry.getValue()) {
+                    int height = height(children, minHeights);
+                    Integer known = minHeights.get(entry.getKey());
+
+                    if (height < Integer.MAX_VALUE && (known == null || height < known)) {
+                        minHeights.put(entry.getKey(), height);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return minHeights;
+    }
+
+    private static int height(String[] children, Map<String, Integer> minHeights) {
+        int height = 0;
+
+        for (String child : children) {
+            Integer childHeight = minHeights.get(child);
+
+            if (childHeight == null) {
+                return Integer.MAX_VALUE;
+            }
+            height = Math.max(height, childHeight);
+        }
+        return height + 1;
+    }
+
+    private void addAnchors(List<String> extractRules) {
+        Set<String> verbs = new TreeSet<>();
+        Set<String> nouns = new TreeSet<>();
+
+        for (String line : extractRules) {
+            Matcher matcher = ANCHOR.matcher(line);
+
+            while (matcher.find()) {
+                String node = matcher.group(1);
+                List<String> alternatives = Arrays.asList(matcher.group(2).split("\\|"));
+
+                if (node.startsWith("V")) {
+                    verbs.addAll(alternatives);
+                } else if (node.startsWith("N") || node.startsWith("/NN")) {
+                    nouns.addAll(alternatives);
+                }
+            }
+        }
+
+        for (String tag : VERB_TAGS) {
+            anchors.put(tag, verbs.toArray(new String[0]));
+        }
+
+        for (String tag : NOUN_TAGS) {
+            anchors.put(tag, nouns.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Sentence in PTB format with the given number of clauses
+     */
+    String sentence(int clauses) {
+        StringBuilder sentence = new StringBuilder();
+
+        if (clauses == 1) {
+            expand("ROOT", 1, sentence);
+            return sentence.toString();
+        }
+        sentence.append("(ROOT (S");
+
+        for (int i = 0; i < clauses; i++) {
+            if (i > 0) {
+                sentence.append(" (CC and)");
+            }
+            sentence.append(' ');
+            // the clause below ROOT
+            Productions root = productions.get("ROOT");
+            expand(root.children[random.nextInt(root.children.length)][0], 2, sentence);
+        }
+        return sentence.append("))").toString();
+    }
+
+    private void expand(String label, int depth, StringBuilder out) {
+        String[] tagWords = words.get(label);
+        Productions labelProductions = productions.get(label);
+
+        if (tagWords != null && (labelProductions == null
+                || random.nextInt(tagWords.length + labelProductions.children.length) < tagWords.length)) {
+            String[] anchorWords = anchors.get(label);
+            String word = (anchorWords != null && anchorWords.length > 0 && random.nextDouble() < anchorRate)
+                    ? anchorWords[random.nextInt(anchorWords.length)]
+                    : tagWords[random.nextInt(tagWords.length)];
+            out.append('(').append(label).append(' ').append(word).append(')');
+            return;
+        }
+        String[] children = labelProductions.children[
+                random.nextInt(labelProductions.count(maxDepth - depth + 1))];
+        out.append('(').append(label);
+
+        for (String child : children) {
+            out.append(' ');
+            expand(child, depth + 1, out);
+        }
+        out.append(')');
+    }
+
+    /**
+     * Write sentences to files of fileSize sentences in dir, which is replaced only when all are written
+     */
+    void write(Path dir, long sentences, int clauses, int fileSize) throws IOException {
+        Path tmpDir = dir.resolveSibling(dir.getFileName() + ".tmp");
+
+        if (Files.exists(tmpDir)) {
+            FileUtils.deleteDirectory(tmpDir.toFile());
+        }
+        FileUtils.forceMkdir(tmpDir.toFile());
+        long written = 0;
+
+        for (int file = 1; written < sentences; file++) {
+            Path path = tmpDir.resolve(String.format("synthetic-%06d.parse", file));
+
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < fileSize && written < sentences; i++, written++) {
+                    writer.write(sentence(clauses));
+                    writer.newLine();
+                }
+            }
+        }
+
+        if (Files.exists(dir)) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+        Files.move(tmpDir, dir, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("generate-corpus")
+                .description("Generate synthetic parse trees from the grammar of the test trees");
+        parser.addArgument("dir")
+                .metavar("DIR")
+                .help("directory for writing trees in PTB format");
+        parser.addArgument("-n", "--sentences")
+                .setDefault(1000L)
+                .metavar("N")
+                .type(Long.class)
+                .help("number of sentences (default 1000)");
+        parser.addArgument("-c", "--clauses")
+                .setDefault(1)
+                .metavar("N")
+                .type(Integer.class)
+                .help("number of clauses conjoined in each sentence (default 1)");
+        parser.addArgument("-d", "--max-depth")
+                .setDefault(DEFAULT_MAX_DEPTH)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("maximum depth of clauses, approximately (default %d)", DEFAULT_MAX_DEPTH));
+        parser.addArgument("-a", "--anchor-rate")
+                .setDefault(DEFAULT_ANCHOR_RATE)
+                .metavar("P")
+                .type(Double.class)
+                .help(String.format("rate of verbs and nouns replaced by words anchoring extraction rules " +
+                        "(default %.1f)", DEFAULT_ANCHOR_RATE));
+        parser.addArgument("-f", "--file-size")
+                .setDefault(DEFAULT_FILE_SIZE)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("number of sentences per file (default %d)", DEFAULT_FILE_SIZE));
+        parser.addArgument("-s", "--seed")
+                .setDefault(DEFAULT_SEED)
+                .type(Long.class)
+                .help(String.format("seed of random generator (default %d)", DEFAULT_SEED));
+
+        Namespace namespace = null;
+        try {
+            namespace = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+
+        CorpusGenerator generator = fromTestData(namespace.getLong("seed"));
+        generator.setMaxDepth(namespace.getInt("max_depth"));
+        generator.setAnchorRate(namespace.getDouble("anchor_rate"));
+
+        try {
+            generator.write(Paths.get(namespace.getString("dir")), namespace.getLong("sentences"),
+                    namespace.getInt("clauses"), namespace.getInt("file_size"));
+        } catch (IOException x) {
+            System.err.format("IOException: %s%n", x);
+            System.exit(1);
+        }
+    }
+}
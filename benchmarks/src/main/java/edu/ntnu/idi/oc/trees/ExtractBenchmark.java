@@ -0,0 +1,66 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.trees.Tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extraction from all test trees by the full change, increase and decrease rule sets,
+ * as matched trees and as extracts rendered for output
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractBenchmark {
+    @Param({"1", "4"})
+    public int scale;
+
+    private List<TreeExtractor> extractors;
+    private Extraction extraction;
+    private final List<Tree> trees = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        extractors = BenchmarkData.extractors();
+        extraction = new Extraction(extractors);
+        TreeParser parser = new TreeParser();
+
+        for (String line : BenchmarkData.trees(scale)) {
+            trees.add(parser.parse(line));
+        }
+    }
+
+    @Benchmark
+    public void extractTrees(Blackhole blackhole) {
+        for (Tree tree : trees) {
+            for (TreeExtractor extractor : extractors) {
+                blackhole.consume(extractor.extractTrees(tree));
+            }
+        }
+    }
+
+    @Benchmark
+    public void extractAndRender(Blackhole blackhole) {
+        for (Tree tree : trees) {
+            blackhole.consume(extraction.extractFromTree(tree));
+        }
+    }
+}
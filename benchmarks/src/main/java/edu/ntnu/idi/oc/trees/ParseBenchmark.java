@@ -0,0 +1,56 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.trees.Tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing all test trees from PTB text, by Tree.valueOf and by TreeParser
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"1", "4"})
+    public int scale;
+
+    private List<String> lines;
+    private TreeParser parser;
+
+    @Setup
+    public void setUp() {
+        lines = BenchmarkData.trees(scale);
+        parser = new TreeParser();
+    }
+
+    @Benchmark
+    public void treeValueOf(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(Tree.valueOf(line));
+        }
+    }
+
+    @Benchmark
+    public void treeParser(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(parser.parse(line));
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end benchmark of extraction and pruning on synthetic corpora of increasing size.
+ *
+ * For each corpus size and sentence length, a corpus is generated by CorpusGenerator (or reused from an earlier run)
+ * and variables are extracted from it with each number of threads and workers, as extract-vars does,
+ * after which the variables are pruned, as prune-vars does.
+ * Each run reports sentences and output records per second, peak heap use and GC time,
+ * and a checksum of its output records, which is independent of format, threads and workers.
+ * Checksums are compared with those saved by an earlier run in a checksum file, so changes in output show up.
+ */
+public class ScalingBenchmark {
+    private static final int DEFAULT_MAX_DESCENDANTS = 1000;
+    private static final String HEADER = String.format("%-8s %9s %7s %7s %7s %9s %10s %10s %10s %8s %8s  %s",
+            "phase", "sentences", "clauses", "threads", "workers", "seconds", "sent/s", "records", "records/s",
+            "heap MB", "GC ms", "checksum");
+
+    private final Path workDir;
+    private final RecordFormat format;
+    private final Compression compression;
+    private final boolean preprocess;
+    private final long seed;
+    private Namespace limits;
+    private final Properties checksums = new Properties();
+    private int mismatches;
+
+    ScalingBenchmark(Path workDir, RecordFormat format, Compression compression, boolean preprocess, long seed) {
+        this.workDir = workDir;
+        this.format = format;
+        this.compression = compression;
+        this.preprocess = preprocess;
+        this.seed = seed;
+    }
+
+    /**
+     * Result of one run of a phase
+     */
+    private static class Result {
+        final String phase;
+        final long sentences;
+        final int clauses;
+        final int threads;
+        final int workers;
+        final double seconds;
+        final long records;
+        final long peakHeap;
+        final long gcTime;
+        final String checksum;
+
+        Result(String phase, long sentences, int clauses, int threads, int workers, double seconds, long records,
+               long peakHeap, long gcTime, String checksum) {
+            this.phase = phase;
+            this.sentences = sentences;
+            this.clauses = clauses;
+            this.threads = threads;
+            this.workers = workers;
+            this.seconds = seconds;
+            this.records = records;
+            this.peakHeap = peakHeap;
+            this.gcTime = gcTime;
+            this.checksum = checksum;
+        }
+
+        String key(String variant) {
+            return String.format("%s.%d.%d%s", phase, sentences, clauses, variant);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s %9d %7d %7d %7d %9.2f %10.0f %10d %10.0f %8d %8d  %s",
+                    phase, sentences, clauses, threads, workers, seconds, sentences / seconds, records,
+                    records / seconds, peakHeap >> 20, gcTime, checksum);
+        }
+    }
+
+    /**
+     * Heap use and GC time of a run, measured from its start
+     */
+    private static class Measurement {
+        final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .collect(Collectors.toList());
+        final long startGcTime;
+        final long startTime;
+
+        Measurement() {
+            System.gc();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            startGcTime = gcTime();
+            startTime = System.nanoTime();
+        }
+
+        double seconds() {
+            return (System.nanoTime() - startTime) / 1e9;
+        }
+
+        long peakHeap() {
+            // sum of peaks of the pools, which need not have been reached at the same time
+            return heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        }
+
+        long gcTimeSinceStart() {
+            return gcTime() - startGcTime;
+        }
+
+        private static long gcTime() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                    .filter(time -> time > 0)
+                    .sum();
+        }
+    }
+
+    /**
+     * Set limits of pruning per origin from parsed command line arguments, as Transformation.setLimits does
+     */
+    void setLimits(Namespace limits) {
+        if (limits.getLong("time_budget") > 0) {
+            System.err.println("warning: with a time budget, checksums of pruning depend on timing");
+        }
+        this.limits = limits;
+    }
+
+    /**
+     * Suffix of checksum keys for the options affecting output of phase
+     */
+    private String variant(String phase) {
+        StringBuilder variant = new StringBuilder();
+
+        if (preprocess) {
+            variant.append(".preprocess");
+        }
+
+        if (phase.equals("prune") && limits != null) {
+            variant.append(String.format(".depth-%d.descendants-%d",
+                    limits.getInt("max_depth"), limits.getInt("max_descendants")));
+        }
+        return variant.toString();
+    }
+
+    /**
+     * Corpus of sentences, generated unless it exists in the work directory
+     */
+    Path corpus(long sentences, int clauses) throws IOException {
+        Path dir = workDir.resolve(String.format("corpus-%d-%d-%d", sentences, clauses, seed));
+
+        if (!Files.isDirectory(dir)) {
+            System.out.format("generating %d sentences of %d clauses in %s%n", sentences, clauses, dir);
+            CorpusGenerator.fromTestData(seed).write(dir, sentences, clauses, CorpusGenerator.DEFAULT_FILE_SIZE);
+        }
+        return dir;
+    }
+
+    Result extract(Path corpus, Path varsDir, long sentences, int clauses, int threads, int workers)
+            throws IOException {
+        Extraction extraction = new Extraction(BenchmarkData.extractors());
+        extraction.setThreads(threads);
+        extraction.setWorkers(workers);
+        extraction.setFormat(format);
+        extraction.setCompression(compression);
+
+        if (preprocess) {
+            for (String file : BenchmarkData.PREPROCESSING_FILES) {
+                try (InputStream stream = BenchmarkData.class.getClassLoader().getResourceAsStream(file)) {
+                    extraction.addPreprocessor(stream);
+                }
+            }
+        }
+        clean(varsDir);
+
+        Measurement measurement = new Measurement();
+        extraction.apply(corpus, varsDir);
+        double seconds = measurement.seconds();
+        long peakHeap = measurement.peakHeap();
+        long gcTime = measurement.gcTimeSinceStart();
+
+        long[] records = new long[1];
+        String checksum = checksum(varsDir, records);
+        return new Result("extract", sentences, clauses, threads, workers, seconds, records[0], peakHeap, gcTime,
+                checksum);
+    }
+
+    Result prune(Path varsDir, Path pruneDir, long sentences, int clauses) throws IOException {
+        List<TreeTransformer> transformers = new ArrayList<>();
+
+        for (String file : BenchmarkData.PRUNE_FILES) {
+            transformers.add(BenchmarkData.transformer(file));
+        }
+        Transformation transformation = new Transformation(transformers);
+
+        if (limits != null) {
+            transformation.setLimits(limits);
+        }
+        transformation.setFormat(format);
+        transformation.setCompression(compression);
+        clean(pruneDir);
+
+        Measurement measurement = new Measurement();
+        transformation.apply(varsDir, pruneDir, false);
+        double seconds = measurement.seconds();
+        long peakHeap = measurement.peakHeap();
+        long gcTime = measurement.gcTimeSinceStart();
+
+        long[] records = new long[1];
+        String checksum = checksum(pruneDir, records);
+        return new Result("prune", sentences, clauses, 1, 1, seconds, records[0], peakHeap, gcTime, checksum);
+    }
+
+    private static void clean(Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            FileUtils.deleteDirectory(dir.toFile());
+        }
+    }
+
+    /**
+     * MD5 digest of the records in the record files of dir, in order of file names, storing their number in count
+     */
+    static String checksum(Path dir, long[] count) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException(x);
+        }
+        List<Path> files = Files.walk(dir)
+                .filter(RecordReader::isRecordFile)
+                .sorted()
+                .collect(Collectors.toList());
+
+        for (Path file : files) {
+            try (RecordReader reader = RecordReader.open(file)) {
+                ObjectNode record;
+
+                while ((record = reader.next()) != null) {
+                    digest.update(record.toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) '\n');
+                    count[0]++;
+                }
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Print result, comparing its checksum with the one expected, or else recording it as expected
+     */
+    void report(Result result) {
+        String key = result.key(variant(result.phase));
+        String expected = checksums.getProperty(key);
+
+        if (expected == null) {
+            checksums.setProperty(key, result.checksum);
+            System.out.println(result);
+        } else if (expected.equals(result.checksum)) {
+            System.out.println(result);
+        } else {
+            mismatches++;
+            System.out.println(result + " MISMATCH, expected " + expected);
+        }
+    }
+
+    void loadChecksums(Path file) throws IOException {
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                checksums.load(reader);
+            }
+        }
+    }
+
+    void saveChecksums(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            checksums.store(writer, "checksums of output records by phase.sentences.clauses and options");
+        }
+    }
+
+    public static void main(String[] args) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("scaling-benchmark")
+                .description("Benchmark extraction and pruning on synthetic corpora of increasing size. " +
+                        "Pruning keeps at most " + DEFAULT_MAX_DESCENDANTS + " descendants per origin, " +
+                        "unless --max-descendants is given.");
+        parser.addArgument("workDir")
+                .metavar("DIR")
+                .help("directory for corpora, which are reused, and output, which is replaced");
+        parser.addArgument("-n", "--sentences")
+                .setDefault(Arrays.asList(1000L, 10000L, 100000L, 1000000L))
+                .nargs("+")
+                .metavar("N")
+                .type(Long.class)
+                .help("corpus sizes in sentences (default 1000 10000 100000 1000000)");
+        parser.addArgument("-c", "--clauses")
+                .setDefault(Arrays.asList(1))
+                .nargs("+")
+                .metavar("N")
+                .type(Integer.class)
+                .help("sentence lengths in conjoined clauses (default 1)");
+        parser.addArgument("-j", "--threads")
+                .setDefault(Arrays.asList(1))
+                .nargs("+")
+                .metavar("N")
+                .type(Integer.class)
+                .help("numbers of files extracted from in parallel (default 1)");
+        parser.addArgument("-w", "--workers")
+                .setDefault(Arrays.asList(1))
+                .nargs("+")
+                .metavar("N")
+                .type(Integer.class)
+                .help("numbers of threads parsing and matching trees within a file (default 1)");
+        parser.addArgument("--no-prune")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("only extract, without pruning the variables extracted");
+        parser.addArgument("-p", "--preprocess")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("delete determiners, personal pronouns and list item markers before extraction");
+        parser.addArgument("-s", "--seed")
+                .setDefault(CorpusGenerator.DEFAULT_SEED)
+                .type(Long.class)
+                .help(String.format("seed of corpus generator (default %d)", CorpusGenerator.DEFAULT_SEED));
+        parser.addArgument("--checksums")
+                .metavar("FILE")
+                .help("file of expected checksums, to which checksums of new configurations are added");
+        parser.addArgument("-v", "--verbose")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("log progress of extraction and pruning");
+        Transformation.addLimitArguments(parser);
+        // synthetic variables may have more descendants than fit in memory
+        parser.setDefault("max_descendants", DEFAULT_MAX_DESCENDANTS);
+        RecordFormat.addFormatArgument(parser);
+        Compression.addCompressionArgument(parser);
+
+        Namespace namespace = null;
+        try {
+            namespace = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+
+        if (!namespace.getBoolean("verbose")) {
+            Logger.getLogger("").setLevel(Level.WARNING);
+        }
+        Path workDir = Paths.get(namespace.getString("workDir"));
+        Path checksumFile = (namespace.getString("checksums") == null) ? null : Paths.get(namespace.getString("checksums"));
+        ScalingBenchmark benchmark = new ScalingBenchmark(workDir, RecordFormat.fromArguments(namespace),
+                Compression.fromArguments(namespace), namespace.getBoolean("preprocess"), namespace.getLong("seed"));
+        benchmark.setLimits(namespace);
+        Path varsDir = workDir.resolve("vars");
+        Path pruneDir = workDir.resolve("prune");
+
+        try {
+            FileUtils.forceMkdir(workDir.toFile());
+
+            if (checksumFile != null) {
+                benchmark.loadChecksums(checksumFile);
+            }
+            System.out.println(HEADER);
+
+            for (long sentences : namespace.<Long>getList("sentences")) {
+                for (int clauses : namespace.<Integer>getList("clauses")) {
+                    Path corpus = benchmark.corpus(sentences, clauses);
+
+                    for (int threads : namespace.<Integer>getList("threads")) {
+                        for (int workers : namespace.<Integer>getList("workers")) {
+                            benchmark.report(benchmark.extract(corpus, varsDir, sentences, clauses, threads, workers));
+                        }
+                    }
+
+                    if (!namespace.getBoolean("no_prune")) {
+                        benchmark.report(benchmark.prune(varsDir, pruneDir, sentences, clauses));
+                    }
+                }
+            }
+
+            if (checksumFile != null) {
+                benchmark.saveChecksums(checksumFile);
+            }
+        } catch (IOException x) {
+            System.err.format("IOException: %s%n", x);
+            System.exit(1);
+        } catch (UncheckedIOException x) {
+            System.err.format("IOException: %s%n", x.getCause());
+            System.exit(1);
+        }
+
+        if (benchmark.mismatches > 0) {
+            System.err.format("%d checksums differ from those expected%n", benchmark.mismatches);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package edu.ntnu.idi.oc.trees;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of the records of extracts from all test trees in each format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"JSON", "JSONL", "BINARY"})
+    public RecordFormat format;
+
+    private Extraction extraction;
+    private final List<List<Extraction.LabeledExtract>> extracts = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        extraction = new Extraction(BenchmarkData.extractors());
+        TreeParser parser = new TreeParser();
+
+        for (String line : BenchmarkData.trees()) {
+            extracts.add(extraction.extractFromTree(parser.parse(line)));
+        }
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        try (RecordWriter writer = RecordWriter.open(new NullOutputStream(), format)) {
+            for (int i = 0; i < extracts.size(); i++) {
+                for (Extraction.LabeledExtract labeled : extracts.get(i)) {
+                    writer.write(extraction.extractNode("benchmark", i + 1, labeled));
+                }
+            }
+        }
+    }
+}
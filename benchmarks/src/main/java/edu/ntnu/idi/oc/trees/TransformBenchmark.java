@@ -0,0 +1,56 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import edu.stanford.nlp.trees.Tree;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single step of pruning, transforming the subtrees of all test variables by each prune rule file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransformBenchmark {
+    @Param({"coordination", "parenthetical", "non-restrict", "modifiers"})
+    public String rules;
+
+    private TreeTransformer transformer;
+    private final List<Tree> trees = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        transformer = BenchmarkData.transformer("tsurgeon/prune/" + rules + ".tfm");
+        TreeParser parser = new TreeParser();
+
+        for (ObjectNode record : BenchmarkData.vars()) {
+            trees.add(parser.parse(record.get("subTree").asText()));
+        }
+    }
+
+    @Benchmark
+    public void transformTree(Blackhole blackhole) {
+        for (Tree tree : trees) {
+            blackhole.consume(transformer.transformTree(tree));
+        }
+    }
+}
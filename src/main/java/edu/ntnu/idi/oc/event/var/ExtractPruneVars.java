@@ -0,0 +1,159 @@
+package edu.ntnu.idi.oc.event.var;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import edu.ntnu.idi.oc.trees.CheckpointedOutput;
+import edu.ntnu.idi.oc.trees.Compression;
+import edu.ntnu.idi.oc.trees.Extraction;
+import edu.ntnu.idi.oc.trees.ExtractionCache;
+import edu.ntnu.idi.oc.trees.InternPool;
+import edu.ntnu.idi.oc.trees.OperationBudget;
+import edu.ntnu.idi.oc.trees.OperationMetrics;
+import edu.ntnu.idi.oc.trees.Progress;
+import edu.ntnu.idi.oc.trees.RecordFormat;
+import edu.ntnu.idi.oc.trees.Transformation;
+
+/**
+ * Extract changing/increasing/decreasing variables and prune them in one pass, as extract-vars followed by
+ * prune-vars, but passing extracted subtrees to pruning in memory instead of through a file of variables
+ */
+public class ExtractPruneVars {
+    private final static String DEFAULT_TAG = "#var";
+    private final static String DEFAULT_PRUNE_TAG = "#prune";
+    private final static int DEFAULT_MAX_TREE_SIZE = 100;
+    private final static int DEFAULT_THREADS = 1;
+    private final static int DEFAULT_WORKERS = 1;
+
+    public static void main(String[] args) throws IOException {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("extract-prune-vars")
+                .description("Extract and prune changing/increasing/decreasing variables");
+        parser.addArgument("trees")
+                .metavar("TREES")
+                .help("file or directory containing trees in PTB format, possibly compressed");
+        parser.addArgument("transDir")
+                .metavar("OUT")
+                .help("directory for writing pruned variables in JSON, JSON Lines or binary format");
+        parser.addArgument("-v", "--vars")
+                .metavar("DIR")
+                .help("directory for writing extracted variables as well, as extract-vars does");
+        parser.addArgument("-u", "--unique")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("unique substrings (ommit duplicate results)");
+        parser.addArgument("-m", "--max-tree-size")
+                .setDefault(DEFAULT_MAX_TREE_SIZE)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("skip trees with more than N nodes (default %d)", DEFAULT_MAX_TREE_SIZE));
+        parser.addArgument("-p", "--preprocess")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("delete determiners, personal pronouns and list item markers before extraction");
+        parser.addArgument("-r", "--resume")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("resume process");
+        parser.addArgument("-t", "--tag")
+                .setDefault(DEFAULT_TAG)
+                .help("filename tag of extracted variables (default '" + DEFAULT_TAG + "')" );
+        parser.addArgument("--prune-tag")
+                .setDefault(DEFAULT_PRUNE_TAG)
+                .help("filename tag added for pruned variables (default '" + DEFAULT_PRUNE_TAG + "')" );
+        parser.addArgument("-d", "--dag")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("link descendants with a variable reached before instead of pruning it again");
+        parser.addArgument("-j", "--threads")
+                .setDefault(DEFAULT_THREADS)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("number of files processed in parallel (default %d)", DEFAULT_THREADS));
+        parser.addArgument("-w", "--workers")
+                .setDefault(DEFAULT_WORKERS)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("number of threads parsing and matching trees within a file (default %d)",
+                        DEFAULT_WORKERS));
+        Transformation.addLimitArguments(parser);
+        RecordFormat.addFormatArgument(parser);
+        Compression.addCompressionArgument(parser);
+        CheckpointedOutput.addCheckpointArgument(parser);
+        ExtractionCache.addCacheArguments(parser);
+        Progress.addProgressArgument(parser);
+        OperationMetrics.addMetricsArgument(parser);
+        OperationBudget.addBudgetArguments(parser);
+
+        Namespace namespace = null;
+        try {
+            namespace = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+
+        Transformation transformation = new Transformation();
+        transformation.setDag(namespace.getBoolean("dag"));
+        transformation.setLimits(namespace);
+
+        Extraction extraction = new Extraction();
+        extraction.setThreads(namespace.getInt("threads"));
+        extraction.setWorkers(namespace.getInt("workers"));
+        extraction.setFormat(RecordFormat.fromArguments(namespace));
+        extraction.setCompression(Compression.fromArguments(namespace));
+        extraction.setCheckpointInterval(CheckpointedOutput.checkpointIntervalFrom(namespace));
+        extraction.setCache(ExtractionCache.fromArguments(namespace));
+        extraction.setProgressInterval(Progress.progressIntervalFrom(namespace));
+        OperationMetrics.fromArguments(namespace);
+        OperationBudget budget = OperationBudget.fromArguments(namespace);
+        extraction.setBudget(budget);
+        transformation.setBudget(budget);
+        extraction.setTransformation(transformation, namespace.getBoolean("unique"),
+                namespace.getInt("max_tree_size"), namespace.getString("prune_tag"));
+
+        ClassLoader cLoader = extraction.getClass().getClassLoader();
+
+        if (namespace.getBoolean("preprocess")) {
+            for (String file: ExtractVars.PREPROCESSING_FILES) {
+                InputStream stream = cLoader.getResourceAsStream(file);
+                extraction.addPreprocessor(stream);
+                stream.close();
+            }
+        }
+
+        for (String pair: ExtractVars.OPERATION_FILES) {
+            String[] parts = pair.split(":", 2);
+            InputStream stream = cLoader.getResourceAsStream(parts[1]);
+            extraction.addExtractor(parts[0], stream);
+            stream.close();
+        }
+
+        for (String file: PruneVars.OPERATION_FILES) {
+            InputStream stream = cLoader.getResourceAsStream(file);
+            transformation.addTransformer(stream);
+            stream.close();
+        }
+
+        Path treesPath = Paths.get(namespace.getString("trees"));
+        Path transDir = Paths.get(namespace.getString("transDir"));
+        Path varsDir = (namespace.getString("vars") == null) ? null : Paths.get(namespace.getString("vars"));
+        boolean resume = namespace.getBoolean("resume");
+        String tag = namespace.getString("tag");
+
+        extraction.apply(treesPath, varsDir, transDir, resume, tag);
+        InternPool.logShared();
+
+        if (budget != null) {
+            budget.close();
+        }
+    }
+
+}
@@ -11,28 +11,45 @@ import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import edu.ntnu.idi.oc.trees.CheckpointedOutput;
+import edu.ntnu.idi.oc.trees.Compression;
 import edu.ntnu.idi.oc.trees.Extraction;
+import edu.ntnu.idi.oc.trees.ExtractionCache;
+import edu.ntnu.idi.oc.trees.InternPool;
+import edu.ntnu.idi.oc.trees.OperationBudget;
+import edu.ntnu.idi.oc.trees.OperationMetrics;
+import edu.ntnu.idi.oc.trees.Progress;
+import edu.ntnu.idi.oc.trees.RecordFormat;
 
 /**
  * Extract changing/increasing/decreasing variables
  */
 public class ExtractVars {
-    private static final String[] OPERATION_FILES = {
+    static final String[] OPERATION_FILES = {
             "change:tsurgeon/extract/change.tfm",
             "decrease:tsurgeon/extract/decrease.tfm",
             "increase:tsurgeon/extract/increase.tfm"
     };
+    static final String[] PREPROCESSING_FILES = {
+            "tsurgeon/preproc/preproc.tfm"
+    };
     private final static String DEFAULT_TAG = "#var";
+    private final static int DEFAULT_THREADS = 1;
+    private final static int DEFAULT_WORKERS = 1;
 
     public static void main(String[] args) throws IOException {
         ArgumentParser parser = ArgumentParsers.newArgumentParser("extract-vars")
                 .description("Extract changing/increasing/decreasing variables");
         parser.addArgument("trees")
                 .metavar("TREES")
-                .help("file or directory containing trees in PTB format");
+                .help("file or directory containing trees in PTB format, possibly compressed");
         parser.addArgument("extraction")
                 .metavar("EXTRACT")
-                .help("directory for writing extractions in JSON format");
+                .help("directory for writing extractions in JSON, JSON Lines or binary format");
+        parser.addArgument("-p", "--preprocess")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("delete determiners, personal pronouns and list item markers before extraction");
         parser.addArgument("-r", "--resume")
                 .setDefault(false)
                 .action(Arguments.storeTrue())
@@ -40,7 +57,24 @@ public class ExtractVars {
         parser.addArgument("-t", "--tag")
                 .setDefault(DEFAULT_TAG)
                 .help("filename tag (default '" + DEFAULT_TAG + "')" );
-
+        parser.addArgument("-j", "--threads")
+                .setDefault(DEFAULT_THREADS)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("number of files processed in parallel (default %d)", DEFAULT_THREADS));
+        parser.addArgument("-w", "--workers")
+                .setDefault(DEFAULT_WORKERS)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("number of threads parsing and matching trees within a file (default %d)",
+                        DEFAULT_WORKERS));
+        RecordFormat.addFormatArgument(parser);
+        Compression.addCompressionArgument(parser);
+        CheckpointedOutput.addCheckpointArgument(parser);
+        ExtractionCache.addCacheArguments(parser);
+        Progress.addProgressArgument(parser);
+        OperationMetrics.addMetricsArgument(parser);
+        OperationBudget.addBudgetArguments(parser);
 
         Namespace namespace = null;
         try {
@@ -51,9 +85,27 @@ public class ExtractVars {
         }
 
         Extraction extraction = new Extraction();
+        extraction.setThreads(namespace.getInt("threads"));
+        extraction.setWorkers(namespace.getInt("workers"));
+        extraction.setFormat(RecordFormat.fromArguments(namespace));
+        extraction.setCompression(Compression.fromArguments(namespace));
+        extraction.setCheckpointInterval(CheckpointedOutput.checkpointIntervalFrom(namespace));
+        extraction.setCache(ExtractionCache.fromArguments(namespace));
+        extraction.setProgressInterval(Progress.progressIntervalFrom(namespace));
+        OperationMetrics.fromArguments(namespace);
+        OperationBudget budget = OperationBudget.fromArguments(namespace);
+        extraction.setBudget(budget);
 
         ClassLoader cLoader = extraction.getClass().getClassLoader();
 
+        if (namespace.getBoolean("preprocess")) {
+            for (String file: PREPROCESSING_FILES) {
+                InputStream stream = cLoader.getResourceAsStream(file);
+                extraction.addPreprocessor(stream);
+                stream.close();
+            }
+        }
+
         for (String pair: OPERATION_FILES) {
             String[] parts = pair.split(":", 2);
             InputStream stream = cLoader.getResourceAsStream(parts[1]);
@@ -67,6 +119,11 @@ public class ExtractVars {
         String tag = namespace.getString("tag");
 
         extraction.apply(treesPath, extractDir, resume, tag);
+        InternPool.logShared();
+
+        if (budget != null) {
+            budget.close();
+        }
     }
 
 }
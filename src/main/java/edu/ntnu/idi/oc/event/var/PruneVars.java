@@ -11,13 +11,20 @@ import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import edu.ntnu.idi.oc.trees.CheckpointedOutput;
+import edu.ntnu.idi.oc.trees.Compression;
+import edu.ntnu.idi.oc.trees.InternPool;
+import edu.ntnu.idi.oc.trees.OperationBudget;
+import edu.ntnu.idi.oc.trees.OperationMetrics;
+import edu.ntnu.idi.oc.trees.Progress;
+import edu.ntnu.idi.oc.trees.RecordFormat;
 import edu.ntnu.idi.oc.trees.Transformation;
 
 /**
  * Extract changing/increasing/decreasing variables
  */
 public class PruneVars {
-    private static final String[] OPERATION_FILES = {
+    static final String[] OPERATION_FILES = {
             "tsurgeon/prune/coordination.tfm",
             "tsurgeon/prune/parenthetical.tfm",
             "tsurgeon/prune/non-restrict.tfm",
@@ -31,10 +38,10 @@ public class PruneVars {
                 .description("Prune changing/increasing/decreasing variables");
         parser.addArgument("varsPath")
                 .metavar("IN")
-                .help("file or directory containing extracted variables in JSON format");
+                .help("file or directory containing extracted variables in JSON, JSON Lines or binary format");
         parser.addArgument("transDir")
                 .metavar("OUT")
-                .help("directory for writing extracted variables JSON format");
+                .help("directory for writing pruned variables in JSON, JSON Lines or binary format");
         parser.addArgument("-u", "--unique")
                 .setDefault(false)
                 .action(Arguments.storeTrue())
@@ -51,6 +58,17 @@ public class PruneVars {
         parser.addArgument("-t", "--tag")
                 .setDefault(DEFAULT_TAG)
                 .help("filename tag (default '" + DEFAULT_TAG + "')" );
+        parser.addArgument("-d", "--dag")
+                .setDefault(false)
+                .action(Arguments.storeTrue())
+                .help("link descendants with a variable reached before instead of pruning it again");
+        Transformation.addLimitArguments(parser);
+        RecordFormat.addFormatArgument(parser);
+        Compression.addCompressionArgument(parser);
+        CheckpointedOutput.addCheckpointArgument(parser);
+        Progress.addProgressArgument(parser);
+        OperationMetrics.addMetricsArgument(parser);
+        OperationBudget.addBudgetArguments(parser);
 
 
         Namespace namespace = null;
@@ -62,6 +80,15 @@ public class PruneVars {
         }
 
         Transformation transformation = new Transformation();
+        transformation.setDag(namespace.getBoolean("dag"));
+        transformation.setLimits(namespace);
+        transformation.setFormat(RecordFormat.fromArguments(namespace));
+        transformation.setCompression(Compression.fromArguments(namespace));
+        transformation.setCheckpointInterval(CheckpointedOutput.checkpointIntervalFrom(namespace));
+        transformation.setProgressInterval(Progress.progressIntervalFrom(namespace));
+        OperationMetrics.fromArguments(namespace);
+        OperationBudget budget = OperationBudget.fromArguments(namespace);
+        transformation.setBudget(budget);
 
         ClassLoader cLoader = transformation.getClass().getClassLoader();
 
@@ -78,6 +105,11 @@ public class PruneVars {
         String tag = namespace.getString("tag");
 
         transformation.apply(varsPath, transDir, unique, maxTreeSize, resume, tag);
+        InternPool.logShared();
+
+        if (budget != null) {
+            budget.close();
+        }
     }
 
 }
@@ -0,0 +1,131 @@
+package edu.ntnu.idi.oc.trees;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input stream reading its source ahead on a thread of its own, e.g. so decompression runs in parallel with parsing.
+ *
+ * The thread reads blocks into a bounded queue and closes the source when it is done.
+ * Failures on the thread are thrown by the reader once it has read all blocks before the failure,
+ * wrapped in an IOException unless they are one.
+ */
+class BackgroundInputStream extends InputStream {
+    private static final int BLOCK_SIZE = 1 << 16;
+    private static final int QUEUE_SIZE = 4;
+    // marks the end of the source, or a failure to read it
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Thread thread;
+    private volatile Throwable failure;
+    private byte[] block = new byte[0];
+    private int position = 0;
+
+    BackgroundInputStream(InputStream source, String name) {
+        thread = new Thread(() -> readAhead(source), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void readAhead(InputStream source) {
+        boolean closed = false;
+
+        try (InputStream in = source) {
+            while (true) {
+                byte[] buffer = new byte[BLOCK_SIZE];
+                int length = 0;
+                int n = 0;
+
+                while (length < BLOCK_SIZE && (n = in.read(buffer, length, BLOCK_SIZE - length)) >= 0) {
+                    length += n;
+                }
+
+                if (length > 0) {
+                    blocks.put(length < BLOCK_SIZE ? Arrays.copyOf(buffer, length) : buffer);
+                }
+                if (n < 0) {
+                    break;
+                }
+            }
+        } catch (InterruptedException x) {
+            // closed by reader, which takes no more blocks
+            closed = true;
+        } catch (Throwable x) {
+            failure = x;
+        } finally {
+            // the reader waits for blocks until the end, whatever stopped the thread
+            if (!closed) {
+                try {
+                    blocks.put(END);
+                } catch (InterruptedException x) {
+                    // closed by reader
+                }
+            }
+        }
+    }
+
+    /**
+     * Take next block if the current one is used up, returning false at the end of the source
+     */
+    private boolean nextBlock() throws IOException {
+        if (block == END) {
+            return false;
+        }
+
+        while (position == block.length) {
+            try {
+                block = blocks.take();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for input");
+            }
+            position = 0;
+
+            if (block == END) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                } else if (failure != null) {
+                    throw new IOException("reading ahead failed: " + failure, failure);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return nextBlock() ? block[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        } else if (!nextBlock()) {
+            return -1;
+        }
+
+        int n = Math.min(length, block.length - position);
+        System.arraycopy(block, position, buffer, offset, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    @Override
+    public void close() {
+        // thread closes the source as it stops
+        thread.interrupt();
+        block = END;
+    }
+}
@@ -0,0 +1,349 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static edu.ntnu.idi.oc.trees.BinaryRecords.*;
+
+/**
+ * Reader of records in binary format, as described in BinaryRecords.
+ * Records are decoded directly into tree model nodes. With a tree parser set, the subTree of a record is
+ * decoded into a tree at the same time, so it need not be parsed from its text.
+ */
+class BinaryRecordReader extends RecordReader {
+    private static final JsonNodeFactory nodeFactory = JsonNodeFactory.instance;
+
+    private final Path file;
+    private final InputStream in;
+    private final List<String> dictionary = new ArrayList<>();
+    private final List<String> keys = new ArrayList<>();
+    private final StringBuilder tree = new StringBuilder();
+    // builder of trees from subTree fields, or null, and children of the open nodes by depth
+    private TreeParser treeParser;
+    private final List<List<Tree>> children = new ArrayList<>();
+    private Tree lastTree;
+    // buffered here rather than by the stream, which synchronizes reading each byte
+    private final byte[] buffer = new byte[8192];
+    private int position = 0;
+    private int limit = 0;
+    // offset in the file of the start of the buffer
+    private long bufferOffset;
+    private byte[] stringBuffer = new byte[256];
+
+    BinaryRecordReader(Path file, InputStream in) throws IOException {
+        this.file = file;
+        this.in = in;
+        bufferOffset = 0;
+
+        for (byte b : MAGIC) {
+            if (readByte() != (b & 0xff)) {
+                throw new IOException("not a binary record file: " + file);
+            }
+        }
+
+        int version = (int) readVarint();
+
+        if (version != VERSION) {
+            throw new IOException("unsupported version " + version + " of binary record file " + file);
+        }
+    }
+
+    /**
+     * Reader of records starting at an origin record at offset in the file,
+     * where dictionary holds the dictionary strings read before offset
+     */
+    BinaryRecordReader(Path file, InputStream in, long offset, List<String> dictionary) {
+        this.file = file;
+        this.in = in;
+        bufferOffset = offset;
+        this.dictionary.addAll(dictionary);
+    }
+
+    @Override
+    RecordFormat getFormat() {
+        return RecordFormat.BINARY;
+    }
+
+    @Override
+    long getOffset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * Dictionary strings read so far, which are needed to start reading at a later offset
+     */
+    List<String> getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    void setTreeParser(TreeParser parser) {
+        treeParser = parser;
+    }
+
+    @Override
+    Tree getTree() {
+        return lastTree;
+    }
+
+    @Override
+    ObjectNode next() throws IOException {
+        lastTree = null;
+
+        if (position == limit && !fill()) {
+            return null;
+        }
+
+        int tag = readByte();
+
+        if (tag == ORIGIN_RECORD) {
+            keys.clear();
+        } else if (tag != RECORD) {
+            throw new IOException("invalid record tag " + tag + " in " + file);
+        }
+        return readFields(true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read fields of an object, which is a whole record if record is true
+     */
+    private ObjectNode readFields(boolean record) throws IOException {
+        ObjectNode node = nodeFactory.objectNode();
+
+        for (long n = readVarint(); n > 0; n--) {
+            String name = readDictionaryString();
+            int tag = readByte();
+
+            if (tag == TREE && record && treeParser != null && name.equals("subTree")) {
+                tree.setLength(0);
+                treeParser.startTree();
+                Tree subTree = readTreeNodes(0);
+                String text = tree.toString();
+                lastTree = treeParser.finishTree(subTree, text);
+                node.set(name, nodeFactory.textNode(text));
+            } else {
+                node.set(name, readValue(tag));
+            }
+        }
+        return node;
+    }
+
+    private JsonNode readValue() throws IOException {
+        return readValue(readByte());
+    }
+
+    private JsonNode readValue(int tag) throws IOException {
+        switch (tag) {
+            case NULL:
+                return nodeFactory.nullNode();
+            case FALSE:
+                return nodeFactory.booleanNode(false);
+            case TRUE:
+                return nodeFactory.booleanNode(true);
+            case INTEGER:
+                long zigzag = readVarint();
+                long n = (zigzag >>> 1) ^ -(zigzag & 1);
+                // same node types as parsing JSON
+                return (n == (int) n) ? nodeFactory.numberNode((int) n) : nodeFactory.numberNode(n);
+            case DOUBLE:
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | readByte();
+                }
+                return nodeFactory.numberNode(Double.longBitsToDouble(bits));
+            case STRING:
+                return nodeFactory.textNode(readString());
+            case DICTIONARY_STRING:
+                return nodeFactory.textNode(readDictionaryString());
+            case KEY:
+                return nodeFactory.textNode(addKey(readString()));
+            case KEY_REFERENCE:
+                return nodeFactory.textNode(keys.get(readKeyIndex()));
+            case DERIVED_KEY:
+                String ancestor = keys.get(readKeyIndex());
+                return nodeFactory.textNode(addKey(ancestor + KEY_SEPARATOR + readDictionaryString()));
+            case TREE:
+                tree.setLength(0);
+                readTree();
+                return nodeFactory.textNode(tree.toString());
+            case ARRAY:
+                ArrayNode array = nodeFactory.arrayNode();
+                for (long i = readVarint(); i > 0; i--) {
+                    array.add(readValue());
+                }
+                return array;
+            case OBJECT:
+                return readFields(false);
+            default:
+                throw new IOException("invalid value tag " + tag + " in " + file);
+        }
+    }
+
+    private String addKey(String key) {
+        keys.add(key);
+        return key;
+    }
+
+    private void readTree() throws IOException {
+        tree.append('(').append(readDictionaryString());
+
+        for (long child = readVarint(); child != END_NODE; child = readVarint()) {
+            tree.append(' ');
+
+            if (child == CHILD_NODE) {
+                readTree();
+            } else {
+                tree.append(readWord(child));
+            }
+        }
+        tree.append(')');
+    }
+
+    /**
+     * Read node at depth of a tree as readTree does, building the node with the tree parser as well
+     */
+    private Tree readTreeNodes(int depth) throws IOException {
+        String label = readDictionaryString();
+        tree.append('(').append(label);
+        label = treeParser.label(label);
+
+        if (depth == children.size()) {
+            children.add(new ArrayList<>());
+        }
+        List<Tree> kids = children.get(depth);
+
+        for (long child = readVarint(); child != END_NODE; child = readVarint()) {
+            tree.append(' ');
+
+            if (child == CHILD_NODE) {
+                kids.add(readTreeNodes(depth + 1));
+            } else {
+                String word = readWord(child);
+                tree.append(word);
+                kids.add(treeParser.leaf(word, label));
+            }
+        }
+        tree.append(')');
+        Tree node = treeParser.node(label, kids);
+        kids.clear();
+        return node;
+    }
+
+    /**
+     * Read word of a tree, given the child code preceding it
+     */
+    private String readWord(long child) throws IOException {
+        if (child == NEW_WORD) {
+            String word = readString();
+            dictionary.add(word);
+            return word;
+        }
+        long index = child - FIRST_WORD;
+
+        if (index >= dictionary.size()) {
+            throw new IOException("invalid dictionary index " + index + " in " + file);
+        }
+        return dictionary.get((int) index);
+    }
+
+    private String readDictionaryString() throws IOException {
+        long index = readVarint();
+
+        if (index == 0) {
+            String s = readString();
+            dictionary.add(s);
+            return s;
+        } else if (index > dictionary.size()) {
+            throw new IOException("invalid dictionary index " + (index - 1) + " in " + file);
+        }
+        return dictionary.get((int) index - 1);
+    }
+
+    private int readKeyIndex() throws IOException {
+        long index = readVarint();
+
+        if (index >= keys.size()) {
+            throw new IOException("invalid key index " + index + " in " + file);
+        }
+        return (int) index;
+    }
+
+    private String readString() throws IOException {
+        int length = (int) readVarint();
+
+        if (length <= limit - position) {
+            String s = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return s;
+        }
+
+        // string continues beyond buffer
+        if (length > stringBuffer.length) {
+            stringBuffer = new byte[Math.max(length, 2 * stringBuffer.length)];
+        }
+
+        for (int read = 0; read < length; ) {
+            if (position == limit && !fill()) {
+                throw new EOFException("unexpected end of binary record file " + file);
+            }
+            int n = Math.min(length - read, limit - position);
+            System.arraycopy(buffer, position, stringBuffer, read, n);
+            position += n;
+            read += n;
+        }
+        return new String(stringBuffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+        long n = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            n |= (long) (b & 0x7f) << shift;
+
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new IOException("invalid varint in " + file);
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException("unexpected end of binary record file " + file);
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Refill empty buffer, returning false at end of file
+     */
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+
+        if (n <= 0) {
+            return false;
+        }
+        bufferOffset += limit;
+        position = 0;
+        limit = n;
+        return true;
+    }
+}
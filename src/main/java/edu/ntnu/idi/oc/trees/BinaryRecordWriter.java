@@ -0,0 +1,251 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static edu.ntnu.idi.oc.trees.BinaryRecords.*;
+
+/**
+ * Writer of records in binary format, as described in BinaryRecords
+ */
+class BinaryRecordWriter extends RecordWriter {
+    private final OutputStream out;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final Map<String, Integer> keys = new HashMap<>();
+
+    BinaryRecordWriter(OutputStream out) throws IOException {
+        this.out = out;
+        out.write(MAGIC);
+        writeVarint(VERSION);
+    }
+
+    /**
+     * Writer continuing a file before an origin record, where dictionary holds the dictionary strings of the file
+     */
+    BinaryRecordWriter(OutputStream out, List<String> dictionary) {
+        this.out = out;
+
+        for (String s : dictionary) {
+            this.dictionary.put(s, this.dictionary.size());
+        }
+    }
+
+    @Override
+    void write(ObjectNode record) throws IOException {
+        // keys are only referred to within the records of the same origin
+        if (record.has("origin")) {
+            out.write(RECORD);
+        } else {
+            keys.clear();
+            out.write(ORIGIN_RECORD);
+        }
+        writeFields(record);
+    }
+
+    @Override
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeFields(JsonNode node) throws IOException {
+        writeVarint(node.size());
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            writeDictionaryString(field.getKey());
+            writeValue(field.getKey(), field.getValue());
+        }
+    }
+
+    private void writeValue(String field, JsonNode value) throws IOException {
+        switch (value.getNodeType()) {
+            case NULL:
+                out.write(NULL);
+                break;
+            case BOOLEAN:
+                out.write(value.booleanValue() ? TRUE : FALSE);
+                break;
+            case NUMBER:
+                if (value.isInt() || value.isLong()) {
+                    out.write(INTEGER);
+                    long n = value.longValue();
+                    writeVarint((n << 1) ^ (n >> 63));
+                } else if (value.isDouble() || value.isFloat()) {
+                    out.write(DOUBLE);
+                    long bits = Double.doubleToLongBits(value.doubleValue());
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        out.write((int) (bits >>> shift));
+                    }
+                } else {
+                    throw new IllegalArgumentException("unsupported number in field " + field + ": " + value);
+                }
+                break;
+            case STRING:
+                writeText(field, value.textValue());
+                break;
+            case ARRAY:
+                out.write(ARRAY);
+                writeVarint(value.size());
+                for (JsonNode element : value) {
+                    writeValue(field, element);
+                }
+                break;
+            case OBJECT:
+                out.write(OBJECT);
+                writeFields(value);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported value in field " + field + ": " + value);
+        }
+    }
+
+    private void writeText(String field, String text) throws IOException {
+        if (KEY_FIELDS.contains(field)) {
+            writeKey(text);
+        } else if (TREE_FIELDS.contains(field) && isTree(text, 0) == text.length()) {
+            out.write(TREE);
+            writeTree(text, 0);
+        } else if (DICTIONARY_FIELDS.contains(field)) {
+            out.write(DICTIONARY_STRING);
+            writeDictionaryString(text);
+        } else {
+            out.write(STRING);
+            writeString(text);
+        }
+    }
+
+    private void writeKey(String key) throws IOException {
+        Integer index = keys.get(key);
+
+        if (index != null) {
+            out.write(KEY_REFERENCE);
+            writeVarint(index);
+            return;
+        }
+
+        // key of descendant is key of its ancestor followed by name of transformation
+        int separator = key.lastIndexOf(KEY_SEPARATOR);
+        Integer ancestor = (separator < 0) ? null : keys.get(key.substring(0, separator));
+
+        if (ancestor != null) {
+            out.write(DERIVED_KEY);
+            writeVarint(ancestor);
+            writeDictionaryString(key.substring(separator + 1));
+        } else {
+            out.write(KEY);
+            writeString(key);
+        }
+        keys.put(key, keys.size());
+    }
+
+    /**
+     * Check if text from position start is a tree as rendered by Tree.toString,
+     * so it can be restored exactly from its nodes.
+     * Returns the position after the tree, or -1 if there is none.
+     */
+    private static int isTree(String text, int start) {
+        if (start >= text.length() || text.charAt(start) != '(') {
+            return -1;
+        }
+
+        int i = atomEnd(text, start + 1);
+
+        if (i == start + 1) {
+            // no label
+            return -1;
+        }
+
+        while (i < text.length() && text.charAt(i) == ' ') {
+            i++;
+            int end = (i < text.length() && text.charAt(i) == '(') ? isTree(text, i) : atomEnd(text, i);
+
+            if (end <= i) {
+                return -1;
+            }
+            i = end;
+        }
+        return (i < text.length() && text.charAt(i) == ')') ? i + 1 : -1;
+    }
+
+    private static int atomEnd(String text, int start) {
+        int i = start;
+
+        while (i < text.length() && " ()".indexOf(text.charAt(i)) < 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Write tree starting at position start, which has been checked with isTree.
+     * Returns the position after the tree.
+     */
+    private int writeTree(String text, int start) throws IOException {
+        int i = atomEnd(text, start + 1);
+        writeDictionaryString(text.substring(start + 1, i));
+
+        while (text.charAt(i) == ' ') {
+            i++;
+
+            if (text.charAt(i) == '(') {
+                writeVarint(CHILD_NODE);
+                i = writeTree(text, i);
+            } else {
+                int end = atomEnd(text, i);
+                String word = text.substring(i, end);
+                Integer index = dictionary.get(word);
+
+                if (index == null) {
+                    writeVarint(NEW_WORD);
+                    writeString(word);
+                    dictionary.put(word, dictionary.size());
+                } else {
+                    writeVarint(FIRST_WORD + index);
+                }
+                i = end;
+            }
+        }
+        writeVarint(END_NODE);
+        return i + 1;
+    }
+
+    private void writeDictionaryString(String s) throws IOException {
+        Integer index = dictionary.get(s);
+
+        if (index == null) {
+            writeVarint(0);
+            writeString(s);
+            dictionary.put(s, dictionary.size());
+        } else {
+            writeVarint(index + 1);
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarint(long n) throws IOException {
+        while ((n & ~0x7fL) != 0) {
+            out.write((int) ((n & 0x7f) | 0x80));
+            n >>>= 7;
+        }
+        out.write((int) n);
+    }
+}
@@ -0,0 +1,91 @@
+package edu.ntnu.idi.oc.trees;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Constants of the binary record format, shared by BinaryRecordWriter and BinaryRecordReader.
+ *
+ * A file starts with MAGIC and the format version, followed by records until the end of the file.
+ * Each value is preceded by a tag byte giving its encoding. Integers are written as variable-length
+ * integers (varints) of 7 bits per byte, with signed integers in zigzag encoding.
+ *
+ * Field names, and values of fields with few distinct values (e.g. filename and label), are dictionary strings:
+ * a varint which is 0 for a new string, followed by the string itself, or else 1 + the index of a string
+ * seen before in the file. Keys are encoded relative to the key of their ancestor, using a key dictionary
+ * that is reset at each origin, so it stays small. Trees are encoded as nested nodes of dictionary strings.
+ */
+final class BinaryRecords {
+    static final byte[] MAGIC = {(byte) 0x89, 'B', 'R', 'F'};
+    // incremented on incompatible changes
+    static final int VERSION = 1;
+
+    // record tags
+    static final int RECORD = 1;
+    /** record starting a new origin, which resets the key dictionary */
+    static final int ORIGIN_RECORD = 2;
+
+    // value tags
+    static final int NULL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    /** zigzag varint */
+    static final int INTEGER = 3;
+    /** 8 bytes IEEE 754 */
+    static final int DOUBLE = 4;
+    /** varint length followed by UTF-8 bytes */
+    static final int STRING = 5;
+    /** dictionary string */
+    static final int DICTIONARY_STRING = 6;
+    /** string, added to key dictionary */
+    static final int KEY = 7;
+    /** varint index of key */
+    static final int KEY_REFERENCE = 8;
+    /** varint index of ancestor key and dictionary string suffix, joined by KEY_SEPARATOR */
+    static final int DERIVED_KEY = 9;
+    /** node of a tree */
+    static final int TREE = 10;
+    /** varint number of values followed by the values */
+    static final int ARRAY = 11;
+    /** varint number of fields followed by pairs of dictionary string name and value */
+    static final int OBJECT = 12;
+
+    /*
+     * A node of a tree is its label as dictionary string, followed by its children and END_NODE.
+     * Each child is CHILD_NODE followed by a node, NEW_WORD followed by a string,
+     * or FIRST_WORD + the index of a word in the dictionary.
+     */
+    static final int END_NODE = 0;
+    static final int CHILD_NODE = 1;
+    static final int NEW_WORD = 2;
+    static final int FIRST_WORD = 3;
+
+    static final char KEY_SEPARATOR = ':';
+
+    /** fields holding keys or arrays of keys */
+    static final Set<String> KEY_FIELDS = new HashSet<>(
+            Arrays.asList("key", "origin", "ancestor", "link", "descendants"));
+    /** fields holding trees in PTB format */
+    static final Set<String> TREE_FIELDS = new HashSet<>(
+            Arrays.asList("subTree"));
+    /** fields holding strings with few distinct values */
+    static final Set<String> DICTIONARY_FIELDS = new HashSet<>(
+            Arrays.asList("label", "filename", "extractName", "transformName"));
+
+    private BinaryRecords() {
+    }
+
+    static boolean hasMagic(byte[] head, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (head[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
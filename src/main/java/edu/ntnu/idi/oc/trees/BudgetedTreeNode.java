@@ -0,0 +1,79 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.Label;
+import edu.stanford.nlp.ling.LabelFactory;
+import edu.stanford.nlp.trees.LabeledScoredTreeFactory;
+import edu.stanford.nlp.trees.LabeledScoredTreeNode;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeFactory;
+
+import java.util.List;
+
+/**
+ * Tree node counting each access to its children as a step against the OperationBudget of the current thread.
+ *
+ * Tregex and Tsurgeon reach every node through its children, so the steps of matching a pattern are counted
+ * without changing either. Copies and nodes created by actions are budgeted nodes as well.
+ */
+final class BudgetedTreeNode extends LabeledScoredTreeNode {
+    private static final long serialVersionUID = 1L;
+    // core labels make their labels by the same stateless factory, so their nodes share a tree factory
+    private static final TreeFactory FACTORY = new Factory(CoreLabel.factory());
+
+    BudgetedTreeNode(Label label) {
+        super(label);
+    }
+
+    BudgetedTreeNode(Label label, List<Tree> children) {
+        super(label, children);
+    }
+
+    @Override
+    public Tree[] children() {
+        OperationBudget.step();
+        return super.children();
+    }
+
+    @Override
+    public TreeFactory treeFactory() {
+        Label label = label();
+        return (label == null || label instanceof CoreLabel) ? FACTORY : new Factory(label.labelFactory());
+    }
+
+    /**
+     * Factory of budgeted nodes with core labels
+     */
+    static TreeFactory budgetedFactory() {
+        return FACTORY;
+    }
+
+    private static final class Factory extends LabeledScoredTreeFactory {
+        private final LabelFactory labelFactory;
+
+        Factory(LabelFactory labelFactory) {
+            super(labelFactory);
+            this.labelFactory = labelFactory;
+        }
+
+        @Override
+        public Tree newLeaf(String word) {
+            return new BudgetedTreeNode(labelFactory.newLabel(word));
+        }
+
+        @Override
+        public Tree newLeaf(Label label) {
+            return new BudgetedTreeNode(labelFactory.newLabel(label));
+        }
+
+        @Override
+        public Tree newTreeNode(String parent, List<Tree> children) {
+            return new BudgetedTreeNode(labelFactory.newLabel(parent), children);
+        }
+
+        @Override
+        public Tree newTreeNode(Label parentLabel, List<Tree> children) {
+            return new BudgetedTreeNode(labelFactory.newLabel(parentLabel), children);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Output file of records which is written as a part file, and renamed to the output file when it is complete,
+ * so an incomplete file is never taken for a complete one.
+ *
+ * At checkpoints, all records written so far are forced to disk, and a line is added to a journal next to the
+ * part file with the position in the input, the number of the last tree, the length of the part file and the number
+ * of records in it. Writing can then resume from the last checkpoint, after truncating the part file to its length
+ * at the checkpoint. Gzip files get a new member after each checkpoint, so they can be truncated there as well.
+ * Deflate files cannot be continued, so they are written from the start again.
+ */
+public class CheckpointedOutput implements Closeable {
+    static final String PART_EXTENSION = ".part";
+    static final String JOURNAL_EXTENSION = ".journal";
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 60;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static Logger log = Logger.getLogger("CheckpointedOutput");
+
+    private final Path file;
+    private final Path partFile;
+    private final Path journalFile;
+    private final Compression compression;
+    private final long interval;
+    private final FileChannel channel;
+    private final MemberOutputStream members;
+    private final RecordWriter writer;
+    private final Checkpoint resumed;
+    private long records;
+    private long lastCheckpoint = System.nanoTime();
+    private boolean committed = false;
+
+    /**
+     * Open part file for writing records to file in format, with checkpoints at least interval seconds apart.
+     * If resume is true, writing continues from the last checkpoint of an earlier part file, if any.
+     */
+    CheckpointedOutput(Path file, RecordFormat format, long interval, boolean resume) throws IOException {
+        this.file = file;
+        this.interval = TimeUnit.SECONDS.toNanos(interval);
+        partFile = file.resolveSibling(file.getFileName() + PART_EXTENSION);
+        journalFile = partFile.resolveSibling(partFile.getFileName() + JOURNAL_EXTENSION);
+        compression = Compression.of(file);
+
+        Checkpoint checkpoint = resume ? readCheckpoint() : null;
+        List<String> dictionary = Collections.emptyList();
+
+        if (checkpoint != null && format == RecordFormat.BINARY) {
+            dictionary = readDictionary(checkpoint);
+        }
+
+        if (checkpoint == null) {
+            Files.deleteIfExists(journalFile);
+            checkpoint = new Checkpoint(0, 0, 0, 0);
+        } else {
+            log.info(String.format("resuming %s at input position %d", partFile, checkpoint.input));
+        }
+
+        resumed = checkpoint;
+        records = checkpoint.records;
+        channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+        try {
+            channel.truncate(checkpoint.output);
+            channel.position(checkpoint.output);
+            members = new MemberOutputStream(Channels.newOutputStream(channel));
+            OutputStream out = new BufferedOutputStream(members, BUFFER_SIZE);
+            writer = (checkpoint.output == 0)
+                    ? RecordWriter.open(out, format)
+                    : RecordWriter.resume(out, format, checkpoint.records, dictionary);
+        } catch (IOException | RuntimeException x) {
+            channel.close();
+            throw x;
+        }
+    }
+
+    /**
+     * Add command line argument for the interval between checkpoints, for use with checkpointIntervalFrom
+     */
+    public static void addCheckpointArgument(ArgumentParser parser) {
+        parser.addArgument("--checkpoint-interval")
+                .setDefault(DEFAULT_CHECKPOINT_INTERVAL)
+                .metavar("SECONDS")
+                .type(Long.class)
+                .help(String.format("seconds between checkpoints of output files, from which --resume continues "
+                        + "(default %d)", DEFAULT_CHECKPOINT_INTERVAL));
+    }
+
+    /**
+     * Interval between checkpoints from parsed command line arguments
+     */
+    public static long checkpointIntervalFrom(Namespace namespace) {
+        return namespace.getLong("checkpoint_interval");
+    }
+
+    /**
+     * Checkpoint which writing resumed from, which is all zeros for a new file
+     */
+    Checkpoint getResumed() {
+        return resumed;
+    }
+
+    void write(ObjectNode record) throws IOException {
+        writer.write(record);
+        records++;
+    }
+
+    /**
+     * Write checkpoint after all records from input up to position, if the interval since the last one has passed.
+     * Returns true if a checkpoint was written.
+     */
+    boolean checkpoint(long input, int treeNumber) throws IOException {
+        if (System.nanoTime() - lastCheckpoint < interval || compression == Compression.DEFLATE) {
+            return false;
+        }
+        checkpointNow(input, treeNumber);
+        return true;
+    }
+
+    /**
+     * Write checkpoint after all records from input up to position, regardless of the interval,
+     * e.g. along with a checkpoint of another output of the same input
+     */
+    void checkpointNow(long input, int treeNumber) throws IOException {
+        if (compression == Compression.DEFLATE) {
+            return;
+        }
+
+        writer.flush();
+        members.finish();
+        channel.force(false);
+        String line = new Checkpoint(input, treeNumber, channel.position(), records) + "\n";
+        Files.write(journalFile, line.getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Complete the output file, renaming the part file to it.
+     * The journal is only deleted once the complete part file and the rename are on disk,
+     * so after a crash either the output file is complete or writing can resume from the journal.
+     */
+    void commit() throws IOException {
+        completePart();
+
+        try {
+            Files.move(partFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException x) {
+            Files.move(partFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(file.toAbsolutePath().getParent());
+        Files.deleteIfExists(journalFile);
+    }
+
+    /**
+     * Write the rest of the output to the part file and force it to disk, closing it
+     */
+    void completePart() throws IOException {
+        if (committed) {
+            return;
+        }
+        // the member stream forces the part file before closing it
+        writer.close();
+        committed = true;
+    }
+
+    /**
+     * Force the entries of dir to disk, where the platform allows opening a directory
+     */
+    private static void forceDirectory(Path dir) {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException x) {
+            log.fine(String.format("cannot force directory %s: %s", dir, x));
+        }
+    }
+
+    /**
+     * Close output, leaving the part file and journal for resuming if the output was not committed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Last checkpoint in the journal which the part file holds all output for, or null if there is none
+     */
+    private Checkpoint readCheckpoint() throws IOException {
+        if (!Files.exists(partFile) || !Files.exists(journalFile) || compression == Compression.DEFLATE) {
+            return null;
+        }
+
+        Checkpoint checkpoint = null;
+
+        for (String line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+            Checkpoint next = Checkpoint.valueOf(line);
+
+            if (next != null && next.output <= Files.size(partFile)) {
+                checkpoint = next;
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Dictionary strings of the binary part file up to checkpoint
+     */
+    private List<String> readDictionary(Checkpoint checkpoint) throws IOException {
+        InputStream in = compression.decompress(new BoundedInputStream(Files.newInputStream(partFile),
+                checkpoint.output));
+
+        try (BinaryRecordReader reader = new BinaryRecordReader(partFile, in)) {
+            while (reader.next() != null) {
+                // dictionary strings are collected by reader
+            }
+            return reader.getDictionary();
+        }
+    }
+
+
+    /**
+     * Stream writing to the part file through a stream compressing to a new member after each checkpoint
+     */
+    private class MemberOutputStream extends OutputStream {
+        private final OutputStream out;
+        private OutputStream member;
+
+        MemberOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        private OutputStream member() throws IOException {
+            if (member == null) {
+                member = compression.compress(out);
+            }
+            return member;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            member().write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            member().write(buffer, offset, length);
+        }
+
+        /**
+         * Write all output to the part file, ending the current member
+         */
+        void finish() throws IOException {
+            if (member instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) member).finish();
+                member = null;
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // an empty compressed file has a member as well
+            OutputStream last = member();
+
+            if (last instanceof DeflaterOutputStream) {
+                ((DeflaterOutputStream) last).finish();
+            }
+            last.flush();
+            // the part file must be complete on disk before it is renamed to the output file
+            channel.force(true);
+            last.close();
+        }
+    }
+
+
+    /**
+     * Position in input and output at a checkpoint
+     */
+    static class Checkpoint {
+        /** position in input, e.g. number of lines or records read */
+        final long input;
+        /** number of the last tree read */
+        final int treeNumber;
+        /** length of the part file */
+        final long output;
+        /** number of records in the part file */
+        final long records;
+
+        Checkpoint(long input, int treeNumber, long output, long records) {
+            this.input = input;
+            this.treeNumber = treeNumber;
+            this.output = output;
+            this.records = records;
+        }
+
+        /**
+         * Checkpoint from a line of the journal, or null if the line is incomplete
+         */
+        static Checkpoint valueOf(String line) {
+            String[] fields = line.trim().split(" ");
+
+            if (fields.length != 4) {
+                return null;
+            }
+
+            try {
+                return new Checkpoint(Long.parseLong(fields[0]), Integer.parseInt(fields[1]),
+                        Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+            } catch (NumberFormatException x) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return input + " " + treeNumber + " " + output + " " + records;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package edu.ntnu.idi.oc.trees;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Compile rules in named Tsurgeon format to snapshots, which TreeOperator loads instead of the rules
+ * when the system property baleen.rules names the snapshot directory
+ */
+public class CompileRules {
+    private static final String RULES_EXTENSION = ".tfm";
+
+    public static void main(String[] args) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("compile-rules")
+                .description("Compile rules to snapshots for fast loading");
+        parser.addArgument("rules")
+                .nargs("+")
+                .metavar("RULES")
+                .help("file with transformations in named Tsurgeon format, or directory of such files");
+        parser.addArgument("-s", "--snapshots")
+                .metavar("DIR")
+                .setDefault(System.getProperty(TreeOperator.SNAPSHOT_DIR_PROPERTY))
+                .help("directory for writing snapshots (default from system property "
+                        + TreeOperator.SNAPSHOT_DIR_PROPERTY + ")");
+
+        Namespace namespace = null;
+        try {
+            namespace = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+
+        if (namespace.getString("snapshots") == null) {
+            System.err.println("no snapshot directory given");
+            System.exit(1);
+        }
+
+        Path snapshotDir = Paths.get(namespace.getString("snapshots"));
+        boolean failed = false;
+
+        try {
+            for (Path rulesFile : findRules(namespace.<String>getList("rules"))) {
+                failed |= !compile(rulesFile, snapshotDir);
+            }
+        } catch (IOException x) {
+            System.err.format("IOException: %s%n", x);
+            failed = true;
+        }
+
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static List<Path> findRules(List<String> paths) throws IOException {
+        List<Path> rulesFiles = new ArrayList<>();
+
+        for (String path : paths) {
+            rulesFiles.addAll(Files.walk(Paths.get(path))
+                    .filter(file -> Files.isRegularFile(file) && file.toString().endsWith(RULES_EXTENSION))
+                    .sorted()
+                    .collect(Collectors.toList()));
+        }
+        return rulesFiles;
+    }
+
+    /**
+     * Compile rules to snapshot, reporting time to load rules from source and from snapshot.
+     * Returns false if rules are invalid.
+     */
+    static boolean compile(Path rulesFile, Path snapshotDir) throws IOException {
+        byte[] source = Files.readAllBytes(rulesFile);
+        String hash = RuleSnapshot.hash(source);
+        Path snapshot = RuleSnapshot.path(snapshotDir, hash);
+        List<TreeOperation> operations;
+
+        long start = System.nanoTime();
+        try {
+            // compiles all patterns and actions
+            operations = TreeOperator.readSource(source);
+        } catch (RuntimeException x) {
+            System.err.format("invalid rules in %s: %s%n", rulesFile, x);
+            return false;
+        }
+        long sourceTime = System.nanoTime() - start;
+
+        RuleSnapshot.write(snapshot, hash, operations);
+
+        start = System.nanoTime();
+        RuleSnapshot.read(snapshot, hash);
+        long snapshotTime = System.nanoTime() - start;
+
+        System.out.format("%s: %d operations, snapshot %s, loaded in %.1f ms from rules, %.1f ms from snapshot%n",
+                rulesFile, operations.size(), snapshot, sourceTime / 1e6, snapshotTime / 1e6);
+        return true;
+    }
+}
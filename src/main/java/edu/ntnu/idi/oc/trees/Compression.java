@@ -0,0 +1,176 @@
+package edu.ntnu.idi.oc.trees;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of input and output files, which is detected from the filename extension.
+ *
+ * Compressed files are decompressed on a thread of their own, so reading does not wait for decompression.
+ * Filenames are compared and keys are derived without the compression extension,
+ * so compressed and uncompressed files give the same results.
+ */
+public enum Compression {
+    NONE("none", ""),
+    /** gzip format, as written by the gzip command */
+    GZIP("gzip", ".gz"),
+    /** zlib format, without the gzip header */
+    DEFLATE("deflate", ".deflate");
+
+    public static final Compression DEFAULT = NONE;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final String name;
+    private final String extension;
+
+    Compression(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Filename extension of files with this compression, including the dot, or empty if uncompressed
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public static Compression forName(String name) {
+        for (Compression compression : values()) {
+            if (compression.name.equals(name)) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("unknown compression: " + name);
+    }
+
+    /**
+     * Compression of file according to its extension
+     */
+    public static Compression of(Path file) {
+        return of(file.getFileName().toString());
+    }
+
+    private static Compression of(String filename) {
+        for (Compression compression : values()) {
+            if (compression != NONE && filename.endsWith(compression.extension)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Filename without any compression extension, e.g. "a.parse" for "a.parse.gz"
+     */
+    public static String stripExtension(String filename) {
+        Compression compression = of(filename);
+        return filename.substring(0, filename.length() - compression.extension.length());
+    }
+
+    /**
+     * Open input stream from file, decompressing it on a separate thread if it is compressed
+     */
+    static InputStream newInputStream(Path file) throws IOException {
+        InputStream in = of(file).decompress(Files.newInputStream(file));
+        return (of(file) == NONE) ? in : new BackgroundInputStream(in, "decompress " + file.getFileName());
+    }
+
+    /**
+     * Buffered input stream decompressing in on the current thread
+     */
+    InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                // reads all members of a file, as written by compress
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case DEFLATE:
+                // default inflater, which is released on closing
+                return new InflaterInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+            default:
+                return new BufferedInputStream(in, BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Open output stream to file, compressing it if its extension says so
+     */
+    static OutputStream newOutputStream(Path file) throws IOException {
+        return new BufferedOutputStream(of(file).compress(Files.newOutputStream(file)), BUFFER_SIZE);
+    }
+
+    /**
+     * Unbuffered output stream compressing to out, which is out itself if uncompressed.
+     * A compressed stream is a DeflaterOutputStream, so it can be finished without closing out.
+     * Gzip streams finished one after another are members of a single gzip file.
+     */
+    OutputStream compress(OutputStream out) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, BUFFER_SIZE);
+            case DEFLATE:
+                // default deflater, which is released on closing
+                return new DeflaterOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Open reader of UTF-8 text from file, which may be compressed
+     */
+    static BufferedReader newBufferedReader(Path file) throws IOException {
+        return new BufferedReader(new InputStreamReader(newInputStream(file), StandardCharsets.UTF_8.newDecoder()));
+    }
+
+    /**
+     * Open writer of UTF-8 text to file, which is compressed if its extension says so
+     */
+    static BufferedWriter newBufferedWriter(Path file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(newOutputStream(file), StandardCharsets.UTF_8.newEncoder()));
+    }
+
+    /**
+     * Add command line argument for compression of output, for use with fromArguments
+     */
+    public static void addCompressionArgument(ArgumentParser parser) {
+        String[] names = new String[values().length];
+
+        for (Compression compression : values()) {
+            names[compression.ordinal()] = compression.name;
+        }
+
+        parser.addArgument("-z", "--compress")
+                .setDefault(DEFAULT.name)
+                .choices(names)
+                .help("compression of output files (default '" + DEFAULT.name + "')");
+    }
+
+    /**
+     * Compression of output from parsed command line arguments
+     */
+    public static Compression fromArguments(Namespace namespace) {
+        return forName(namespace.getString("compress"));
+    }
+}
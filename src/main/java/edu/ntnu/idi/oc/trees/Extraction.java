@@ -1,12 +1,7 @@
 package edu.ntnu.idi.oc.trees;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import edu.stanford.nlp.ling.Sentence;
-import edu.stanford.nlp.process.PTBTokenizer;
 import edu.stanford.nlp.trees.Tree;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.impl.Arguments;
@@ -22,8 +17,19 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 
 /**
@@ -31,11 +37,34 @@ import java.util.logging.Logger;
  */
 public class Extraction {
     private final List<TreeExtractor> extractors;
+    // transformers applied to each tree in place before extraction
+    private final List<TreeTransformer> preprocessors = new ArrayList<>();
+    private final LongAdder preprocessedTrees = new LongAdder();
+    private final LongAdder nodesBefore = new LongAdder();
+    private final LongAdder nodesAfter = new LongAdder();
+    // sentences and files done, for progress lines
+    private final LongAdder sentences = new LongAdder();
+    private final LongAdder files = new LongAdder();
     ObjectMapper mapper = new ObjectMapper();
-    private JsonGenerator generator;
-    private JsonFactory factory;
+    // parsers are not thread-safe, and lines are parsed by multiple workers
+    private final ThreadLocal<TreeParser> parsers = ThreadLocal.withInitial(TreeParser::new);
+    private RecordFormat format = RecordFormat.DEFAULT;
+    private Compression compression = Compression.DEFAULT;
+    private int threads = DEFAULT_THREADS;
+    private int workers = DEFAULT_WORKERS;
+    private long checkpointInterval = CheckpointedOutput.DEFAULT_CHECKPOINT_INTERVAL;
+    private long progressInterval = Progress.DEFAULT_PROGRESS_INTERVAL;
+    private ExtractionCache cache;
+    private volatile OperationBudget budget;
+    // transformation of extracts in memory, if any
+    private Transformation transformation;
+    private boolean unique;
+    private int maxTreeSize;
+    private String transformTag;
     private final static boolean DEFAULT_RESUME = false;
     private final static String DEFAULT_TAG = "#var";
+    private final static int DEFAULT_THREADS = 1;
+    private final static int DEFAULT_WORKERS = 1;
 
 
     private static Logger log = Logger.getLogger("Extraction");
@@ -45,14 +74,19 @@ public class Extraction {
                 .description("Extraction matching subtrees from trees");
         parser.addArgument("trees")
                 .metavar("TREES")
-                .help("file or directory containing trees in PTB format");
+                .help("file or directory containing trees in PTB format, possibly compressed");
         parser.addArgument("extraction")
                 .metavar("EXTRACT")
-                .help("directory for writing extractions in JSON format");
+                .help("directory for writing extractions in JSON, JSON Lines or binary format");
         parser.addArgument("trans")
                 .nargs("+")
                 .metavar("LABEL:TRANS")
                 .help("pair of a label and file with transformations in named Tsurgeon format");
+        parser.addArgument("-p", "--preprocess")
+                .action(Arguments.append())
+                .metavar("TRANS")
+                .help("file with transformations in named Tsurgeon format applied to each tree before extraction, "
+                        + "until none applies, which may be repeated");
         parser.addArgument("-r", "--resume")
                 .setDefault(false)
                 .action(Arguments.storeTrue())
@@ -60,6 +94,24 @@ public class Extraction {
         parser.addArgument("-t", "--tag")
                 .setDefault(DEFAULT_TAG)
                 .help("filename tag (default '" + DEFAULT_TAG + "')" );
+        parser.addArgument("-j", "--threads")
+                .setDefault(DEFAULT_THREADS)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("number of files processed in parallel (default %d)", DEFAULT_THREADS));
+        parser.addArgument("-w", "--workers")
+                .setDefault(DEFAULT_WORKERS)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("number of threads parsing and matching trees within a file (default %d)",
+                        DEFAULT_WORKERS));
+        RecordFormat.addFormatArgument(parser);
+        Compression.addCompressionArgument(parser);
+        CheckpointedOutput.addCheckpointArgument(parser);
+        ExtractionCache.addCacheArguments(parser);
+        Progress.addProgressArgument(parser);
+        OperationMetrics.addMetricsArgument(parser);
+        OperationBudget.addBudgetArguments(parser);
 
         Namespace namespace = null;
         try {
@@ -70,6 +122,21 @@ public class Extraction {
         }
 
         Extraction extraction = new Extraction();
+        extraction.setThreads(namespace.getInt("threads"));
+        extraction.setWorkers(namespace.getInt("workers"));
+        extraction.setFormat(RecordFormat.fromArguments(namespace));
+        extraction.setCompression(Compression.fromArguments(namespace));
+        extraction.setCheckpointInterval(CheckpointedOutput.checkpointIntervalFrom(namespace));
+        extraction.setCache(ExtractionCache.fromArguments(namespace));
+        extraction.setProgressInterval(Progress.progressIntervalFrom(namespace));
+        OperationMetrics.fromArguments(namespace);
+        OperationBudget budget = OperationBudget.fromArguments(namespace);
+
+        if (namespace.getList("preprocess") != null) {
+            for (String trans : namespace.<String>getList("preprocess")) {
+                extraction.addPreprocessor(Paths.get(trans));
+            }
+        }
 
         for (String pair : namespace.<String>getList("trans")) {
             String[] parts = pair.split(":", 2);
@@ -81,13 +148,23 @@ public class Extraction {
         boolean resume = namespace.getBoolean("resume");
         String tag = namespace.getString("tag");
 
+        if (budget != null) {
+            extraction.setBudget(budget);
+        }
         extraction.apply(treesPath, extractDir, resume, tag);
+        InternPool.logShared();
+
+        if (budget != null) {
+            try {
+                budget.close();
+            } catch (IOException x) {
+                System.err.format("IOException: %s%n", x);
+            }
+        }
     }
 
     public Extraction(List<TreeExtractor> extractors) {
         this.extractors = extractors;
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
-        factory = mapper.getFactory();
     }
 
     public Extraction() {
@@ -95,22 +172,193 @@ public class Extraction {
     }
 
     public void addExtractor(String label, Path filename) {
-        extractors.add(new TreeExtractor(label, filename));
+        addExtractor(new TreeExtractor(label, filename));
     }
 
     public void addExtractor(String label, InputStream stream) throws IOException {
-        extractors.add(new TreeExtractor(label, stream));
+        addExtractor(new TreeExtractor(label, stream));
+    }
+
+    private void addExtractor(TreeExtractor extractor) {
+        extractor.setBudget(budget);
+        extractors.add(extractor);
+    }
+
+    /**
+     * Add transformations applied to each tree before extraction, in place and until none applies,
+     * such as deleting nodes irrelevant to extraction
+     */
+    public void addPreprocessor(Path filename) {
+        addPreprocessor(new TreeTransformer(filename));
+    }
+
+    public void addPreprocessor(InputStream stream) throws IOException {
+        addPreprocessor(new TreeTransformer(stream));
+    }
+
+    private void addPreprocessor(TreeTransformer preprocessor) {
+        preprocessor.setBudget(budget);
+        preprocessors.add(preprocessor);
+    }
+
+    /**
+     * Set number of files processed in parallel
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("number of threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set number of threads parsing and matching trees within a single file
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("number of workers must be positive: " + workers);
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Set format of output files
+     */
+    public void setFormat(RecordFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Set compression of output files, whereas compression of input files is detected
+     */
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Set seconds between checkpoints of output files, from which an interrupted file is resumed
+     */
+    public void setCheckpointInterval(long seconds) {
+        checkpointInterval = seconds;
+    }
+
+    /**
+     * Set seconds between progress lines, or 0 for none
+     */
+    public void setProgressInterval(long seconds) {
+        progressInterval = seconds;
+    }
+
+    /**
+     * Set cache of results of operations on trees, or null for no cache
+     */
+    public void setCache(ExtractionCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Bound each evaluation of an extractor or preprocessor operation on a tree by budget, or by nothing if null.
+     * Applies to trees parsed from then on, because only trees parsed with a budget are bounded.
+     */
+    public void setBudget(OperationBudget budget) {
+        this.budget = budget;
+
+        for (TreeOperator operator : extractors) {
+            operator.setBudget(budget);
+        }
+        for (TreeOperator operator : preprocessors) {
+            operator.setBudget(budget);
+        }
+    }
+
+    /**
+     * Set transformation of extracts, which are passed to it in memory, without parsing their subtrees again.
+     * Transformed extracts are written by apply with a transDir, with transformTag added to the filename tag,
+     * in the format and compression of this extraction.
+     */
+    public void setTransformation(Transformation transformation, boolean unique, int maxTreeSize, String transformTag) {
+        this.transformation = transformation;
+        this.unique = unique;
+        this.maxTreeSize = maxTreeSize;
+        this.transformTag = transformTag;
     }
 
     public void apply(Path treesPath, Path extractDir, boolean resume, String tag) {
+        apply(treesPath, extractDir, null, resume, tag);
+    }
+
+    /**
+     * Extract from trees in treesPath, writing extracts to extractDir, unless it is null,
+     * and transforming extracts in memory and writing them to transDir, unless it is null
+     */
+    public void apply(Path treesPath, Path extractDir, Path transDir, boolean resume, String tag) {
+        if (transDir != null && transformation == null) {
+            throw new IllegalStateException("no transformation of extracts set");
+        }
+        List<Path> treeFiles;
+
         try {
-            FileUtils.forceMkdir(extractDir.toFile());
+            for (Path dir : Arrays.asList(extractDir, transDir)) {
+                if (dir != null) {
+                    FileUtils.forceMkdir(dir.toFile());
+                }
+            }
 
-            Files.walk(treesPath)
+            treeFiles = Files.walk(treesPath)
                     .filter(Files::isRegularFile)
-                    .forEach(p -> extractFromFile(p, extractDir, resume, tag));
+                    .collect(Collectors.toList());
         } catch (IOException x) {
             System.err.format("IOException: %s%n", x);
+            return;
+        }
+
+        List<Path> failed = Collections.synchronizedList(new ArrayList<>());
+        Progress progress = new Progress(progressInterval)
+                .addStage("files", files::sum, treeFiles.size())
+                .addStage("extract", "sentences", sentences::sum);
+
+        if (transDir != null) {
+            progress.addStage("transform", "origins", transformation::getOrigins);
+        }
+
+        if (threads == 1) {
+            for (Path treeFile : treeFiles) {
+                extractFromFile(treeFile, extractDir, transDir, resume, tag, failed);
+            }
+        } else {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, treeFiles.size() + 1));
+
+            for (Path treeFile : treeFiles) {
+                executor.execute(() -> extractFromFile(treeFile, extractDir, transDir, resume, tag, failed));
+            }
+            executor.shutdown();
+
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        progress.close();
+
+        if (!failed.isEmpty()) {
+            log.warning(String.format("extraction failed for %d of %d files: %s",
+                    failed.size(), treeFiles.size(), failed));
+        }
+        if (!preprocessors.isEmpty()) {
+            long before = nodesBefore.sum();
+            log.info(String.format("preprocessing left %d of %d nodes (%.1f%% fewer) in %d trees",
+                    nodesAfter.sum(), before, (before == 0) ? 0 : 100.0 * (before - nodesAfter.sum()) / before,
+                    preprocessedTrees.sum()));
+        }
+
+        if (cache != null) {
+            log.info("extraction cache: " + cache);
+        }
+
+        if (budget != null) {
+            log.info("operation budget: " + budget);
         }
     }
 
@@ -118,66 +366,381 @@ public class Extraction {
         apply(treesPath, extractDir, DEFAULT_RESUME, DEFAULT_TAG);
     }
 
-    private void extractFromFile(Path treeFile, Path extractDir, boolean resume, String tag) {
+    private Path extractFile(Path treeFile, Path extractDir, String tag) {
         // construct output filename
-        Path extractFile = Paths.get(FilenameUtils.concat(
+        return Paths.get(FilenameUtils.concat(
                 extractDir.toString(),
-                FilenameUtils.getBaseName(treeFile.toString()) + tag + ".json"));
+                baseName(treeFile, tag) + format.getExtension() + compression.getExtension()));
+    }
+
+    private static String baseName(Path treeFile, String tag) {
+        return FilenameUtils.getBaseName(Compression.stripExtension(treeFile.toString())) + tag;
+    }
+
+    private void extractFromFile(Path treeFile, Path extractDir, Path transDir, boolean resume, String tag,
+                                 List<Path> failed) {
+        // failure on one file should not stop processing of other files
+        try {
+            extractFromFile(treeFile, extractDir, transDir, resume, tag);
+        } catch (IOException | RuntimeException x) {
+            // incomplete output is left in a part file, from which resume continues
+            log.severe(String.format("extraction from %s failed: %s", treeFile, x));
+            failed.add(treeFile);
+        }
+        files.increment();
+    }
+
+    private void extractFromFile(Path treeFile, Path extractDir, Path transDir, boolean resume, String tag)
+            throws IOException {
+        Path extractFile = (extractDir == null) ? null : extractFile(treeFile, extractDir, tag);
+        Path transFile = (transDir == null) ? null : extractFile(treeFile, transDir, tag + transformTag);
+        // the last output written, which is complete only when the others are
+        Path lastFile = (transFile == null) ? extractFile : transFile;
 
-        if (resume && Files.exists(extractFile)) {
-            log.info("skipping existing output file " + extractFile);
+        if (resume && Files.exists(lastFile)) {
+            log.info("skipping existing output file " + lastFile);
             return;
         }
 
-        log.info("reading trees from " + treeFile);
-        log.info("writing extracted variables to " + extractFile);
+        // progress is logged for all files together
+        log.fine("reading trees from " + treeFile);
 
-        try (BufferedReader reader = Files.newBufferedReader(treeFile);
-             BufferedWriter writer = Files.newBufferedWriter(extractFile)) {
-            generator = factory.createGenerator(writer);
-            generator.writeStartArray();
-            int treeNumber = 0;
-            String line;
+        if (extractFile != null) {
+            log.fine("writing extracted variables to " + extractFile);
+        }
 
-            while ((line = reader.readLine()) != null) {
-                Tree tree = Tree.valueOf(line);
+        if (transFile != null) {
+            log.fine("writing transformed variables to " + transFile);
+        }
 
-                if (tree == null) {
-                    log.warning("Skipping ill-formed tree: " + line);
+        // outputs are local, so files can be processed in parallel
+        try (BufferedReader reader = Compression.newBufferedReader(treeFile);
+             Outputs outputs = new Outputs(extractFile, transFile, resume);
+             ExtractionCache.Segment segment = (cache == null) ? null : cache.openSegment(
+                     baseName(treeFile, tag), preprocessors, extractors)) {
+            CheckpointedOutput output = outputs.extracts;
+            CheckpointedOutput transOutput = outputs.transforms;
+            // keys do not depend on compression of trees
+            String filename = Compression.stripExtension(treeFile.getFileName().toString());
+            CheckpointedOutput.Checkpoint resumed = outputs.last().getResumed();
+            List<ObjectNode> descendants = new ArrayList<>(500);
+            Set<String> seen = unique ? new HashSet<>(500) : null;
+
+            // skip lines extracted before the checkpoint
+            skip(reader, resumed.input);
+
+            // numbering of trees depends on preceding ill-formed trees, so it is done by the writer
+            int[] treeNumber = {resumed.treeNumber};
+            long[] lines = {resumed.input};
+            OrderedPipeline.Sink<SentenceExtracts> sink = sentence -> {
+                if (sentence.extracts == null) {
+                    log.warning("Skipping ill-formed tree: " + sentence.line);
                 } else {
-                    extractFromTree(treeFile.getFileName().toString(), ++treeNumber, tree);
+                    ++treeNumber[0];
+
+                    for (LabeledExtract labeled : sentence.extracts) {
+                        ObjectNode node = extractNode(filename, treeNumber[0], labeled);
+
+                        if (output != null) {
+                            output.write(node);
+                        }
+
+                        if (transOutput != null) {
+                            transformation.transformRecord(node, labeled.extract.tree, descendants, seen,
+                                    maxTreeSize, transOutput);
+                        }
+                    }
+                }
+
+                if (segment != null) {
+                    segment.write(sentence.cached);
+                }
+                sentences.increment();
+
+                // outputs are checkpointed together, so they resume from the same line
+                if (outputs.last().checkpoint(++lines[0], treeNumber[0]) && output != null && transOutput != null) {
+                    output.checkpointNow(lines[0], treeNumber[0]);
+                }
+            };
+            Function<String, SentenceExtracts> stage = (segment == null)
+                    ? this::extractFromLine
+                    : line -> extractFromLine(line, segment);
+
+            if (workers > 1) {
+                new OrderedPipeline<String, SentenceExtracts>(workers)
+                        .run(reader::readLine, stage, sink);
+            } else {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    sink.accept(stage.apply(line));
                 }
             }
+            if (output != null) {
+                output.commit();
+            }
 
-            generator.writeEndArray();
-            generator.close();
-        } catch (IOException x) {
-            System.err.format("IOException: %s%n", x);
+            if (transOutput != null) {
+                transOutput.commit();
+            }
+
+            // the segment lacks the trees before the checkpoint, so the earlier segment is kept
+            if (segment != null && resumed.input == 0) {
+                segment.commit();
+            }
+        }
+    }
+
+    /**
+     * Skip up to lines lines of reader
+     */
+    private static void skip(BufferedReader reader, long lines) throws IOException {
+        long skipped = 0;
+
+        while (skipped < lines && reader.readLine() != null) {
+            // only the count of lines read matters
+            skipped++;
+        }
+    }
+
+    /**
+     * Parser of this thread, making trees of budgeted nodes if there is a budget now
+     */
+    private TreeParser parser() {
+        TreeParser parser = parsers.get();
+        parser.setBudgeted(budget != null);
+        return parser;
+    }
+
+    /**
+     * Tree parsed from line and preprocessed, or null if line is not a well-formed tree
+     * or preprocessing deleted it
+     */
+    private Tree parse(String line) {
+        return parse(line, null);
+    }
+
+    /**
+     * As parse, adding preprocessor operations whose evaluation exceeded the budget to aborted, unless it is null
+     */
+    private Tree parse(String line, Set<TreeOperation> aborted) {
+        Tree tree = parser().parse(line);
+
+        if (tree == null || preprocessors.isEmpty()) {
+            return tree;
+        }
+        int size = tree.size();
+
+        for (TreeTransformer preprocessor : preprocessors) {
+            // every application is expected to delete a node
+            tree = preprocessor.transformInPlace(tree, size, aborted);
+
+            if (tree == null) {
+                return null;
+            }
         }
+        preprocessedTrees.increment();
+        nodesBefore.add(size);
+        nodesAfter.add(tree.size());
+        return tree;
     }
 
+    private SentenceExtracts extractFromLine(String line) {
+        Tree tree = parse(line);
+        return new SentenceExtracts(line, (tree == null) ? null : extractFromTree(tree), null);
+    }
 
-    private void extractFromTree(String filename, int treeNumber, Tree tree) throws IOException {
-        String key;
+    List<LabeledExtract> extractFromTree(Tree tree) {
+        List<LabeledExtract> extracts = new ArrayList<>();
 
         for (TreeExtractor extractor : extractors) {
             for (Extract extract : extractor.extractTrees(tree)) {
-                ObjectNode node = mapper.createObjectNode();
-                // construct unique key
-                key = String.join(":", filename, String.valueOf(treeNumber), String.valueOf(extract.nodeNumber),
-                        extract.operationName);
-                node.put("key", key);
-                node.put("label", extractor.getLabel());
-                node.put("filename", filename);
-                node.put("treeNumber", treeNumber);
-                node.put("extractName", extract.operationName);
-                node.put("nodeNumber", extract.nodeNumber);
-                node.put("subTree", extract.subTree.toString());
-                node.put("subStr", PTBTokenizer.ptb2Text(Sentence.listToString(extract.subTree.yield())));
-                mapper.writeValue(generator, node);
+                extracts.add(new LabeledExtract(extractor.getLabel(), new RenderedExtract(extract)));
+            }
+        }
+        return extracts;
+    }
+
+    /**
+     * Extract from a single line, applying only the operations without results in the cache,
+     * and parsing the line only if there are any
+     */
+    private SentenceExtracts extractFromLine(String line, ExtractionCache.Segment segment) {
+        ExtractionCache.Segment.CachedTree cached = segment.lookup(line);
+        // aborted evaluations have no results to cache
+        Set<TreeOperation> aborted = new HashSet<>();
+        Tree tree = null;
+
+        if (!cached.isFound()) {
+            // whether the tree is well-formed is not known yet
+            tree = parse(line, aborted);
+
+            if (tree == null) {
+                cached.setIllFormed();
+
+                if (!aborted.isEmpty()) {
+                    // possibly deleted by the aborted preprocessing only
+                    cached.setUncacheable();
+                }
+            }
+        }
+
+        if (cached.isIllFormed()) {
+            return new SentenceExtracts(line, null, cached);
+        }
+
+        for (TreeExtractor extractor : extractors) {
+            List<TreeOperation> missing = cached.missing(extractor.getOperationsAsList());
+
+            if (missing.isEmpty()) {
+                continue;
+            }
+
+            if (tree == null) {
+                tree = parse(line, aborted);
+
+                if (tree == null) {
+                    // deleted by preprocessing, which can only differ from before if it was aborted
+                    cached.setUncacheable();
+                    return new SentenceExtracts(line, null, cached);
+                }
+            }
+            Map<TreeOperation, List<Extract>> byOperation = extractor.extractTreesByOperation(tree, missing, aborted);
+
+            for (TreeOperation operation : missing) {
+                if (aborted.contains(operation)) {
+                    continue;
+                }
+                List<RenderedExtract> rendered = new ArrayList<>();
+
+                for (Extract extract : byOperation.getOrDefault(operation, Collections.emptyList())) {
+                    rendered.add(new RenderedExtract(extract));
+                }
+                cached.put(operation, rendered);
+            }
+        }
+
+        if (!aborted.isEmpty()) {
+            // a preprocessed tree or extracts missing the aborted evaluations
+            cached.setUncacheable();
+        }
+        List<LabeledExtract> extracts = new ArrayList<>();
+
+        for (TreeExtractor extractor : extractors) {
+            for (TreeOperation operation : extractor.getOperationsAsList()) {
+                for (RenderedExtract extract : cached.get(operation)) {
+                    extracts.add(new LabeledExtract(extractor.getLabel(), extract));
+                }
+            }
+        }
+        return new SentenceExtracts(line, extracts, cached);
+    }
+
+    ObjectNode extractNode(String filename, int treeNumber, LabeledExtract labeled) {
+        RenderedExtract extract = labeled.extract;
+        ObjectNode node = mapper.createObjectNode();
+        // construct unique key
+        String key = String.join(":", filename, String.valueOf(treeNumber), String.valueOf(extract.nodeNumber),
+                extract.operationName);
+        node.put("key", key);
+        node.put("label", labeled.label);
+        node.put("filename", filename);
+        node.put("treeNumber", treeNumber);
+        node.put("extractName", extract.operationName);
+        node.put("nodeNumber", extract.nodeNumber);
+        node.put("subTree", extract.subTree);
+        node.put("subStr", extract.subStr);
+        return node;
+    }
+
+
+    /**
+     * Output files of extracts and of transformed extracts, either of which may be absent
+     */
+    private class Outputs implements Closeable {
+        final CheckpointedOutput extracts;
+        final CheckpointedOutput transforms;
+
+        Outputs(Path extractFile, Path transFile, boolean resume) throws IOException {
+            CheckpointedOutput extracts = open(extractFile, resume);
+            CheckpointedOutput transforms;
+
+            try {
+                transforms = open(transFile, resume);
+            } catch (IOException | RuntimeException x) {
+                if (extracts != null) {
+                    extracts.close();
+                }
+                throw x;
+            }
+
+            if (extracts != null && transforms != null
+                    && extracts.getResumed().input != transforms.getResumed().input) {
+                // interrupted between checkpoints of the outputs, so both start over
+                log.warning("outputs were checkpointed at different positions, so neither is resumed: "
+                        + extractFile + ", " + transFile);
+                extracts.close();
+                transforms.close();
+                extracts = open(extractFile, false);
+                transforms = open(transFile, false);
             }
+            this.extracts = extracts;
+            this.transforms = transforms;
+        }
+
+        private CheckpointedOutput open(Path file, boolean resume) throws IOException {
+            return (file == null) ? null : new CheckpointedOutput(file, format, checkpointInterval, resume);
+        }
+
+        /**
+         * The output written last, which decides when to checkpoint
+         */
+        CheckpointedOutput last() {
+            return (transforms == null) ? extracts : transforms;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (extracts != null) {
+                    extracts.close();
+                }
+            } finally {
+                if (transforms != null) {
+                    transforms.close();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Extracts from a single line, where extracts is null if the line is not a well-formed tree,
+     * and cached holds the results for the cache, if any
+     */
+    private static class SentenceExtracts {
+        final String line;
+        final List<LabeledExtract> extracts;
+        final ExtractionCache.Segment.CachedTree cached;
+
+        SentenceExtracts(String line, List<LabeledExtract> extracts, ExtractionCache.Segment.CachedTree cached) {
+            this.line = line;
+            this.extracts = extracts;
+            this.cached = cached;
         }
     }
 
 
+    /**
+     * Extract with label of its extractor, and its subtree already rendered as strings
+     */
+    static class LabeledExtract {
+        final String label;
+        final RenderedExtract extract;
+
+        LabeledExtract(String label, RenderedExtract extract) {
+            this.label = label;
+            this.extract = extract;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,542 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.ling.Sentence;
+import edu.stanford.nlp.process.PTBTokenizer;
+import edu.stanford.nlp.trees.Tree;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * On-disk cache of extraction results, keyed by a digest of the text of a tree and a hash of the source of an
+ * operation, so a rerun with new or changed operations only applies those, and reuses the results of all other
+ * operations. A tree whose results are all cached is not even parsed.
+ *
+ * The cache directory holds a segment for each input file, which is read as a whole before extraction from the
+ * file, and replaced by a new segment with the results of the current operations when extraction is complete.
+ * Lookup is by content, so trees which were added, removed or moved in the input file do not invalidate the
+ * results of other trees. A segment starts with MAGIC, the format version and the hashes of the operations it
+ * holds results for, followed by an entry for each tree: its digest, and the extracts of each operation with any,
+ * or -1 for an ill-formed tree.
+ *
+ * When the segments exceed the maximum size of the cache, the least recently used ones are deleted.
+ */
+public class ExtractionCache {
+    static final String SEGMENT_EXTENSION = ".cache";
+    static final byte[] MAGIC = {(byte) 0x89, 'X', 'C', 'H'};
+    // incremented on incompatible changes, and on changes of extraction that alter its results
+    static final int VERSION = 1;
+    public static final long DEFAULT_MAX_SIZE = 1024;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static Logger log = Logger.getLogger("ExtractionCache");
+
+    // digests are computed by multiple workers
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException(x);
+        }
+    });
+
+    private final Path dir;
+    private final long maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder trees = new LongAdder();
+    private final LongAdder unparsedTrees = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /**
+     * Cache in dir, holding at most maxSize MB
+     */
+    public ExtractionCache(Path dir, long maxSize) throws IOException {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("cache size must not be negative: " + maxSize);
+        }
+        this.dir = dir;
+        this.maxSize = maxSize << 20;
+        FileUtils.forceMkdir(dir.toFile());
+    }
+
+    /**
+     * Add command line arguments for the cache, for use with fromArguments
+     */
+    public static void addCacheArguments(ArgumentParser parser) {
+        parser.addArgument("--cache")
+                .metavar("DIR")
+                .help("directory for caching results of operations on trees, so reruns only apply new or "
+                        + "changed operations");
+        parser.addArgument("--cache-size")
+                .setDefault(DEFAULT_MAX_SIZE)
+                .metavar("MB")
+                .type(Long.class)
+                .help(String.format("maximum size of the cache, beyond which the least recently used files are "
+                        + "evicted (default %d)", DEFAULT_MAX_SIZE));
+    }
+
+    /**
+     * Cache from parsed command line arguments, or null if no cache directory was given
+     */
+    public static ExtractionCache fromArguments(Namespace namespace) throws IOException {
+        String dir = namespace.getString("cache");
+        return (dir == null) ? null : new ExtractionCache(Paths.get(dir), namespace.getLong("cache_size"));
+    }
+
+    /**
+     * Open segment with the given name for extraction by extractors from trees preprocessed by preprocessors,
+     * reading the results of an earlier extraction
+     */
+    Segment openSegment(String name, List<TreeTransformer> preprocessors, List<TreeExtractor> extractors)
+            throws IOException {
+        // results depend on preprocessing as well, so its operations are part of every key
+        StringBuilder preprocessing = new StringBuilder();
+
+        for (TreeTransformer preprocessor : preprocessors) {
+            for (TreeOperation operation : preprocessor.getOperationsAsList()) {
+                String key = keyOf(operation, "");
+
+                if (key == null) {
+                    // preprocessing is not known, so nothing can be cached
+                    preprocessing = null;
+                    break;
+                }
+                preprocessing.append(key).append(' ');
+            }
+
+            if (preprocessing == null) {
+                break;
+            }
+        }
+        Map<TreeOperation, String> operationKeys = new IdentityHashMap<>();
+
+        for (TreeExtractor extractor : extractors) {
+            for (TreeOperation operation : extractor.getOperationsAsList()) {
+                operationKeys.put(operation,
+                        (preprocessing == null) ? null : keyOf(operation, preprocessing.toString()));
+            }
+        }
+        return new Segment(dir.resolve(name + SEGMENT_EXTENSION), operationKeys);
+    }
+
+    /**
+     * Hash of prefix and the source of operation, or null if its actions are not known
+     */
+    static String keyOf(TreeOperation operation, String prefix) {
+        if (operation.hasAction() && operation.actionString == null) {
+            return null;
+        }
+        return RuleSnapshot.hash(String.join("\0", prefix, operation.name, operation.patternString,
+                String.valueOf(operation.actionString)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Delete least recently used segments until the cache fits within its maximum size
+     */
+    private synchronized void evict() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        Map<Path, FileTime> times = new HashMap<>();
+        long size = 0;
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_EXTENSION)) {
+            for (Path segment : stream) {
+                try {
+                    times.put(segment, Files.getLastModifiedTime(segment));
+                    size += Files.size(segment);
+                    segments.add(segment);
+                } catch (NoSuchFileException x) {
+                    // deleted by another process
+                }
+            }
+        }
+        segments.sort(Comparator.comparing(times::get));
+
+        for (Path segment : segments) {
+            if (size <= maxSize) {
+                break;
+            }
+            size -= Files.size(segment);
+            Files.deleteIfExists(segment);
+            evicted.increment();
+            log.fine("evicted " + segment);
+        }
+    }
+
+    /**
+     * Number of operations whose results on a tree were reused
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of operations which were applied to a tree, because their results were not cached
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long lookups = getHits() + getMisses();
+        return (lookups == 0) ? 0 : (double) getHits() / lookups;
+    }
+
+    /**
+     * Number of segments deleted to keep the cache within its maximum size
+     */
+    public long getEvictions() {
+        return evicted.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.1f%% hits in %d operations on trees, %d of %d trees not parsed, %d files evicted",
+                100 * getHitRate(), getHits() + getMisses(), unparsedTrees.sum(), trees.sum(), getEvictions());
+    }
+
+    private static ByteBuffer digest(String line) {
+        return ByteBuffer.wrap(digests.get().digest(line.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Results of extraction from the trees of one input file. Lookups are thread-safe, whereas trees are written
+     * to the new segment by a single thread, in order of input.
+     */
+    class Segment implements Closeable {
+        private final Path file;
+        private final Path tempFile;
+        // keys of current operations, or null for operations which are never cached
+        private final Map<TreeOperation, String> operationKeys;
+        // positions of keys of current operations in the new segment
+        private final Map<String, Integer> keys = new HashMap<>();
+        // keys of operations in the earlier segment
+        private final Set<String> cachedKeys = new HashSet<>();
+        private final Map<ByteBuffer, Map<String, List<RenderedExtract>>> cached = new HashMap<>();
+        private final DataOutputStream out;
+        private boolean committed = false;
+
+        private Segment(Path file, Map<TreeOperation, String> operationKeys) throws IOException {
+            this.file = file;
+            this.operationKeys = operationKeys;
+            tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            List<String> keys = new ArrayList<>();
+
+            for (String key : operationKeys.values()) {
+                if (key != null && !this.keys.containsKey(key)) {
+                    this.keys.put(key, keys.size());
+                    keys.add(key);
+                }
+            }
+            read();
+
+            out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE));
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.size());
+
+            for (String key : keys) {
+                writeString(out, key);
+            }
+        }
+
+        /**
+         * Read earlier segment, if any, where a segment which cannot be read is ignored
+         */
+        private void read() throws IOException {
+            if (!Files.exists(file)) {
+                return;
+            }
+
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+
+                if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION) {
+                    log.warning("ignoring cache file of other format: " + file);
+                    return;
+                }
+
+                List<String> keysByIndex = new ArrayList<>();
+
+                for (int i = in.readInt(); i > 0; i--) {
+                    keysByIndex.add(readString(in));
+                }
+                byte[] digest = new byte[16];
+                int first;
+
+                while ((first = in.read()) >= 0) {
+                    digest[0] = (byte) first;
+                    in.readFully(digest, 1, digest.length - 1);
+                    int count = in.readInt();
+                    Map<String, List<RenderedExtract>> results = (count < 0) ? null : new HashMap<>();
+
+                    for (int i = 0; i < count; i++) {
+                        String key = keysByIndex.get(in.readInt());
+                        List<RenderedExtract> extracts = new ArrayList<>();
+
+                        for (int j = in.readInt(); j > 0; j--) {
+                            extracts.add(new RenderedExtract(InternPool.SHARED.intern(readString(in)), in.readInt(),
+                                    readString(in), readString(in)));
+                        }
+                        results.put(key, extracts);
+                    }
+                    cached.put(ByteBuffer.wrap(digest.clone()), results);
+                }
+                cachedKeys.addAll(keysByIndex);
+            } catch (EOFException | RuntimeException x) {
+                log.warning(String.format("ignoring damaged cache file %s: %s", file, x));
+                cachedKeys.clear();
+                cached.clear();
+            }
+            // reading counts as use
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+
+        /**
+         * Tree with the cached results of extraction from line, if any
+         */
+        CachedTree lookup(String line) {
+            trees.increment();
+            ByteBuffer digest = digest(line);
+
+            if (!cached.containsKey(digest)) {
+                return new CachedTree(digest, false, Collections.emptyMap());
+            }
+            return new CachedTree(digest, true, cached.get(digest));
+        }
+
+        /**
+         * Write results of tree to the new segment
+         */
+        void write(CachedTree tree) throws IOException {
+            if (tree.missed == 0) {
+                unparsedTrees.increment();
+            }
+
+            if (tree.uncacheable) {
+                return;
+            }
+            out.write(tree.digest.array());
+
+            if (tree.isIllFormed()) {
+                out.writeInt(-1);
+                return;
+            }
+            List<Map.Entry<String, List<RenderedExtract>>> current = new ArrayList<>();
+
+            for (Map.Entry<String, List<RenderedExtract>> entry : tree.results.entrySet()) {
+                if (keys.containsKey(entry.getKey()) && !entry.getValue().isEmpty()) {
+                    current.add(entry);
+                }
+            }
+            out.writeInt(current.size());
+
+            for (Map.Entry<String, List<RenderedExtract>> entry : current) {
+                out.writeInt(keys.get(entry.getKey()));
+                out.writeInt(entry.getValue().size());
+
+                for (RenderedExtract extract : entry.getValue()) {
+                    writeString(out, extract.operationName);
+                    out.writeInt(extract.nodeNumber);
+                    writeString(out, extract.subTree);
+                    writeString(out, extract.subStr);
+                }
+            }
+        }
+
+        /**
+         * Replace the earlier segment by the new one, which must hold all trees of the input file,
+         * and evict segments if the cache is full
+         */
+        void commit() throws IOException {
+            out.close();
+            committed = true;
+
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException x) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            evict();
+        }
+
+        /**
+         * Close segment, keeping the earlier segment if the new one was not committed
+         */
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+
+        /**
+         * Results of extraction from a single tree, which are cached or added by extraction
+         */
+        class CachedTree {
+            private final ByteBuffer digest;
+            private final boolean found;
+            private boolean illFormed;
+            // whether an evaluation on the tree was aborted, so its results are incomplete
+            private boolean uncacheable;
+            private final Map<String, List<RenderedExtract>> results = new HashMap<>();
+            // results of operations which are never cached
+            private final Map<TreeOperation, List<RenderedExtract>> uncachedResults = new IdentityHashMap<>();
+            // number of operations applied to the tree
+            private int missed = 0;
+
+            private CachedTree(ByteBuffer digest, boolean found, Map<String, List<RenderedExtract>> results) {
+                this.digest = digest;
+                this.found = found;
+                this.illFormed = (results == null);
+
+                if (results != null) {
+                    this.results.putAll(results);
+                }
+            }
+
+            /**
+             * Whether the tree was found in the cache, so it is known whether it is well-formed
+             */
+            boolean isFound() {
+                return found;
+            }
+
+            boolean isIllFormed() {
+                return illFormed;
+            }
+
+            void setIllFormed() {
+                illFormed = true;
+            }
+
+            /**
+             * Leave the tree out of the new segment, as some of its results were not computed,
+             * so all operations are applied again when it is next seen
+             */
+            void setUncacheable() {
+                uncacheable = true;
+            }
+
+            /**
+             * Operations among operations without cached results on this tree
+             */
+            List<TreeOperation> missing(List<TreeOperation> operations) {
+                List<TreeOperation> missing = new ArrayList<>();
+
+                for (TreeOperation operation : operations) {
+                    String key = operationKeys.get(operation);
+
+                    if (found && key != null && cachedKeys.contains(key)) {
+                        hits.increment();
+                    } else {
+                        missing.add(operation);
+                        misses.increment();
+                        missed++;
+                    }
+                }
+                return missing;
+            }
+
+            /**
+             * Extracts of operation on this tree
+             */
+            List<RenderedExtract> get(TreeOperation operation) {
+                String key = operationKeys.get(operation);
+                List<RenderedExtract> extracts = (key == null) ? uncachedResults.get(operation) : results.get(key);
+                return (extracts == null) ? Collections.emptyList() : extracts;
+            }
+
+            void put(TreeOperation operation, List<RenderedExtract> extracts) {
+                String key = operationKeys.get(operation);
+
+                if (key == null) {
+                    uncachedResults.put(operation, extracts);
+                } else {
+                    results.put(key, extracts);
+                }
+            }
+        }
+    }
+}
+
+
+/**
+ * Extract with its subtree rendered as strings, as written to output and stored in the cache
+ */
+class RenderedExtract {
+    final String operationName;
+    final int nodeNumber;
+    final String subTree;
+    final String subStr;
+    // the subtree itself, or null if the extract was read from the cache
+    final Tree tree;
+
+    RenderedExtract(String operationName, int nodeNumber, String subTree, String subStr) {
+        this(operationName, nodeNumber, subTree, subStr, null);
+    }
+
+    RenderedExtract(Extract extract) {
+        this(extract.operationName, extract.nodeNumber, extract.subTree.toString(),
+                PTBTokenizer.ptb2Text(Sentence.listToString(extract.subTree.yield())), extract.subTree);
+    }
+
+    private RenderedExtract(String operationName, int nodeNumber, String subTree, String subStr, Tree tree) {
+        this.operationName = operationName;
+        this.nodeNumber = nodeNumber;
+        this.subTree = subTree;
+        this.subStr = subStr;
+        this.tree = tree;
+    }
+}
@@ -0,0 +1,45 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader of the records of one origin at a time, that is, of an origin record followed by its descendants,
+ * as Transformation writes them. Records without an origin field start a new family.
+ */
+class FamilyReader implements Closeable {
+    private final RecordReader reader;
+    // first record of the next family
+    private ObjectNode next;
+
+    FamilyReader(RecordReader reader) throws IOException {
+        this.reader = reader;
+        next = reader.next();
+    }
+
+    /**
+     * Read the records of the next origin, or return null if there are no more records
+     */
+    List<ObjectNode> next() throws IOException {
+        if (next == null) {
+            return null;
+        }
+
+        List<ObjectNode> family = new ArrayList<>();
+        family.add(next);
+
+        while ((next = reader.next()) != null && next.has("origin")) {
+            family.add(next);
+        }
+        return family;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
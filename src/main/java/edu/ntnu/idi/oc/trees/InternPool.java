@@ -0,0 +1,181 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.Label;
+import edu.stanford.nlp.trees.Tree;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Pool of canonical strings for the labels and words of trees, shared by all threads.
+ *
+ * Trees hold the same few dozen labels and a heavily repeated vocabulary, so trees which take their strings
+ * from the pool share a single copy of each. Labels are few, so all of them are pooled. Words are only pooled
+ * up to a maximum number, as the pool lives as long as the process and never drops a string. The most frequent
+ * words come early in any corpus, so words found after the pool is full are rarely repeated; they are
+ * left to the trees holding them and counted as rejected.
+ *
+ * Unlike String.intern, the pool keeps count of its lookups and an estimate of its own size,
+ * which are reported once at the end of a run.
+ */
+public final class InternPool {
+    /** maximum number of words in the shared pool */
+    static final int DEFAULT_MAX_WORDS = 1 << 18;
+
+    /** pool used by the tree parser and for copies made by tree operators */
+    static final InternPool SHARED = new InternPool(DEFAULT_MAX_WORDS);
+
+    private static Logger log = Logger.getLogger("InternPool");
+
+    // estimated bytes per string: header and fields of String, header of its array, hash map node and table slot
+    private static final int STRING_OVERHEAD = 24 + 16 + 32 + 8;
+
+    private final ConcurrentHashMap<String, String> labels = new ConcurrentHashMap<>(1024);
+    private final ConcurrentHashMap<String, String> words = new ConcurrentHashMap<>(1024);
+    private final int maxWords;
+    private final AtomicInteger wordCount = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong footprint = new AtomicLong();
+
+    /**
+     * Pool of all labels and of at most about maxWords words
+     */
+    InternPool(int maxWords) {
+        this.maxWords = maxWords;
+    }
+
+    /**
+     * Canonical string equal to label, which is label itself if the pool had none
+     */
+    String intern(String label) {
+        String canonical = labels.get(label);
+
+        if (canonical == null) {
+            canonical = labels.putIfAbsent(label, label);
+
+            if (canonical == null) {
+                added(label);
+                return label;
+            }
+        }
+        hits.increment();
+        return canonical;
+    }
+
+    /**
+     * Canonical string equal to word, which is word itself if the pool had none or is full
+     */
+    String internWord(String word) {
+        String canonical = words.get(word);
+
+        if (canonical == null) {
+            if (wordCount.get() >= maxWords) {
+                rejected.increment();
+                return word;
+            }
+            canonical = words.putIfAbsent(word, word);
+
+            if (canonical == null) {
+                wordCount.incrementAndGet();
+                added(word);
+                return word;
+            }
+        }
+        hits.increment();
+        return canonical;
+    }
+
+    private void added(String string) {
+        misses.increment();
+        footprint.addAndGet(STRING_OVERHEAD + ((string.length() + 7) & ~7));
+    }
+
+    /**
+     * Replace the values, words and tags of the nodes of tree by canonical strings,
+     * e.g. after a Tsurgeon action has created new labels
+     */
+    void internLabels(Tree tree) {
+        Label label = tree.label();
+
+        if (label instanceof CoreLabel) {
+            CoreLabel coreLabel = (CoreLabel) label;
+
+            if (tree.isLeaf()) {
+                coreLabel.setValue(internWordOrNull(coreLabel.value()));
+                coreLabel.setWord(internWordOrNull(coreLabel.word()));
+                coreLabel.setTag(internOrNull(coreLabel.tag()));
+            } else {
+                coreLabel.setValue(internOrNull(coreLabel.value()));
+            }
+        } else if (label != null) {
+            label.setValue(tree.isLeaf() ? internWordOrNull(label.value()) : internOrNull(label.value()));
+        }
+
+        for (Tree child : tree.children()) {
+            internLabels(child);
+        }
+    }
+
+    private String internOrNull(String string) {
+        return string == null ? null : intern(string);
+    }
+
+    private String internWordOrNull(String string) {
+        return string == null ? null : internWord(string);
+    }
+
+    int size() {
+        return labels.size() + wordCount.get();
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of lookups of words which were not pooled, because the pool was full
+     */
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Fraction of lookups finding a string already in the pool
+     */
+    double getHitRate() {
+        long hitCount = getHits();
+        long lookups = hitCount + getMisses() + getRejected();
+        return lookups == 0 ? 0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Estimated bytes of heap held by the pool, assuming one byte per character
+     */
+    long getFootprint() {
+        return footprint.get();
+    }
+
+    /**
+     * Log the use of the shared pool, which all extractions and transformations of a run add to
+     */
+    public static void logShared() {
+        log.info("label and word pool: " + SHARED);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d labels and %d words in %d KB, %.1f%% hits in %d lookups, %d words not pooled",
+                labels.size(), wordCount.get(), (getFootprint() + 1023) / 1024, 100 * getHitRate(),
+                getHits() + getMisses() + getRejected(), getRejected());
+    }
+}
@@ -0,0 +1,240 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import edu.stanford.nlp.trees.Tree;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Bound on the work of evaluating a single operation on a single tree, by number of steps or by time.
+ *
+ * A pathological tree can make a pattern match for minutes. An evaluation exceeding the budget is aborted,
+ * its results are dropped, and the tree with the name of the operation is written to a quarantine file of
+ * JSON records, one per line, after which processing goes on with the next operation or tree.
+ *
+ * Steps are counted only on trees of budgeted nodes, as made by a budgeted TreeParser, where each visit of
+ * the children of a node is a step. The step count and the time are checked every CHECK_INTERVAL steps at most,
+ * so trees of plain nodes, or evaluations outside begin and end, cost nothing.
+ */
+public final class OperationBudget implements Closeable {
+    static final int CHECK_INTERVAL = 1024;
+
+    private static Logger log = Logger.getLogger("OperationBudget");
+
+    /**
+     * Thrown by a step exceeding the budget of the evaluation in progress
+     */
+    static final class Exceeded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final long steps;
+        final long nanos;
+
+        Exceeded(String reason, long steps, long nanos) {
+            // thrown to abort, so there is no need for a stack trace
+            super(reason, null, false, false);
+            this.steps = steps;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Steps of the evaluation in progress on a thread
+     */
+    private static final class Counter {
+        OperationBudget budget;
+        // steps between checks, and steps to go until the next check
+        int interval = CHECK_INTERVAL;
+        int countdown = CHECK_INTERVAL;
+        long steps;
+        long start;
+        long deadline;
+
+        void check() {
+            countdown = interval;
+            steps += interval;
+
+            if (budget.maxSteps > 0 && steps >= budget.maxSteps) {
+                throw new Exceeded("steps", steps, System.nanoTime() - start);
+            }
+            if (budget.maxMillis > 0) {
+                long now = System.nanoTime();
+                if (now - deadline > 0) {
+                    throw new Exceeded("time", steps, now - start);
+                }
+            }
+        }
+    }
+
+    private static final ThreadLocal<Counter> counters = ThreadLocal.withInitial(Counter::new);
+
+    private final long maxSteps;
+    private final long maxMillis;
+    private final Path quarantineFile;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final LongAdder aborted = new LongAdder();
+    private BufferedWriter quarantine;
+
+    /**
+     * Budget of maxSteps steps and maxMillis milliseconds, where 0 means no bound,
+     * with aborted evaluations written to quarantineFile, unless it is null
+     */
+    public OperationBudget(long maxSteps, long maxMillis, Path quarantineFile) {
+        this.maxSteps = maxSteps;
+        this.maxMillis = maxMillis;
+        this.quarantineFile = quarantineFile;
+    }
+
+    /**
+     * Count a step of the evaluation in progress on this thread
+     */
+    static void step() {
+        Counter counter = counters.get();
+
+        // steps outside evaluations are not counted
+        if (counter.budget != null && --counter.countdown == 0) {
+            counter.check();
+        }
+    }
+
+    /**
+     * Start an evaluation on this thread, which must be followed by end
+     */
+    void begin() {
+        Counter counter = counters.get();
+        counter.budget = this;
+        counter.interval = (maxSteps > 0 && maxSteps < CHECK_INTERVAL) ? (int) maxSteps : CHECK_INTERVAL;
+        counter.countdown = counter.interval;
+        counter.steps = 0;
+        counter.start = System.nanoTime();
+        counter.deadline = counter.start + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    /**
+     * End the evaluation on this thread, after which steps are no longer checked
+     */
+    void end() {
+        counters.get().budget = null;
+    }
+
+    /**
+     * Value of supplier, whose steps are not counted against the evaluation in progress on this thread, if any,
+     * e.g. for work on a tree shared by all operations
+     */
+    static <T> T uncounted(Supplier<T> supplier) {
+        Counter counter = counters.get();
+        OperationBudget budget = counter.budget;
+        counter.budget = null;
+
+        try {
+            return supplier.get();
+        } finally {
+            counter.budget = budget;
+        }
+    }
+
+    /**
+     * Record the evaluation of operation on tree aborted by exceeded, ending the evaluation
+     */
+    void quarantine(Tree tree, String operationName, Exceeded exceeded) {
+        // writing the tree visits its nodes, which must not exceed the budget again
+        end();
+        aborted.increment();
+        log.warning(String.format("aborted %s after %d steps and %d ms: %s", operationName, exceeded.steps,
+                TimeUnit.NANOSECONDS.toMillis(exceeded.nanos), tree));
+
+        if (quarantineFile == null) {
+            return;
+        }
+        ObjectNode record = mapper.createObjectNode();
+        record.put("operation", operationName);
+        record.put("exceeded", exceeded.getMessage());
+        record.put("steps", exceeded.steps);
+        record.put("millis", TimeUnit.NANOSECONDS.toMillis(exceeded.nanos));
+        record.put("tree", tree.toString());
+
+        synchronized (this) {
+            try {
+                if (quarantine == null) {
+                    quarantine = Files.newBufferedWriter(quarantineFile, StandardCharsets.UTF_8);
+                }
+                quarantine.write(mapper.writeValueAsString(record));
+                quarantine.newLine();
+                quarantine.flush();
+            } catch (IOException x) {
+                System.err.format("IOException: %s%n", x);
+            }
+        }
+    }
+
+    /**
+     * Number of evaluations aborted so far
+     */
+    public long getAborted() {
+        return aborted.sum();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (quarantine != null) {
+            quarantine.close();
+            quarantine = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("max %d steps, max %d ms, %d evaluations aborted", maxSteps, maxMillis, getAborted());
+    }
+
+    /**
+     * Add command line arguments for an operation budget, for use with fromArguments
+     */
+    public static void addBudgetArguments(ArgumentParser parser) {
+        parser.addArgument("--max-steps")
+                .setDefault(0L)
+                .metavar("N")
+                .type(Long.class)
+                .help("abort evaluating an operation on a tree after about N steps of matching (default no limit)");
+        parser.addArgument("--max-millis")
+                .setDefault(0L)
+                .metavar("MS")
+                .type(Long.class)
+                .help("abort evaluating an operation on a tree after about MS milliseconds (default no limit)");
+        parser.addArgument("--quarantine")
+                .metavar("FILE")
+                .help("write trees and operations of aborted evaluations to FILE, one JSON record per line");
+    }
+
+    /**
+     * Operation budget from parsed command line arguments, or null if there is no limit
+     */
+    public static OperationBudget fromArguments(Namespace namespace) {
+        long maxSteps = namespace.getLong("max_steps");
+        long maxMillis = namespace.getLong("max_millis");
+        String file = namespace.getString("quarantine");
+
+        if (maxSteps <= 0 && maxMillis <= 0) {
+            if (file != null) {
+                log.warning("no quarantine without --max-steps or --max-millis");
+            }
+            return null;
+        }
+        return new OperationBudget(maxSteps, maxMillis, (file == null) ? null : Paths.get(file));
+    }
+}
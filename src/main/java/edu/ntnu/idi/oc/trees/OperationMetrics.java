@@ -0,0 +1,269 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Run time of tree operations, collected per operation while enabled, to find the patterns that dominate run time.
+ *
+ * Every operation counts the trees its pattern is matched against, the nodes it matches, the time spent matching
+ * and the time spent making results from matches, in counters striped over threads.
+ * While a run is going, the statistics are available through JMX under OBJECT_NAME, where collection can be
+ * switched on and off as well. When collection is off, operations only check whether it is on.
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+    public static final String OBJECT_NAME = "edu.ntnu.idi.oc.trees:type=OperationMetrics";
+    /** number of operations listed by getTopOperations */
+    static final int TOP_OPERATIONS = 20;
+
+    static final OperationMetrics SHARED = new OperationMetrics();
+
+    private static Logger log = Logger.getLogger("OperationMetrics");
+
+    /**
+     * Counters of a single operation
+     */
+    static final class Counters {
+        private final LongAdder evaluations = new LongAdder();
+        private final LongAdder matches = new LongAdder();
+        private final LongAdder matchNanos = new LongAdder();
+        private final LongAdder actionNanos = new LongAdder();
+
+        /**
+         * Count matching of the pattern against a tree, started at start, which found the given number of matches
+         */
+        void matched(long start, int matches) {
+            matchNanos.add(System.nanoTime() - start);
+            evaluations.increment();
+            this.matches.add(matches);
+        }
+
+        /**
+         * Count further matching, started at start, belonging to an evaluation counted separately
+         */
+        void matchedAgain(long start) {
+            matchNanos.add(System.nanoTime() - start);
+        }
+
+        /**
+         * Count an evaluation of the operation on a tree which found the given number of matches,
+         * where matching is timed separately
+         */
+        void evaluated(int matches) {
+            evaluations.increment();
+            this.matches.add(matches);
+        }
+
+        /**
+         * Count further matches belonging to an evaluation counted separately
+         */
+        void found(int matches) {
+            this.matches.add(matches);
+        }
+
+        /**
+         * Count making results from matches, started at start
+         */
+        void acted(long start) {
+            actionNanos.add(System.nanoTime() - start);
+        }
+
+        private void reset() {
+            evaluations.reset();
+            matches.reset();
+            matchNanos.reset();
+            actionNanos.reset();
+        }
+    }
+
+    // operations with their counters, which are dropped with the operations
+    private final Map<TreeOperation, Counters> operations = Collections.synchronizedMap(new WeakHashMap<>());
+    private volatile boolean enabled;
+    private boolean registered;
+
+    /**
+     * Counters for operation, which are kept as long as operation is
+     */
+    Counters register(TreeOperation operation) {
+        Counters counters = new Counters();
+        operations.put(operation, counters);
+        return counters;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Register with the platform MBean server, unless registered before
+     */
+    public synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+            registered = true;
+        } catch (JMException x) {
+            log.warning(String.format("cannot register %s: %s", OBJECT_NAME, x));
+        }
+    }
+
+    /**
+     * Statistics of all operations, where operations with equal names and patterns are summed,
+     * most expensive first
+     */
+    List<OperationStatistics> statistics() {
+        Map<String, OperationStatistics> byOperation = new LinkedHashMap<>();
+
+        synchronized (operations) {
+            for (Map.Entry<TreeOperation, Counters> entry : operations.entrySet()) {
+                TreeOperation operation = entry.getKey();
+                Counters counters = entry.getValue();
+
+                if (counters.evaluations.sum() == 0) {
+                    continue;
+                }
+                OperationStatistics statistics = new OperationStatistics(operation.name, operation.patternString,
+                        counters.evaluations.sum(), counters.matches.sum(), counters.matchNanos.sum(),
+                        counters.actionNanos.sum());
+                byOperation.merge(operation.name + "\0" + operation.patternString, statistics,
+                        OperationStatistics::plus);
+            }
+        }
+        List<OperationStatistics> statistics = new ArrayList<>(byOperation.values());
+        statistics.sort(Comparator.comparingLong(
+                (OperationStatistics s) -> s.getMatchNanos() + s.getActionNanos()).reversed());
+        return statistics;
+    }
+
+    @Override
+    public long getEvaluations() {
+        return statistics().stream().mapToLong(OperationStatistics::getEvaluations).sum();
+    }
+
+    @Override
+    public long getMatches() {
+        return statistics().stream().mapToLong(OperationStatistics::getMatches).sum();
+    }
+
+    @Override
+    public double getMatchSeconds() {
+        return statistics().stream().mapToLong(OperationStatistics::getMatchNanos).sum() / 1e9;
+    }
+
+    @Override
+    public double getActionSeconds() {
+        return statistics().stream().mapToLong(OperationStatistics::getActionNanos).sum() / 1e9;
+    }
+
+    @Override
+    public List<OperationStatistics> getTopOperations() {
+        List<OperationStatistics> statistics = statistics();
+        return new ArrayList<>(statistics.subList(0, Math.min(TOP_OPERATIONS, statistics.size())));
+    }
+
+    @Override
+    public String getReport() {
+        return report().toString();
+    }
+
+    @Override
+    public void reset() {
+        synchronized (operations) {
+            operations.values().forEach(Counters::reset);
+        }
+    }
+
+    /**
+     * Report of all operations, most expensive first, with their share of the total time
+     */
+    ObjectNode report() {
+        ObjectMapper mapper = new ObjectMapper();
+        ObjectNode report = mapper.createObjectNode();
+        List<OperationStatistics> statistics = statistics();
+        long totalNanos = statistics.stream().mapToLong(s -> s.getMatchNanos() + s.getActionNanos()).sum();
+        report.put("evaluations", statistics.stream().mapToLong(OperationStatistics::getEvaluations).sum());
+        report.put("matches", statistics.stream().mapToLong(OperationStatistics::getMatches).sum());
+        report.put("seconds", totalNanos / 1e9);
+        ArrayNode operationsNode = report.putArray("operations");
+
+        for (OperationStatistics s : statistics) {
+            ObjectNode node = operationsNode.addObject();
+            node.put("name", s.getName());
+            node.put("pattern", s.getPattern());
+            node.put("evaluations", s.getEvaluations());
+            node.put("matches", s.getMatches());
+            node.put("matchMillis", s.getMatchNanos() / 1000000);
+            node.put("actionMillis", s.getActionNanos() / 1000000);
+            node.put("share", (totalNanos == 0) ? 0 : (double) (s.getMatchNanos() + s.getActionNanos()) / totalNanos);
+        }
+        return report;
+    }
+
+    void writeReport(Path file) throws IOException {
+        new ObjectMapper()
+                .enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(file.toFile(), report());
+    }
+
+    /**
+     * Add command line argument for a report of operation metrics, for use with fromArguments
+     */
+    public static void addMetricsArgument(ArgumentParser parser) {
+        parser.addArgument("--metrics")
+                .metavar("FILE")
+                .help("collect run time of each operation, which is available through JMX as " + OBJECT_NAME
+                        + ", and write it to FILE in JSON at exit");
+    }
+
+    /**
+     * Register the shared metrics with JMX, where they can be enabled while running,
+     * and if a report file was given in parsed command line arguments, enable them and write the report at exit
+     */
+    public static void fromArguments(Namespace namespace) {
+        SHARED.registerMBean();
+        String file = namespace.getString("metrics");
+
+        if (file != null) {
+            SHARED.setEnabled(true);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    SHARED.writeReport(Paths.get(file));
+                } catch (IOException x) {
+                    System.err.format("IOException: %s%n", x);
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package edu.ntnu.idi.oc.trees;
+
+import java.util.List;
+
+/**
+ * Management interface of OperationMetrics, registered under OperationMetrics.OBJECT_NAME
+ */
+public interface OperationMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getEvaluations();
+
+    long getMatches();
+
+    double getMatchSeconds();
+
+    double getActionSeconds();
+
+    /**
+     * Operations taking the most time, most expensive first
+     */
+    List<OperationStatistics> getTopOperations();
+
+    /**
+     * Statistics of all operations in JSON
+     */
+    String getReport();
+
+    void reset();
+}
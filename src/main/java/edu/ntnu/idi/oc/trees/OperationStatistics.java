@@ -0,0 +1,67 @@
+package edu.ntnu.idi.oc.trees;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Statistics of an operation at some point in time, summed over all rule files defining the same operation
+ */
+public class OperationStatistics {
+    private final String name;
+    private final String pattern;
+    private final long evaluations;
+    private final long matches;
+    private final long matchNanos;
+    private final long actionNanos;
+
+    @ConstructorProperties({"name", "pattern", "evaluations", "matches", "matchNanos", "actionNanos"})
+    public OperationStatistics(String name, String pattern, long evaluations, long matches, long matchNanos,
+                               long actionNanos) {
+        this.name = name;
+        this.pattern = pattern;
+        this.evaluations = evaluations;
+        this.matches = matches;
+        this.matchNanos = matchNanos;
+        this.actionNanos = actionNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Number of trees the pattern was matched against, leaving out trees lacking its prerequisites
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * Number of nodes the pattern matched
+     */
+    public long getMatches() {
+        return matches;
+    }
+
+    /**
+     * Time spent matching the pattern
+     */
+    public long getMatchNanos() {
+        return matchNanos;
+    }
+
+    /**
+     * Time spent making results from matches after matching, such as copying trees and applying actions
+     */
+    public long getActionNanos() {
+        return actionNanos;
+    }
+
+    OperationStatistics plus(OperationStatistics other) {
+        return new OperationStatistics(name, pattern, evaluations + other.evaluations, matches + other.matches,
+                matchNanos + other.matchNanos, actionNanos + other.actionNanos);
+    }
+}
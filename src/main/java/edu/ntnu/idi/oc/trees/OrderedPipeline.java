@@ -0,0 +1,116 @@
+package edu.ntnu.idi.oc.trees;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Order-preserving pipeline of a single reader, a pool of workers and a single writer.
+ *
+ * The reader submits each input to the workers and queues the pending result.
+ * The writer takes results from the queue in input order, so output is identical to sequential processing.
+ * The queue is bounded, which blocks the reader when workers or writer fall behind.
+ */
+class OrderedPipeline<I, O> {
+    private final int workers;
+    private final int capacity;
+
+    /**
+     * Source of inputs, returning null when exhausted
+     */
+    interface Source<I> {
+        I next() throws IOException;
+    }
+
+    /**
+     * Sink for results, called from a single thread in input order
+     */
+    interface Sink<O> {
+        void accept(O output) throws IOException;
+    }
+
+    OrderedPipeline(int workers, int capacity) {
+        this.workers = workers;
+        this.capacity = capacity;
+    }
+
+    OrderedPipeline(int workers) {
+        this(workers, 64 * workers);
+    }
+
+    /**
+     * Run pipeline until source is exhausted, writing results from the calling thread
+     */
+    void run(Source<I> source, Function<I, O> worker, Sink<O> sink) throws IOException {
+        BlockingQueue<Future<O>> pending = new ArrayBlockingQueue<>(capacity);
+        // marks end of input; compared by identity
+        CompletableFuture<O> end = new CompletableFuture<>();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        // failure of the reader, which ends input after the results of inputs read before
+        Throwable[] readError = new Throwable[1];
+
+        Thread reader = new Thread(() -> {
+            try {
+                I input;
+                while ((input = source.next()) != null) {
+                    I task = input;
+                    pending.put(executor.submit(() -> worker.apply(task)));
+                }
+            } catch (InterruptedException x) {
+                // writer gave up, so putting the end below fails at once instead of waiting for room
+                Thread.currentThread().interrupt();
+            } catch (Throwable x) {
+                readError[0] = x;
+            } finally {
+                // the writer waits for the end, whichever way reading ended
+                try {
+                    pending.put(end);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "pipeline-reader");
+
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            for (Future<O> future = pending.take(); future != end; future = pending.take()) {
+                sink.accept(future.get());
+            }
+            reader.join();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new IOException("pipeline interrupted", x);
+        } catch (ExecutionException x) {
+            throw rethrow(x.getCause());
+        } finally {
+            reader.interrupt();
+            executor.shutdownNow();
+        }
+
+        if (readError[0] != null) {
+            throw rethrow(readError[0]);
+        }
+    }
+
+    /**
+     * Throw failure as it is if unchecked, or else return it as an IOException to be thrown
+     */
+    private static IOException rethrow(Throwable failure) {
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure instanceof IOException) {
+            return (IOException) failure;
+        }
+        return new IOException(failure);
+    }
+}
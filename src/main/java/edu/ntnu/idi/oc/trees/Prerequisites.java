@@ -0,0 +1,406 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Node labels and words which must occur in a tree for a Tregex pattern to match.
+ *
+ * Prerequisites are derived from the pattern string, following the grammar of TregexParser.
+ * Only plain node descriptions (e.g. "NP" or "VBN|VBD") that are neither negated, optional nor
+ * part of a disjunction are taken into account, so prerequisites are a necessary, not a sufficient,
+ * condition for a match. Any construct that is not understood results in no prerequisites at all.
+ */
+class Prerequisites {
+    /** Prerequisites that any tree satisfies */
+    static final Prerequisites NONE = new Prerequisites(Collections.emptyList());
+
+    // each element is a set of alternative values, at least one of which must occur
+    private final String[][] required;
+
+    private Prerequisites(List<Set<String>> required) {
+        this.required = new String[required.size()][];
+
+        for (int i = 0; i < required.size(); i++) {
+            this.required[i] = required.get(i).toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Derive prerequisites from a Tregex pattern string
+     */
+    static Prerequisites of(String pattern) {
+        if (pattern == null) {
+            return NONE;
+        }
+
+        try {
+            // drop duplicates, as in NP < (NP < VBN)
+            List<Set<String>> required = new ArrayList<>(new LinkedHashSet<>(new Parser(pattern).parseRoot()));
+            return required.isEmpty() ? NONE : new Prerequisites(required);
+        } catch (IllegalArgumentException e) {
+            // unsupported syntax
+            return NONE;
+        }
+    }
+
+    /**
+     * Prerequisites from lists of alternative values, as returned by asLists
+     */
+    static Prerequisites ofLists(List<List<String>> required) {
+        List<Set<String>> sets = new ArrayList<>(required.size());
+
+        for (List<String> alternatives : required) {
+            sets.add(new LinkedHashSet<>(alternatives));
+        }
+        return sets.isEmpty() ? NONE : new Prerequisites(sets);
+    }
+
+    /**
+     * Prerequisites as lists of alternative values, e.g. for storing in a snapshot
+     */
+    List<List<String>> asLists() {
+        List<List<String>> lists = new ArrayList<>(required.length);
+
+        for (String[] alternatives : required) {
+            lists.add(Arrays.asList(alternatives));
+        }
+        return lists;
+    }
+
+    /**
+     * Values (labels and words) of all nodes in a tree
+     */
+    static Set<String> valuesOf(Tree tree) {
+        Set<String> values = new HashSet<>(2 * tree.size());
+        addValues(tree, values);
+        return values;
+    }
+
+    private static void addValues(Tree tree, Set<String> values) {
+        values.add(tree.value());
+
+        for (Tree child : tree.children()) {
+            addValues(child, values);
+        }
+    }
+
+    boolean isEmpty() {
+        return required.length == 0;
+    }
+
+    /**
+     * Check if values of a tree, as returned by valuesOf, meet all prerequisites
+     */
+    boolean isSatisfiedBy(Set<String> values) {
+        outer:
+        for (String[] alternatives : required) {
+            for (String value : alternatives) {
+                if (values.contains(value)) {
+                    continue outer;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        List<String> parts = new ArrayList<>(required.length);
+
+        for (String[] alternatives : required) {
+            parts.add(String.join("|", alternatives));
+        }
+        return parts.toString();
+    }
+
+
+    /**
+     * Recursive descent parser for the subset of Tregex syntax relevant to prerequisites.
+     * Methods return the prerequisites of the parsed construct, assuming it must match.
+     */
+    private static class Parser {
+        private static final String SINGLE_CHARS = "()[]!@#%=~&?{};|";
+        private static final String RELATION_CHARS = "<>$.,:+-#";
+        private static final List<String> STRING_ARG_RELATIONS = Arrays.asList("<+", ">+", ".+", ",+");
+
+        private final List<String> tokens = new ArrayList<>();
+        private int position = 0;
+
+        Parser(String pattern) {
+            tokenize(pattern);
+        }
+
+        private void tokenize(String pattern) {
+            int i = 0;
+            int n = pattern.length();
+
+            while (i < n) {
+                char c = pattern.charAt(i);
+                int start = i;
+
+                if (Character.isWhitespace(c)) {
+                    i++;
+                    continue;
+                } else if (c == '/') {
+                    // regular expression, possibly with escaped slashes
+                    for (i++; i < n && pattern.charAt(i) != '/'; i++) {
+                        if (pattern.charAt(i) == '\\') {
+                            i++;
+                        }
+                    }
+                    if (i >= n) {
+                        throw new IllegalArgumentException("unterminated regular expression");
+                    }
+                    i++;
+                } else if (c == '=' && i + 1 < n && pattern.charAt(i + 1) == '=') {
+                    i += 2;
+                } else if (SINGLE_CHARS.indexOf(c) >= 0) {
+                    i++;
+                } else if ("<>$.,".indexOf(c) >= 0) {
+                    while (i < n && RELATION_CHARS.indexOf(pattern.charAt(i)) >= 0) {
+                        i++;
+                    }
+                    // numeric argument, as in <1 or <-2
+                    while (i < n && Character.isDigit(pattern.charAt(i))) {
+                        i++;
+                    }
+                } else {
+                    // identifier, including alternatives like VBN|VBD
+                    while (i < n && isIdentifierChar(pattern, i)) {
+                        i++;
+                    }
+                }
+                tokens.add(pattern.substring(start, i));
+            }
+        }
+
+        private static boolean isIdentifierChar(String pattern, int i) {
+            char c = pattern.charAt(i);
+
+            if (c == '|') {
+                // part of identifier only if directly followed by another alternative
+                return i + 1 < pattern.length() && !Character.isWhitespace(pattern.charAt(i + 1))
+                        && SINGLE_CHARS.indexOf(pattern.charAt(i + 1)) < 0;
+            }
+            return !Character.isWhitespace(c) && SINGLE_CHARS.indexOf(c) < 0 && "/<>$,".indexOf(c) < 0;
+        }
+
+        private String peek() {
+            return (position < tokens.size()) ? tokens.get(position) : "";
+        }
+
+        private String next() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("unexpected end of pattern");
+            }
+            return tokens.get(position++);
+        }
+
+        private void expect(String token) {
+            if (!token.equals(next())) {
+                throw new IllegalArgumentException("expected " + token);
+            }
+        }
+
+        private static boolean isRelation(String token) {
+            return !token.isEmpty() && ("<>$.,".indexOf(token.charAt(0)) >= 0 || token.equals("=="));
+        }
+
+        private static boolean isIdentifier(String token) {
+            return !token.isEmpty() && !isRelation(token) && token.charAt(0) != '/'
+                    && !(token.length() == 1 && SINGLE_CHARS.indexOf(token.charAt(0)) >= 0);
+        }
+
+        private boolean atChildren() {
+            String token = peek();
+            return isRelation(token) || token.equals("(") || token.equals("!") || token.equals("?")
+                    || token.equals("[");
+        }
+
+        List<Set<String>> parseRoot() {
+            List<Set<String>> required = parseSubNode();
+
+            if (position != tokens.size()) {
+                // e.g. disjunction of patterns at top level
+                throw new IllegalArgumentException("unsupported pattern");
+            }
+            return required;
+        }
+
+        private List<Set<String>> parseSubNode() {
+            List<Set<String>> required;
+
+            if (peek().equals("(")) {
+                next();
+                required = parseSubNode();
+                expect(")");
+            } else {
+                required = parseModDescription();
+            }
+
+            if (atChildren()) {
+                required.addAll(parseChildrenDisj());
+            }
+            return required;
+        }
+
+        private List<Set<String>> parseNode() {
+            if (peek().equals("(")) {
+                next();
+                List<Set<String>> required = parseSubNode();
+                expect(")");
+                return required;
+            }
+            return parseModDescription();
+        }
+
+        private List<Set<String>> parseModDescription() {
+            boolean negated = false;
+            boolean basicCategory = false;
+
+            if (peek().equals("!")) {
+                next();
+                negated = true;
+            }
+            if (peek().equals("@")) {
+                next();
+                basicCategory = true;
+            }
+
+            List<Set<String>> required = new ArrayList<>();
+            String token = next();
+
+            if (token.equals("~")) {
+                // link to description of named node
+                parseIdentifier();
+                parseName();
+            } else if (token.equals("=")) {
+                // reference to named node
+                parseIdentifier();
+            } else if (token.startsWith("/") || isIdentifier(token)) {
+                while (peek().equals("#")) {
+                    // variable group, e.g. /(.*)/#1%var
+                    next();
+                    parseIdentifier();
+                    expect("%");
+                    parseIdentifier();
+                }
+                parseName();
+
+                if (!negated && !basicCategory && isIdentifier(token) && !token.equals("__")
+                        && token.indexOf('\\') < 0) {
+                    required.add(new LinkedHashSet<>(Arrays.asList(token.split("[|]"))));
+                }
+            } else {
+                throw new IllegalArgumentException("unexpected token " + token);
+            }
+            return required;
+        }
+
+        private void parseName() {
+            if (peek().equals("=")) {
+                next();
+                parseIdentifier();
+            }
+        }
+
+        private String parseIdentifier() {
+            String token = next();
+
+            if (!isIdentifier(token)) {
+                throw new IllegalArgumentException("expected identifier instead of " + token);
+            }
+            return token;
+        }
+
+        private List<Set<String>> parseChildrenDisj() {
+            List<Set<String>> required = parseChildrenConj();
+            boolean disjunction = false;
+
+            while (peek().equals("|")) {
+                next();
+                parseChildrenConj();
+                disjunction = true;
+            }
+            // nothing is certain about alternatives
+            return disjunction ? new ArrayList<>() : required;
+        }
+
+        private List<Set<String>> parseChildrenConj() {
+            List<Set<String>> required = parseModChild();
+
+            while (atChildren() || peek().equals("&")) {
+                if (peek().equals("&")) {
+                    next();
+                }
+                required.addAll(parseModChild());
+            }
+            return required;
+        }
+
+        private List<Set<String>> parseModChild() {
+            if (peek().equals("!")) {
+                next();
+                parseModChild();
+                return new ArrayList<>();
+            } else if (peek().equals("?")) {
+                next();
+                parseChild();
+                return new ArrayList<>();
+            }
+            return parseChild();
+        }
+
+        private List<Set<String>> parseChild() {
+            String token = next();
+            List<Set<String>> required;
+
+            if (token.equals("[")) {
+                required = parseChildrenDisj();
+                expect("]");
+            } else if (token.equals("(")) {
+                required = parseChildrenDisj();
+                expect(")");
+            } else if (isRelation(token)) {
+                parseRelationArgument(token);
+                required = parseNode();
+            } else {
+                throw new IllegalArgumentException("unexpected token " + token);
+            }
+            return required;
+        }
+
+        private void parseRelationArgument(String relation) {
+            if (relation.startsWith("<...")) {
+                throw new IllegalArgumentException("unsupported relation " + relation);
+            }
+
+            if (STRING_ARG_RELATIONS.contains(relation)) {
+                // nodes on path, as in <+(VP), which are not required to exist
+                String open = next();
+
+                if (open.equals("(") || open.equals("[")) {
+                    if (peek().equals("!")) next();
+                    if (peek().equals("@")) next();
+                    next();
+                    expect(open.equals("(") ? ")" : "]");
+                } else if (open.equals("!")) {
+                    if (!next().startsWith("/")) {
+                        throw new IllegalArgumentException("expected regular expression");
+                    }
+                } else if (!open.startsWith("/")) {
+                    throw new IllegalArgumentException("unexpected token " + open);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package edu.ntnu.idi.oc.trees;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Periodic log line with the number of items each stage of a run has done and its rate since the last line,
+ * e.g. "files: 3 of 40; extract: 12000 sentences, 2400/s; transform: 3100 origins, 610/s".
+ * Closing logs the totals and the rates over the whole run.
+ */
+public final class Progress implements Closeable {
+    static final long DEFAULT_PROGRESS_INTERVAL = 10;
+
+    private static Logger log = Logger.getLogger("Progress");
+
+    /**
+     * Stage with the count of items it has done
+     */
+    private static class Stage {
+        final String name;
+        final String unit;
+        final LongSupplier count;
+        // number of items to do, or -1 for a stage with a rate instead
+        final long total;
+        final long firstCount;
+        long lastCount;
+
+        Stage(String name, String unit, LongSupplier count, long total) {
+            this.name = name;
+            this.unit = unit;
+            this.count = count;
+            this.total = total;
+            this.firstCount = count.getAsLong();
+            this.lastCount = firstCount;
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final long startTime = System.nanoTime();
+    private final ScheduledExecutorService timer;
+    private long lastTime = startTime;
+
+    /**
+     * Progress logging every interval seconds, or only when closed if interval is 0
+     */
+    Progress(long interval) {
+        if (interval > 0) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.SECONDS);
+        } else {
+            timer = null;
+        }
+    }
+
+    /**
+     * Add stage, where count gives the number of items it has done so far, from which items done before
+     * are subtracted
+     */
+    synchronized Progress addStage(String name, String unit, LongSupplier count) {
+        stages.add(new Stage(name, unit, count, -1));
+        return this;
+    }
+
+    /**
+     * Add stage with a known number of items to do, which is shown instead of its rate
+     */
+    synchronized Progress addStage(String name, LongSupplier count, long total) {
+        stages.add(new Stage(name, null, count, total));
+        return this;
+    }
+
+    private synchronized void report() {
+        long now = System.nanoTime();
+        double seconds = (now - lastTime) / 1e9;
+        List<String> parts = new ArrayList<>();
+
+        for (Stage stage : stages) {
+            long count = stage.count.getAsLong();
+
+            if (stage.total < 0) {
+                parts.add(String.format("%s: %d %s, %.0f/s", stage.name, count - stage.firstCount, stage.unit,
+                        (count - stage.lastCount) / seconds));
+            } else {
+                parts.add(String.format("%s: %d of %d", stage.name, count - stage.firstCount, stage.total));
+            }
+            stage.lastCount = count;
+        }
+        lastTime = now;
+        log.info(String.join("; ", parts));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        List<String> parts = new ArrayList<>();
+
+        for (Stage stage : stages) {
+            long count = stage.count.getAsLong() - stage.firstCount;
+
+            if (stage.total < 0) {
+                parts.add(String.format("%s: %d %s, %.0f/s", stage.name, count, stage.unit, count / seconds));
+            } else {
+                parts.add(String.format("%s: %d of %d", stage.name, count, stage.total));
+            }
+        }
+        log.info(String.format("done in %.1f s, %s", seconds, String.join("; ", parts)));
+    }
+
+    /**
+     * Add command line argument for the interval between progress lines, for use with progressIntervalFrom
+     */
+    public static void addProgressArgument(ArgumentParser parser) {
+        parser.addArgument("--progress")
+                .setDefault(DEFAULT_PROGRESS_INTERVAL)
+                .metavar("SECONDS")
+                .type(Long.class)
+                .help(String.format("seconds between progress lines, or 0 for none (default %d)",
+                        DEFAULT_PROGRESS_INTERVAL));
+    }
+
+    /**
+     * Interval between progress lines from parsed command line arguments
+     */
+    public static long progressIntervalFrom(Namespace namespace) {
+        return namespace.getLong("progress");
+    }
+}
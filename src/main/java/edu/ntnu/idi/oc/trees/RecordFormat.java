@@ -0,0 +1,71 @@
+package edu.ntnu.idi.oc.trees;
+
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+/**
+ * Format of files with records of extracted or transformed variables.
+ *
+ * Readers detect the format of their input, so only output requires a choice of format.
+ */
+public enum RecordFormat {
+    /** single JSON array of indented records */
+    JSON("json", ".json"),
+    /** JSON Lines: one compact record per line, so files can be split and concatenated */
+    JSONL("jsonl", ".jsonl"),
+    /** binary records with dictionaries of repeated strings, see BinaryRecords */
+    BINARY("binary", ".bin");
+
+    public static final RecordFormat DEFAULT = JSON;
+
+    private final String name;
+    private final String extension;
+
+    RecordFormat(String name, String extension) {
+        this.name = name;
+        this.extension = extension;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Filename extension of files in this format, including the dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    public static RecordFormat forName(String name) {
+        for (RecordFormat format : values()) {
+            if (format.name.equals(name)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("unknown record format: " + name);
+    }
+
+    /**
+     * Add command line argument for output format, for use with fromArguments
+     */
+    public static void addFormatArgument(ArgumentParser parser) {
+        String[] names = new String[values().length];
+
+        for (RecordFormat format : values()) {
+            names[format.ordinal()] = format.name;
+        }
+
+        parser.addArgument("-f", "--format")
+                .setDefault(DEFAULT.name)
+                .choices(names)
+                .help("output format (default '" + DEFAULT.name + "')");
+    }
+
+    /**
+     * Output format from parsed command line arguments
+     */
+    public static RecordFormat fromArguments(Namespace namespace) {
+        return forName(namespace.getString("format"));
+    }
+}
@@ -0,0 +1,332 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Index of a record file by key, for reading the records of a single origin without reading the whole file.
+ *
+ * Transformation writes each origin followed by all of its descendants, and the key of a descendant extends
+ * the key of its origin, so the index only holds the keys of origins, with the byte offset of each origin record.
+ * The records of a descendant are found through the longest prefix of its key which is the key of an origin.
+ *
+ * The index is stored next to the record file, with INDEX_EXTENSION added to its name. It starts with MAGIC,
+ * the format version, the size and modification time of the record file, its format, and for binary record
+ * files, the dictionary strings of the whole file. Then follow the number of origins, a table of the positions
+ * of their entries in order of key, and the entries, each a key, the offset of its record and for binary record
+ * files, the number of dictionary strings read before the record. Lookup is a binary search through the table,
+ * so only the entries it visits are read.
+ *
+ * Compressed files cannot be read from an offset, so they are not indexed.
+ */
+class RecordIndex implements Closeable {
+    static final String INDEX_EXTENSION = ".idx";
+    static final byte[] MAGIC = {(byte) 0x89, 'R', 'I', 'X'};
+    // incremented on incompatible changes
+    static final int VERSION = 1;
+
+    private static Logger log = Logger.getLogger("RecordIndex");
+
+    private final Path recordFile;
+    private final RandomAccessFile index;
+    private final RecordFormat format;
+    private final List<String> dictionary;
+    private final int size;
+    // position of the table of entry positions
+    private final long table;
+
+    public static void main(String[] args) {
+        ArgumentParser parser = ArgumentParsers.newArgumentParser("RecordIndex")
+                .description("Index record files by key, for looking up origins and their descendants");
+        parser.addArgument("records")
+                .metavar("RECORDS")
+                .nargs("+")
+                .help("uncompressed record files in JSON, JSON Lines or binary format");
+
+        Namespace namespace = null;
+        try {
+            namespace = parser.parseArgs(args);
+        } catch (ArgumentParserException e) {
+            parser.handleError(e);
+            System.exit(1);
+        }
+
+        for (String filename : namespace.<String>getList("records")) {
+            try {
+                build(Paths.get(filename));
+            } catch (IOException x) {
+                System.err.format("IOException: %s%n", x);
+                System.exit(1);
+            }
+        }
+    }
+
+    private RecordIndex(Path recordFile, RandomAccessFile index) throws IOException {
+        this.recordFile = recordFile;
+        this.index = index;
+        byte[] magic = new byte[MAGIC.length];
+        index.readFully(magic);
+
+        if (!Arrays.equals(magic, MAGIC) || index.readInt() != VERSION) {
+            throw new IOException("not an index of the current version: " + indexFile(recordFile));
+        }
+
+        if (index.readLong() != Files.size(recordFile)
+                || index.readLong() != Files.getLastModifiedTime(recordFile).toMillis()) {
+            throw new IOException("index is out of date with " + recordFile);
+        }
+
+        format = RecordFormat.forName(readString());
+        dictionary = new ArrayList<>();
+
+        for (int n = index.readInt(); n > 0; n--) {
+            dictionary.add(readString());
+        }
+
+        size = index.readInt();
+        table = index.getFilePointer();
+    }
+
+    static Path indexFile(Path recordFile) {
+        return recordFile.resolveSibling(recordFile.getFileName() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Open index of record file, building it if it is missing or out of date.
+     * Returns null if the file is compressed, and so cannot be indexed.
+     */
+    static RecordIndex open(Path recordFile) throws IOException {
+        if (Compression.of(recordFile) != Compression.NONE) {
+            return null;
+        }
+
+        Path indexFile = indexFile(recordFile);
+
+        if (Files.exists(indexFile)) {
+            RandomAccessFile index = new RandomAccessFile(indexFile.toFile(), "r");
+
+            try {
+                return new RecordIndex(recordFile, index);
+            } catch (IOException x) {
+                index.close();
+                log.info(x.getMessage());
+            }
+        }
+
+        build(recordFile);
+        return new RecordIndex(recordFile, new RandomAccessFile(indexFile.toFile(), "r"));
+    }
+
+    /**
+     * Build index of uncompressed record file
+     */
+    static void build(Path recordFile) throws IOException {
+        if (Compression.of(recordFile) != Compression.NONE) {
+            throw new IOException("cannot index compressed file " + recordFile);
+        }
+
+        Path indexFile = indexFile(recordFile);
+        log.info("indexing " + recordFile + " to " + indexFile);
+        List<Entry> entries = new ArrayList<>();
+        RecordFormat format;
+        List<String> dictionary = Collections.emptyList();
+        // size and modification time of the file as it was indexed
+        long fileSize = Files.size(recordFile);
+        long modified = Files.getLastModifiedTime(recordFile).toMillis();
+
+        try (RecordReader reader = RecordReader.open(recordFile)) {
+            format = reader.getFormat();
+            BinaryRecordReader binaryReader = (format == RecordFormat.BINARY) ? (BinaryRecordReader) reader : null;
+
+            while (true) {
+                long offset = reader.getOffset();
+                int dictionarySize = (binaryReader != null) ? binaryReader.getDictionary().size() : 0;
+                ObjectNode record = reader.next();
+
+                if (record == null) {
+                    break;
+                } else if (!record.has("origin") && record.has("key")) {
+                    entries.add(new Entry(record.get("key").asText(), offset, dictionarySize));
+                }
+            }
+
+            if (binaryReader != null) {
+                dictionary = binaryReader.getDictionary();
+            }
+        }
+
+        entries.sort(Comparator.comparing(entry -> entry.key));
+        // written to a temporary file, so an interrupted build leaves no partial index
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fileSize);
+            out.writeLong(modified);
+            writeString(out, format.getName());
+            out.writeInt(dictionary.size());
+
+            for (String s : dictionary) {
+                writeString(out, s);
+            }
+
+            out.writeInt(entries.size());
+            // entries follow the table
+            long position = out.size() + 8L * entries.size();
+
+            for (Entry entry : entries) {
+                out.writeLong(position);
+                position += 4 + entry.key.getBytes(StandardCharsets.UTF_8).length + 8 + 4;
+            }
+
+            for (Entry entry : entries) {
+                writeString(out, entry.key);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.dictionarySize);
+            }
+        }
+
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private String readString() throws IOException {
+        byte[] bytes = new byte[index.readInt()];
+        index.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Number of origins in the index
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Entry of origin with key, or null if there is none
+     */
+    private Entry find(String key) throws IOException {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            index.seek(table + 8L * middle);
+            index.seek(index.readLong());
+            int comparison = readString().compareTo(key);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return new Entry(key, index.readLong(), index.readInt());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Entry of the origin of the record with key, that is, of the longest prefix of key which is an origin key
+     */
+    private Entry findOrigin(String key) throws IOException {
+        for (int end = key.length(); end > 0; end = key.lastIndexOf(BinaryRecords.KEY_SEPARATOR, end - 1)) {
+            Entry entry = find(key.substring(0, end));
+
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records of the origin of the record with key and all its descendants, in the order of the file,
+     * or an empty list if there is no such record
+     */
+    List<ObjectNode> readFamily(String key) throws IOException {
+        Entry entry = findOrigin(key);
+
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+
+        try (FamilyReader families = new FamilyReader(RecordReader.open(recordFile, format, entry.offset,
+                dictionary.subList(0, entry.dictionarySize)))) {
+            List<ObjectNode> family = families.next();
+            return (family != null && containsKey(family, key)) ? family : Collections.emptyList();
+        }
+    }
+
+    /**
+     * Records of the origin of the record with key and all its descendants, reading the whole file if need be,
+     * e.g. if it is compressed and has no index. Only the records of one origin at a time are kept in memory.
+     */
+    static List<ObjectNode> scanFamily(Path recordFile, String key) throws IOException {
+        try (FamilyReader families = new FamilyReader(RecordReader.open(recordFile))) {
+            List<ObjectNode> family;
+
+            while ((family = families.next()) != null) {
+                if (containsKey(family, key)) {
+                    return family;
+                }
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static boolean containsKey(List<ObjectNode> family, String key) {
+        for (ObjectNode record : family) {
+            if (record.path("key").asText().equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+
+
+    private static class Entry {
+        final String key;
+        final long offset;
+        final int dictionarySize;
+
+        Entry(String key, long offset, int dictionarySize) {
+            this.key = key;
+            this.offset = offset;
+            this.dictionarySize = dictionarySize;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Reader of records from a file in any of the record formats.
+ *
+ * The format is detected from the start of the file: binary files start with a magic number,
+ * a JSON array holds all records, whereas in JSON Lines format records follow each other at the top level.
+ */
+abstract class RecordReader implements Closeable {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Open reader of records from file, detecting its format and compression
+     */
+    static RecordReader open(Path file) throws IOException {
+        InputStream in = Compression.newInputStream(file);
+
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+
+        try {
+            byte[] head = new byte[BinaryRecords.MAGIC.length];
+            in.mark(head.length);
+            int length = in.read(head);
+            in.reset();
+
+            if (BinaryRecords.hasMagic(head, length)) {
+                return new BinaryRecordReader(file, in);
+            }
+            return new JsonRecordReader(file, mapper.getFactory().createParser(in), null, 0);
+        } catch (IOException | RuntimeException x) {
+            in.close();
+            throw x;
+        }
+    }
+
+    /**
+     * Open reader of records from uncompressed file in format, starting at the record at offset.
+     * For binary files, dictionary holds the dictionary strings read before offset.
+     */
+    static RecordReader open(Path file, RecordFormat format, long offset, List<String> dictionary)
+            throws IOException {
+        FileChannel channel = FileChannel.open(file);
+        InputStream in = null;
+
+        try {
+            channel.position(offset);
+            in = new BufferedInputStream(Channels.newInputStream(channel));
+
+            switch (format) {
+                case BINARY:
+                    return new BinaryRecordReader(file, in, offset, dictionary);
+                case JSON:
+                    // the parser locates records at the comma before them, if any
+                    offset += skipSeparators(in);
+                    // continue the array of records as if from its start
+                    in = new SequenceInputStream(new ByteArrayInputStream(new byte[] {'['}), in);
+                    return new JsonRecordReader(file, mapper.getFactory().createParser(in), format, offset - 1);
+                default:
+                    return new JsonRecordReader(file, mapper.getFactory().createParser(in), format, offset);
+            }
+        } catch (IOException | RuntimeException x) {
+            if (in != null) {
+                in.close();
+            } else {
+                channel.close();
+            }
+            throw x;
+        }
+    }
+
+    /**
+     * Skip commas and whitespace before a record, returning the number of bytes skipped
+     */
+    private static int skipSeparators(InputStream in) throws IOException {
+        for (int skipped = 0; ; skipped++) {
+            in.mark(1);
+            int b = in.read();
+
+            if (b != ',' && b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                in.reset();
+                return skipped;
+            }
+        }
+    }
+
+    /**
+     * Check if path is a file of records, rather than a directory, index, or part file or journal of incomplete output
+     */
+    static boolean isRecordFile(Path path) {
+        String name = path.getFileName().toString();
+        return Files.isRegularFile(path)
+                && !name.endsWith(RecordIndex.INDEX_EXTENSION)
+                && !name.endsWith(CheckpointedOutput.PART_EXTENSION)
+                && !name.endsWith(CheckpointedOutput.JOURNAL_EXTENSION);
+    }
+
+    abstract RecordFormat getFormat();
+
+    /**
+     * Byte offset in the file of the next record, which is that of the uncompressed file if it is compressed
+     */
+    abstract long getOffset();
+
+    /**
+     * Read next record, or return null if there are no more records
+     */
+    abstract ObjectNode next() throws IOException;
+
+    /**
+     * Decode the subTree of each record into a tree as well, built with parser, if the format allows it
+     */
+    void setTreeParser(TreeParser parser) {
+    }
+
+    /**
+     * Tree of the subTree of the record read last, if it was decoded into a tree without parsing, or else null
+     */
+    Tree getTree() {
+        return null;
+    }
+
+    /**
+     * Records from a JSON array or in JSON Lines format
+     */
+    private static class JsonRecordReader extends RecordReader {
+        private final Path file;
+        private final JsonParser parser;
+        private final RecordFormat format;
+        // offset in the file of the start of the parsed input
+        private final long start;
+        private JsonToken token;
+
+        /**
+         * Reader of records parsed from the file starting at offset start, detecting the format if it is null
+         */
+        JsonRecordReader(Path file, JsonParser parser, RecordFormat format, long start) throws IOException {
+            this.file = file;
+            this.parser = parser;
+            this.start = start;
+            token = parser.nextToken();
+
+            if (token == JsonToken.START_ARRAY && format != RecordFormat.JSONL) {
+                this.format = RecordFormat.JSON;
+                token = parser.nextToken();
+            } else if (format != RecordFormat.JSON) {
+                this.format = RecordFormat.JSONL;
+            } else {
+                throw new IOException("expected an array of records in " + file);
+            }
+        }
+
+        @Override
+        RecordFormat getFormat() {
+            return format;
+        }
+
+        @Override
+        long getOffset() {
+            return start + parser.getTokenLocation().getByteOffset();
+        }
+
+        @Override
+        ObjectNode next() throws IOException {
+            if (token == null || token == JsonToken.END_ARRAY && format == RecordFormat.JSON) {
+                return null;
+            } else if (token != JsonToken.START_OBJECT) {
+                throw new IOException("expected a record in " + file + " at " + parser.getCurrentLocation());
+            }
+
+            // read everything from this START_OBJECT to the matching END_OBJECT
+            ObjectNode record = mapper.readTree(parser);
+            token = parser.nextToken();
+            return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            parser.close();
+        }
+    }
+}
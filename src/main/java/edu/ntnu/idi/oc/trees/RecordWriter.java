@@ -0,0 +1,149 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writer of records to a file in one of the record formats
+ */
+abstract class RecordWriter implements Closeable {
+    // flushing after each record would write each record separately to the file
+    private static final ObjectMapper indentMapper = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final ObjectMapper compactMapper = new ObjectMapper()
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    /**
+     * Open writer of records to file in given format, compressed if the extension of file says so
+     */
+    static RecordWriter open(Path file, RecordFormat format) throws IOException {
+        return open(Compression.newOutputStream(file), format);
+    }
+
+    /**
+     * Open writer of records to buffered stream in given format
+     */
+    static RecordWriter open(OutputStream out, RecordFormat format) throws IOException {
+        switch (format) {
+            case BINARY:
+                return new BinaryRecordWriter(out);
+            case JSONL:
+                return new JsonLinesWriter(newWriter(out));
+            default:
+                return new JsonArrayWriter(newWriter(out), false, 0);
+        }
+    }
+
+    /**
+     * Open writer of records to buffered stream, continuing a file in given format which holds a number of records,
+     * and for binary files, the dictionary strings read from it
+     */
+    static RecordWriter resume(OutputStream out, RecordFormat format, long records, List<String> dictionary)
+            throws IOException {
+        switch (format) {
+            case BINARY:
+                return new BinaryRecordWriter(out, dictionary);
+            case JSONL:
+                return new JsonLinesWriter(newWriter(out));
+            default:
+                return new JsonArrayWriter(newWriter(out), true, records);
+        }
+    }
+
+    private static Writer newWriter(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8.newEncoder()));
+    }
+
+    abstract void write(ObjectNode record) throws IOException;
+
+    /**
+     * Write records written so far to the underlying stream
+     */
+    abstract void flush() throws IOException;
+
+
+    /**
+     * Records as elements of a single JSON array.
+     * The array is written as Jackson writes it, but records are written at the top level,
+     * so writing can continue after any record of a file.
+     */
+    private static class JsonArrayWriter extends RecordWriter {
+        private final JsonGenerator generator;
+        private long records;
+
+        /**
+         * Writer of a new array, or if resumed, of further records of an array which holds a number of records
+         */
+        JsonArrayWriter(Writer writer, boolean resumed, long records) throws IOException {
+            this.records = records;
+            generator = indentMapper.getFactory().createGenerator(writer);
+            // records are separated as elements of an array
+            generator.setPrettyPrinter(new DefaultPrettyPrinter((String) null));
+
+            if (!resumed) {
+                generator.writeRaw('[');
+            }
+        }
+
+        @Override
+        void write(ObjectNode record) throws IOException {
+            generator.writeRaw(records++ == 0 ? " " : ", ");
+            indentMapper.writeValue(generator, record);
+        }
+
+        @Override
+        void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.writeRaw(" ]");
+            generator.close();
+        }
+    }
+
+
+    /**
+     * Records on separate lines, without indentation
+     */
+    private static class JsonLinesWriter extends RecordWriter {
+        private final JsonGenerator generator;
+
+        JsonLinesWriter(Writer writer) throws IOException {
+            generator = compactMapper.getFactory().createGenerator(writer);
+            // lines are separated by newlines only
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        void write(ObjectNode record) throws IOException {
+            compactMapper.writeValue(generator, record);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Snapshot of the operations in a file in named Tsurgeon format, stored in JSON format.
+ *
+ * A snapshot is named after a hash of the file content, so changing the file implies a new snapshot.
+ * Operations are validated by compiling them before they are written, and a snapshot stores their prerequisites,
+ * so loading a snapshot requires no parsing of patterns or actions until an operation is first used.
+ */
+class RuleSnapshot {
+    // incremented on incompatible changes
+    static final int FORMAT = 1;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final JsonFactory factory = new JsonFactory();
+
+    /**
+     * 64-bit FNV-1a hash of file content as hexadecimal string.
+     * Unlike MessageDigest, it needs no initialisation of security providers, which takes longer than loading rules.
+     */
+    static String hash(byte[] source) {
+        long hash = FNV_OFFSET_BASIS;
+
+        for (byte b : source) {
+            hash ^= (b & 0xff);
+            hash *= FNV_PRIME;
+        }
+        // avoid String.format, which is slow on first use
+        String hex = Long.toHexString(hash);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    static Path path(Path snapshotDir, String hash) {
+        return snapshotDir.resolve(hash + ".json");
+    }
+
+    /**
+     * Write snapshot of operations, replacing any existing snapshot atomically,
+     * so concurrent readers never see a partial snapshot
+     */
+    static void write(Path snapshot, String hash, List<TreeOperation> operations) throws IOException {
+        Path dir = snapshot.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, hash, ".tmp");
+
+        try {
+            try (JsonGenerator generator = factory.createGenerator(temp.toFile(), JsonEncoding.UTF8)) {
+                writeSnapshot(generator, hash, operations);
+            }
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeSnapshot(JsonGenerator generator, String hash, List<TreeOperation> operations)
+            throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("format", FORMAT);
+        generator.writeStringField("hash", hash);
+        generator.writeArrayFieldStart("operations");
+
+        for (TreeOperation operation : operations) {
+            if (operation.hasAction() && operation.actionString == null) {
+                throw new IllegalArgumentException("source of actions unknown for operation " + operation.name);
+            }
+
+            generator.writeStartObject();
+            generator.writeStringField("name", operation.name);
+            generator.writeStringField("pattern", operation.patternString);
+            generator.writeStringField("action", operation.actionString);
+            generator.writeArrayFieldStart("prerequisites");
+
+            for (List<String> alternatives : operation.prerequisites.asLists()) {
+                generator.writeStartArray();
+                for (String value : alternatives) {
+                    generator.writeString(value);
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    /**
+     * Read operations from snapshot, which must match the given hash
+     */
+    static List<TreeOperation> read(Path snapshot, String hash) throws IOException {
+        // streaming parser, because initialising an ObjectMapper takes longer than loading rules
+        try (JsonParser parser = factory.createParser(snapshot.toFile())) {
+            List<TreeOperation> operations = null;
+            boolean hashMatches = false;
+
+            expect(parser, JsonToken.START_OBJECT);
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                if (field.equals("format")) {
+                    if (parser.getIntValue() != FORMAT) {
+                        throw new IOException("unsupported snapshot format " + parser.getText());
+                    }
+                } else if (field.equals("hash")) {
+                    hashMatches = hash.equals(parser.getText());
+                } else if (field.equals("operations")) {
+                    operations = readOperations(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (!hashMatches) {
+                throw new IOException("snapshot hash differs from hash of rules");
+            }
+            if (operations == null) {
+                throw new IOException("snapshot lacks operations");
+            }
+            return operations;
+        }
+    }
+
+    private static List<TreeOperation> readOperations(JsonParser parser) throws IOException {
+        List<TreeOperation> operations = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String name = null;
+            String pattern = null;
+            String action = null;
+            List<List<String>> required = new ArrayList<>();
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if (field.equals("name")) {
+                    name = parser.getText();
+                } else if (field.equals("pattern")) {
+                    pattern = parser.getText();
+                } else if (field.equals("action")) {
+                    action = (token == JsonToken.VALUE_NULL) ? null : parser.getText();
+                } else if (field.equals("prerequisites")) {
+                    while (parser.nextToken() == JsonToken.START_ARRAY) {
+                        List<String> alternatives = new ArrayList<>();
+                        while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                            alternatives.add(parser.getText());
+                        }
+                        required.add(alternatives);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (name == null || pattern == null) {
+                throw new IOException("snapshot has operation without name or pattern");
+            }
+            operations.add(new TreeOperation(name, pattern, action, Prerequisites.ofLists(required)));
+        }
+        return operations;
+    }
+
+    private static void expect(JsonParser parser, JsonToken expected) throws IOException {
+        if (parser.nextToken() != expected) {
+            throw new IOException("invalid snapshot: expected " + expected + " at " + parser.getCurrentLocation());
+        }
+    }
+}
@@ -1,37 +1,62 @@
 package edu.ntnu.idi.oc.trees;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 
 import edu.stanford.nlp.util.StringUtils;
 
-import java.io.BufferedReader;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 /**
- * Trace transformation history
+ * Trace transformation history.
+ *
+ * Transformation writes each origin followed by all of its descendants, so traces are written in a single pass
+ * through the records, holding only the records of one origin at a time. Traces of chosen keys are read through
+ * the index of the record file, see RecordIndex, so only the records of their origins are read.
  */
 public class Trace {
-    private List<ObjectNode> origins;
-    private Map<String,ObjectNode> descendants;
     private final int INDENT = 4;
     private final String TRANS_TEMPLATE = "%s=== %s ===>";
+    private final static String TRACE_EXTENSION = ".trace";
+    private final static int DEFAULT_THREADS = 1;
+    private final static int BUFFER_SIZE = 1 << 20;
+
+    // origins with any of these labels, or all if empty
+    private final Set<String> labels = new HashSet<>();
+    // origins with a descendant by any of these transformations, or all if empty
+    private final Set<String> transformNames = new HashSet<>();
+    private int threads = DEFAULT_THREADS;
+
+    private static Logger log = Logger.getLogger("Trace");
 
     public static void main(String[] args) {
 
@@ -39,7 +64,31 @@ public class Trace {
                 .description("Trace transformation history");
         parser.addArgument("records")
                 .metavar("RECORDS")
-                .help("results of transformation in JSON format");
+                .help("file or directory with results of transformation in JSON, JSON Lines or binary format");
+        parser.addArgument("-o", "--output")
+                .metavar("DIR")
+                .help("directory for writing a trace of each file, instead of writing to standard output");
+        parser.addArgument("-k", "--key")
+                .action(Arguments.append())
+                .metavar("KEY")
+                .help("trace only the record with KEY, which may be repeated");
+        parser.addArgument("--keys")
+                .metavar("FILE")
+                .help("trace only the records with the keys in FILE, one per line");
+        parser.addArgument("-l", "--label")
+                .action(Arguments.append())
+                .metavar("LABEL")
+                .help("trace only origins with LABEL, which may be repeated");
+        parser.addArgument("-n", "--transform-name")
+                .action(Arguments.append())
+                .metavar("NAME")
+                .help("trace only origins with a descendant by the transformation NAME, which may be repeated");
+        parser.addArgument("-j", "--threads")
+                .setDefault(DEFAULT_THREADS)
+                .metavar("N")
+                .type(Integer.class)
+                .help(String.format("number of files traced in parallel when writing to a directory (default %d)",
+                        DEFAULT_THREADS));
 
         Namespace namespace = null;
         try {
@@ -49,66 +98,264 @@ public class Trace {
             System.exit(1);
         }
 
+        Trace trace = new Trace();
+        trace.setThreads(namespace.getInt("threads"));
+
+        if (namespace.getList("label") != null) {
+            trace.addLabels(namespace.<String>getList("label"));
+        }
+
+        if (namespace.getList("transform_name") != null) {
+            trace.addTransformNames(namespace.<String>getList("transform_name"));
+        }
+
         Path recordsPath = Paths.get(namespace.getString("records"));
-        new Trace(recordsPath);
+        List<String> keys = new ArrayList<>();
+
+        if (namespace.getList("key") != null) {
+            keys.addAll(namespace.<String>getList("key"));
+        }
+
+        try {
+            if (namespace.getString("keys") != null) {
+                keys.addAll(Files.readAllLines(Paths.get(namespace.getString("keys"))));
+            }
+
+            if (!keys.isEmpty()) {
+                try (Writer out = newStandardOutputWriter()) {
+                    trace.traceKeys(recordsPath, keys, out);
+                }
+            } else if (namespace.getString("output") != null) {
+                trace.apply(recordsPath, Paths.get(namespace.getString("output")));
+            } else {
+                try (Writer out = newStandardOutputWriter()) {
+                    trace.apply(recordsPath, out);
+                }
+            }
+        } catch (IOException x) {
+            System.err.format("IOException: %s%n", x);
+            System.exit(1);
+        }
     }
 
-    public Trace(Path recordsFilename) {
-        readRecords(recordsFilename);
-        writeTrace();
+    private static Writer newStandardOutputWriter() {
+        return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE);
     }
 
-    public void writeTrace() {
-        for (ObjectNode orgNode: origins) {
-            System.out.println("key = " + orgNode.get("key").asText());
-            traceNode(orgNode, 0);
-            System.out.println();
+    /**
+     * Trace only origins with any of labels
+     */
+    public void addLabels(Collection<String> labels) {
+        this.labels.addAll(labels);
+    }
+
+    /**
+     * Trace only origins with a descendant by any of the transformations with names
+     */
+    public void addTransformNames(Collection<String> names) {
+        transformNames.addAll(names);
+    }
+
+    /**
+     * Set number of files traced in parallel when writing to a directory
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("number of threads must be positive: " + threads);
         }
+        this.threads = threads;
     }
 
-    public void traceNode(ObjectNode ancestorNode, int depth) {
-        System.out.print(StringUtils.repeat(' ', depth * INDENT));
-        System.out.println(ancestorNode.get("subStr").asText());
-        String transIndent = StringUtils.repeat(' ', (depth + 1) * INDENT/2);
+    /**
+     * Write traces of the record files in recordsPath, which is a file or directory, one file after another
+     */
+    public void apply(Path recordsPath, Writer out) throws IOException {
+        for (Path recordFile : recordFiles(recordsPath)) {
+            traceFile(recordFile, out);
+        }
+    }
 
-        for (JsonNode jsonNode: ancestorNode.path("descendants")) {
-            String key = jsonNode.asText();
-            ObjectNode descendantNode = descendants.get(key);
-            String transformName = descendantNode.get("transformName").asText();
-            System.out.println(String.format(TRANS_TEMPLATE, transIndent, transformName));
-            traceNode(descendantNode, depth + 1);
+    /**
+     * Write trace of each record file in recordsPath, which is a file or directory, to a file in traceDir,
+     * tracing files in parallel
+     */
+    public void apply(Path recordsPath, Path traceDir) throws IOException {
+        FileUtils.forceMkdir(traceDir.toFile());
+        List<Path> recordFiles = recordFiles(recordsPath);
+        List<Path> failed = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, recordFiles.size() + 1));
+
+        for (Path recordFile : recordFiles) {
+            executor.execute(() -> {
+                // failure on one file should not stop tracing of other files
+                try {
+                    traceFile(recordFile, traceDir);
+                } catch (IOException | RuntimeException x) {
+                    log.severe(String.format("tracing %s failed: %s", recordFile, x));
+                    failed.add(recordFile);
+                }
+            });
+        }
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        if (!failed.isEmpty()) {
+            log.warning(String.format("tracing failed for %d of %d files: %s",
+                    failed.size(), recordFiles.size(), failed));
+        }
+    }
+
+    private static List<Path> recordFiles(Path recordsPath) throws IOException {
+        return Files.walk(recordsPath)
+                .filter(RecordReader::isRecordFile)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private void traceFile(Path recordFile, Path traceDir) throws IOException {
+        Path traceFile = Paths.get(FilenameUtils.concat(
+                traceDir.toString(),
+                FilenameUtils.getBaseName(Compression.stripExtension(recordFile.toString())) + TRACE_EXTENSION));
+        log.info("writing trace of " + recordFile + " to " + traceFile);
+
+        try (Writer out = Files.newBufferedWriter(traceFile, StandardCharsets.UTF_8)) {
+            traceFile(recordFile, out);
         }
     }
 
-    public void readRecords(Path recordsPath) {
-        origins = new ArrayList<>(1000);
-        descendants = new HashMap<>();
+    /**
+     * Write trace of every origin with descendants in record file, passing the filters
+     */
+    public void traceFile(Path recordFile, Writer out) throws IOException {
+        try (FamilyReader reader = new FamilyReader(RecordReader.open(recordFile))) {
+            List<ObjectNode> records;
 
-        try (BufferedReader reader = Files.newBufferedReader(recordsPath)) {
-            ObjectMapper mapper = new ObjectMapper();
-            JsonFactory factory = mapper.getFactory();
-            JsonParser parser = factory.createParser(reader);
-            ObjectNode node;
+            while ((records = reader.next()) != null) {
+                ObjectNode origin = records.get(0);
 
-            if(parser.nextToken() != JsonToken.START_ARRAY) {
-                throw new IllegalStateException("Expected an array at start of Json file " + recordsPath);
+                if (origin.has("descendants") && !origin.has("origin") && accepts(records)) {
+                    new Family(records).trace(origin, out);
+                }
             }
+        }
+    }
+
+    private boolean accepts(List<ObjectNode> records) {
+        if (!labels.isEmpty() && !labels.contains(records.get(0).path("label").asText())) {
+            return false;
+        }
 
-            while(parser.nextToken() == JsonToken.START_OBJECT) {
-                node = mapper.readTree(parser);
-                if (node.has("origin")) {
-                    // an node derived from an original node
-                    descendants.put(node.get("key").asText(), node);
-                } else if (node.has("descendants")) {
-                    // an original node with descendants
-                    origins.add(node);
+        if (transformNames.isEmpty()) {
+            return true;
+        }
+
+        for (ObjectNode record : records) {
+            if (transformNames.contains(record.path("transformName").asText())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write traces of the records with keys in a record file or directory, reading only the records of their origins
+     */
+    public void traceKeys(Path recordsPath, List<String> keys, Writer out) throws IOException {
+        List<Path> recordFiles = recordFiles(recordsPath);
+        Map<Path,RecordIndex> indexes = new HashMap<>();
+
+        try {
+            for (String key : keys) {
+                if (key.trim().isEmpty()) {
+                    continue;
+                }
+
+                ObjectNode node = null;
+
+                for (Path recordFile : recordFiles) {
+                    Family family = new Family(readFamily(recordFile, key, indexes));
+                    node = family.getNode(key);
+
+                    if (node != null) {
+                        family.trace(node, out);
+                        break;
+                    }
+                }
+
+                if (node == null) {
+                    log.warning("no record with key " + key);
+                }
+            }
+        } finally {
+            for (RecordIndex index : indexes.values()) {
+                if (index != null) {
+                    index.close();
                 }
             }
-            parser.close();
+        }
+    }
 
-        } catch (IOException x) {
-            System.err.format("IOException: %s%n", x);
-            System.exit(1);
+    private static List<ObjectNode> readFamily(Path recordFile, String key, Map<Path,RecordIndex> indexes)
+            throws IOException {
+        // compressed files, and files whose index cannot be written, are read until the origin is found
+        if (!indexes.containsKey(recordFile)) {
+            RecordIndex index = null;
+
+            try {
+                index = RecordIndex.open(recordFile);
+            } catch (IOException x) {
+                log.warning("cannot index " + recordFile + ": " + x.getMessage());
+            }
+            indexes.put(recordFile, index);
+        }
+
+        RecordIndex index = indexes.get(recordFile);
+        return (index != null) ? index.readFamily(key) : RecordIndex.scanFamily(recordFile, key);
+    }
+
+
+    /**
+     * Records of an origin and its descendants by key
+     */
+    private class Family {
+        private final Map<String,ObjectNode> nodes = new HashMap<>();
+
+        Family(List<ObjectNode> records) {
+            for (ObjectNode record : records) {
+                nodes.put(record.get("key").asText(), record);
+            }
+        }
+
+        ObjectNode getNode(String key) {
+            return nodes.get(key);
+        }
+
+        void trace(ObjectNode node, Writer out) throws IOException {
+            out.write("key = " + node.get("key").asText() + "\n");
+            traceNode(node, 0, out);
+            out.write("\n");
+        }
+
+        private void traceNode(ObjectNode ancestorNode, int depth, Writer out) throws IOException {
+            out.write(StringUtils.repeat(' ', depth * INDENT));
+            out.write(ancestorNode.get("subStr").asText() + "\n");
+            String transIndent = StringUtils.repeat(' ', (depth + 1) * INDENT/2);
+            // descendants of a linked node are those of the node it links to
+            ObjectNode expandedNode = ancestorNode.has("link")
+                    ? getNode(ancestorNode.get("link").asText()) : ancestorNode;
+
+            for (JsonNode jsonNode: expandedNode.path("descendants")) {
+                ObjectNode descendantNode = getNode(jsonNode.asText());
+                String transformName = descendantNode.get("transformName").asText();
+                out.write(String.format(TRANS_TEMPLATE, transIndent, transformName) + "\n");
+                traceNode(descendantNode, depth + 1, out);
+            }
         }
     }
 }
@@ -13,4 +13,14 @@ public class Transform {
         this.operationName = operationName;
         this.subTree = subTree;
     }
+
+    /**
+     * Check if subtree is well-formed, which it is not if, e.g., deletion of all children of the root
+     * leaves a bare label like "NP".
+     * For trees without empty elements (-NONE-), as produced by the parser, this is equivalent to
+     * checking that Tree.valueOf can read the string representation of the subtree, without the round trip.
+     */
+    public boolean isWellFormed() {
+        return subTree != null && !subTree.isLeaf();
+    }
 }
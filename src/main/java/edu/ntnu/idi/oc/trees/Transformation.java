@@ -5,14 +5,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import net.sourceforge.argparse4j.ArgumentParsers;
@@ -32,13 +29,26 @@ import org.apache.commons.io.FilenameUtils;
  * Transformation subtrees with Tsurgeon operations
  */
 public class Transformation {
-    ObjectMapper mapper = new ObjectMapper();
-    private JsonGenerator generator;
-    private JsonFactory factory;
     private final List<TreeTransformer> transformers;
+    // parsers are not thread-safe, and records may be transformed by multiple threads
+    private final ThreadLocal<TreeParser> parsers = ThreadLocal.withInitial(TreeParser::new);
+    private RecordFormat format = RecordFormat.DEFAULT;
+    private Compression compression = Compression.DEFAULT;
+    private long checkpointInterval = CheckpointedOutput.DEFAULT_CHECKPOINT_INTERVAL;
+    private long progressInterval = Progress.DEFAULT_PROGRESS_INTERVAL;
+    // origins and files done, for progress lines
+    private final LongAdder origins = new LongAdder();
+    private final LongAdder files = new LongAdder();
+    private boolean dag = DEFAULT_DAG;
+    // limits per origin, where 0 means no limit
+    private int maxDepth = 0;
+    private int maxDescendants = 0;
+    private long timeBudget = 0;
+    private volatile OperationBudget budget;
     private final static int DEFAULT_MAX_TREE_SIZE = 100;
     private final static boolean DEFAULT_RESUME = false;
     private final static String DEFAULT_TAG = "#trans";
+    private final static boolean DEFAULT_DAG = false;
 
     private static Logger log = Logger.getLogger("Transformation");
 
@@ -48,10 +58,10 @@ public class Transformation {
                 .description("Transform variables");
         parser.addArgument("varsPath")
                 .metavar("IN")
-                .help("file or directory containing extracted variables in JSON format");
+                .help("file or directory containing extracted variables in JSON, JSON Lines or binary format");
         parser.addArgument("transDir")
                 .metavar("OUT")
-                .help("directory for writing extracted variables JSON format");
+                .help("directory for writing transformed variables in JSON, JSON Lines or binary format");
         parser.addArgument("transforms")
                 .nargs("+")
                 .metavar("TRANS")
@@ -72,6 +82,17 @@ public class Transformation {
         parser.addArgument("-t", "--tag")
                 .setDefault(DEFAULT_TAG)
                 .help("filename tag (default '" + DEFAULT_TAG + "')" );
+        parser.addArgument("-d", "--dag")
+                .setDefault(DEFAULT_DAG)
+                .action(Arguments.storeTrue())
+                .help("link descendants with a tree reached before instead of transforming it again");
+        addLimitArguments(parser);
+        RecordFormat.addFormatArgument(parser);
+        Compression.addCompressionArgument(parser);
+        CheckpointedOutput.addCheckpointArgument(parser);
+        Progress.addProgressArgument(parser);
+        OperationMetrics.addMetricsArgument(parser);
+        OperationBudget.addBudgetArguments(parser);
 
         Namespace namespace = null;
         try {
@@ -82,11 +103,23 @@ public class Transformation {
         }
 
         Transformation transformation = new Transformation();
+        transformation.setDag(namespace.getBoolean("dag"));
+        transformation.setLimits(namespace);
+        transformation.setFormat(RecordFormat.fromArguments(namespace));
+        transformation.setCompression(Compression.fromArguments(namespace));
+        transformation.setCheckpointInterval(CheckpointedOutput.checkpointIntervalFrom(namespace));
+        transformation.setProgressInterval(Progress.progressIntervalFrom(namespace));
+        OperationMetrics.fromArguments(namespace);
+        OperationBudget budget = OperationBudget.fromArguments(namespace);
 
         for (String trans : namespace.<String>getList("transforms")) {
             transformation.addTransformer(Paths.get(trans));
         }
 
+        if (budget != null) {
+            transformation.setBudget(budget);
+        }
+
         Path varsPath = Paths.get(namespace.getString("varsPath"));
         Path transDir = Paths.get(namespace.getString("transDir"));
         Boolean unique = namespace.getBoolean("unique");
@@ -95,13 +128,20 @@ public class Transformation {
         String tag = namespace.getString("tag");
 
         transformation.apply(varsPath, transDir, unique, maxTreeSize, resume, tag);
+        InternPool.logShared();
+
+        if (budget != null) {
+            try {
+                budget.close();
+            } catch (IOException x) {
+                System.err.format("IOException: %s%n", x);
+            }
+        }
     }
 
 
     public Transformation(List<TreeTransformer> transformers) {
         this.transformers = transformers;
-        mapper.enable(SerializationFeature.INDENT_OUTPUT);
-        factory = mapper.getFactory();
     }
 
     public Transformation() {
@@ -109,11 +149,133 @@ public class Transformation {
     }
 
     public void addTransformer(Path filename) {
-        transformers.add(new TreeTransformer(filename));
+        addTransformer(new TreeTransformer(filename));
     }
 
     public void addTransformer(InputStream stream) throws IOException {
-        transformers.add(new TreeTransformer(stream));
+        addTransformer(new TreeTransformer(stream));
+    }
+
+    private void addTransformer(TreeTransformer transformer) {
+        transformer.setBudget(budget);
+        transformers.add(transformer);
+    }
+
+    /**
+     * Set whether descendants with a tree reached before in the same origin are linked,
+     * by a "link" field holding the key of the earlier node, instead of being transformed again
+     */
+    public void setDag(boolean dag) {
+        this.dag = dag;
+    }
+
+    /**
+     * Set format of output files, whereas the format of input files is detected
+     */
+    public void setFormat(RecordFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Set compression of output files, whereas compression of input files is detected
+     */
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Set seconds between checkpoints of output files, from which an interrupted file is resumed
+     */
+    public void setCheckpointInterval(long seconds) {
+        checkpointInterval = seconds;
+    }
+
+    /**
+     * Set seconds between progress lines, or 0 for none
+     */
+    public void setProgressInterval(long seconds) {
+        progressInterval = seconds;
+    }
+
+    /**
+     * Number of origins transformed so far, including those of extracts transformed in memory
+     */
+    long getOrigins() {
+        return origins.sum();
+    }
+
+    /**
+     * Set maximum number of transformations from origin to descendant, or 0 for no limit
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maximum depth must not be negative: " + maxDepth);
+        }
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Set maximum number of descendants per origin, or 0 for no limit
+     */
+    public void setMaxDescendants(int maxDescendants) {
+        if (maxDescendants < 0) {
+            throw new IllegalArgumentException("maximum number of descendants must not be negative: " + maxDescendants);
+        }
+        this.maxDescendants = maxDescendants;
+    }
+
+    /**
+     * Set wall-clock time in milliseconds for transforming each origin, or 0 for no limit
+     */
+    public void setTimeBudget(long timeBudget) {
+        if (timeBudget < 0) {
+            throw new IllegalArgumentException("time budget must not be negative: " + timeBudget);
+        }
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * Bound each evaluation of an operation on a tree by budget, or by nothing if null.
+     * Applies to files and trees read from then on, because only trees parsed with a budget are bounded.
+     */
+    public void setBudget(OperationBudget budget) {
+        this.budget = budget;
+
+        for (TreeOperator transformer : transformers) {
+            transformer.setBudget(budget);
+        }
+    }
+
+    /**
+     * Add command line arguments for limits per origin, for use with setLimits
+     */
+    public static void addLimitArguments(ArgumentParser parser) {
+        parser.addArgument("--max-depth")
+                .setDefault(0)
+                .metavar("N")
+                .type(Integer.class)
+                .help("at most N transformations from origin to descendant (default 0, no limit)");
+        parser.addArgument("--max-descendants")
+                .setDefault(0)
+                .metavar("N")
+                .type(Integer.class)
+                .help("at most N descendants per origin (default 0, no limit)");
+        parser.addArgument("--time-budget")
+                .setDefault(0L)
+                .metavar("MS")
+                .type(Long.class)
+                .help("at most MS milliseconds for transforming each origin (default 0, no limit)");
+    }
+
+    /**
+     * Set limits per origin from parsed command line arguments.
+     * If any limit is set, descendants are produced breadth-first,
+     * and origins with descendants left out get a "truncated" field.
+     */
+    public void setLimits(Namespace namespace) {
+        setMaxDepth(namespace.getInt("max_depth"));
+        setMaxDescendants(namespace.getInt("max_descendants"));
+        setTimeBudget(namespace.getLong("time_budget"));
     }
 
     public void
@@ -132,15 +294,51 @@ public class Transformation {
           String tag) {
         try {
             FileUtils.forceMkdir(transDir.toFile());
-
-            Files.walk(varsPath)
-                    .filter(Files::isRegularFile)
-                    .forEach(p -> transformFile(p, transDir, unique, maxTreeSize, resume, tag));
+            List<Path> varFiles = Files.walk(varsPath)
+                    .filter(RecordReader::isRecordFile)
+                    .collect(Collectors.toList());
+
+            Progress progress = new Progress(progressInterval)
+                    .addStage("files", files::sum, varFiles.size())
+                    .addStage("transform", "origins", origins::sum);
+
+            try {
+                for (Path varFile : varFiles) {
+                    transformFile(varFile, transDir, unique, maxTreeSize, resume, tag);
+                    files.increment();
+                }
+            } finally {
+                progress.close();
+            }
+            if (budget != null) {
+                log.info("operation budget: " + budget);
+            }
         } catch (IOException x) {
             System.err.format("IOException: %s%n", x);
         }
     }
 
+    /**
+     * Skip up to records records of reader
+     */
+    private static void skip(RecordReader reader, long records) throws IOException {
+        long skipped = 0;
+
+        while (skipped < records && reader.next() != null) {
+            // only the count of records read matters
+            skipped++;
+        }
+    }
+
+    /**
+     * Parser of this thread, making trees of budgeted nodes if there is a budget now
+     */
+    private TreeParser parser() {
+        TreeParser parser = parsers.get();
+        parser.setBudgeted(budget != null);
+        return parser;
+    }
+
     public void
     transformFile(Path varFile,
                   Path transDir,
@@ -151,122 +349,283 @@ public class Transformation {
         // construct output filename
         Path transFile = Paths.get(FilenameUtils.concat(
                 transDir.toString(),
-                FilenameUtils.getBaseName(varFile.toString()) + tag + ".json"));
+                FilenameUtils.getBaseName(Compression.stripExtension(varFile.toString()))
+                        + tag + format.getExtension() + compression.getExtension()));
 
         if (resume && Files.exists(transFile)) {
             log.info("skipping existing output file " + transFile);
             return;
         }
 
-        log.info("reading variables from " + varFile);
-        log.info("writing transformed variables to " + transFile);
+        // progress is logged for all files together
+        log.fine("reading variables from " + varFile);
+        log.fine("writing transformed variables to " + transFile);
 
         try (
-                BufferedReader reader = Files.newBufferedReader(varFile);
-                BufferedWriter writer = Files.newBufferedWriter(transFile)
+                RecordReader reader = RecordReader.open(varFile);
+                CheckpointedOutput output = new CheckpointedOutput(transFile, format, checkpointInterval, resume)
         ) {
-            JsonParser parser = factory.createParser(reader);
-            JsonGenerator generator = factory.createGenerator(writer);
             ObjectNode ancestorNode;
             List<ObjectNode> descendants = new ArrayList<>(500);
             Set<String> seen = unique ? new HashSet<>(500) : null;
+            long records = output.getResumed().input;
 
-            if (parser.nextToken() != JsonToken.START_ARRAY) {
-                throw new IllegalStateException("Expected an array at start of Json file " + varFile);
-            }
-
-            generator.writeStartArray();
+            // skip records transformed before the checkpoint, whose trees are not needed
+            skip(reader, records);
+            // binary records give their trees without parsing
+            reader.setTreeParser(parser());
 
-            while (parser.nextToken() == JsonToken.START_OBJECT) {
-                // read everything from this START_OBJECT to the matching END_OBJECT
-                // and return it as a tree model ObjectNode
-                ancestorNode = mapper.readTree(parser);
-                descendants.clear();
-                if (seen != null) seen.clear();
+            while ((ancestorNode = reader.next()) != null) {
                 //log.info("Transforming original node with key " + ancestorNode.get("key").asText());
-                transformTree(ancestorNode, descendants, seen, maxTreeSize);
-                // postponed writing of ancestor, because all its descendants need to be added
-                mapper.writeValue(generator, ancestorNode);
-
-                for (ObjectNode descendantNode : descendants) {
-                    mapper.writeValue(generator, descendantNode);
-                }
+                transformRecord(ancestorNode, reader.getTree(), descendants, seen, maxTreeSize, output);
+                output.checkpoint(++records, ancestorNode.path("treeNumber").asInt());
             }
-
-            generator.writeEndArray();
-            parser.close();
-            generator.close();
-
+            output.commit();
         } catch (IOException x) {
             System.err.format("IOException: %s%n", x);
             System.exit(1);
         }
     }
 
+    /**
+     * Transform record, where tree is the tree of its subTree or null if it is to be parsed,
+     * and write it followed by its descendants, using descendants and seen as scratch space
+     */
+    void
+    transformRecord(ObjectNode ancestorNode,
+                    Tree tree,
+                    List<ObjectNode> descendants,
+                    Set<String> seen,
+                    int maxTreeSize,
+                    CheckpointedOutput output)
+            throws IOException {
+        descendants.clear();
+        if (seen != null) seen.clear();
+        transformTree(ancestorNode, tree, descendants, seen, maxTreeSize);
+        origins.increment();
+        // postponed writing of ancestor, because all its descendants need to be added
+        output.write(ancestorNode);
+
+        for (ObjectNode descendantNode : descendants) {
+            output.write(descendantNode);
+        }
+    }
+
     public void
     transformTree(ObjectNode ancestorNode,
                   List<ObjectNode> descendants,
                   Set<String> seen,
                   int maxTreeSize)
             throws IOException {
-        Tree tree = Tree.valueOf(ancestorNode.get("subTree").asText());
+        transformTree(ancestorNode, null, descendants, seen, maxTreeSize);
+    }
 
-        /*
-        if (tree == null) {
-            // transformation resulted in ill-formed tree, e.g. "NP"
-            log.warning("skipping ill-formed tree: " + ancestorNode);
-            return;
+    /**
+     * Transform the tree of ancestorNode, which is given as tree, so it need not be parsed from its subTree,
+     * or null
+     */
+    public void
+    transformTree(ObjectNode ancestorNode,
+                  Tree tree,
+                  List<ObjectNode> descendants,
+                  Set<String> seen,
+                  int maxTreeSize)
+            throws IOException {
+        /* Descendants are expanded from a worklist. Without limits, the worklist is used as a stack,
+           giving the depth-first order of a recursive expansion. With limits, it is used as a queue,
+           so the least transformed descendants are produced first and kept when the expansion is truncated. */
+
+        Expansion expansion = new Expansion(ancestorNode, maxTreeSize);
+
+        if (tree != null) {
+            expansion.memo.put(ancestorNode.get("subTree").asText(), transformTree(tree, maxTreeSize));
         }
-        */
+        boolean truncated = expansion.expand(ancestorNode, 0);
 
-        if (tree.size() > maxTreeSize) {
-            log.warning(String.format("skipping tree because its size (%d nodes) exceeds max tree size (%d nodes)",
-                    tree.size(), maxTreeSize));
-            return;
+        while (!expansion.worklist.isEmpty()) {
+            if (timeBudget > 0 && System.nanoTime() > expansion.deadline) {
+                truncated = true;
+                break;
+            }
+
+            WorkItem item = expansion.worklist.removeFirst();
+            StringTransform transform = item.transform;
+
+            if (seen != null) {
+                if (seen.contains(transform.subStr)) {
+                    continue;
+                } else {
+                    seen.add(transform.subStr);
+                }
+            }
+
+            if (maxDescendants > 0 && expansion.count >= maxDescendants) {
+                truncated = true;
+                break;
+            }
+
+            ObjectNode descendantNode = item.ancestor.deepCopy().remove(Collections.singletonList("descendants"));
+            String key = item.ancestor.get("key").asText() + ":" + transform.operationName;
+            item.ancestor.withArray("descendants").add(key);
+
+            descendantNode.put("key", key);
+            descendantNode.put("origin", expansion.origin);
+            descendantNode.put("ancestor", item.ancestor.get("key").asText());
+            descendantNode.put("transformName", transform.operationName);
+            descendantNode.put("subTree", transform.subTree);
+            descendantNode.put("subStr", transform.subStr);
+
+            descendants.add(descendantNode);
+            expansion.count++;
+
+            if (expansion.expanded != null && expansion.expanded.containsKey(transform.subTree)) {
+                // same tree reached along another sequence of transformations
+                descendantNode.put("link", expansion.expanded.get(transform.subTree));
+            } else {
+                truncated |= expansion.expand(descendantNode, item.depth);
+            }
+        }
+
+        if (truncated) {
+            ancestorNode.put("truncated", true);
+        }
+    }
+
+    /**
+     * State of expanding the descendants of a single origin
+     */
+    private class Expansion {
+        final String origin;
+        final int maxTreeSize;
+        final boolean bounded = maxDepth > 0 || maxDescendants > 0 || timeBudget > 0;
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+        final Deque<WorkItem> worklist = new ArrayDeque<>();
+        // transforms of each distinct tree, computed only once
+        final Map<String, TreeTransforms> memo = new HashMap<>();
+        // key of the node where each tree was expanded, if linking
+        final Map<String, String> expanded = dag ? new HashMap<>() : null;
+        int count = 0;
+
+        Expansion(ObjectNode originNode, int maxTreeSize) {
+            this.origin = originNode.has("origin") ? originNode.get("origin").asText() : originNode.get("key").asText();
+            this.maxTreeSize = maxTreeSize;
+        }
+
+        /**
+         * Add transforms of the tree of node at depth to worklist.
+         * Returns true if transforms were left out because of the depth limit.
+         */
+        boolean expand(ObjectNode node, int depth) {
+            String subTree = node.get("subTree").asText();
+            TreeTransforms treeTransforms = memo.get(subTree);
+
+            if (treeTransforms == null) {
+                treeTransforms = transformTree(parser().parse(subTree), maxTreeSize);
+                memo.put(subTree, treeTransforms);
+            }
+
+            if (treeTransforms.size > maxTreeSize) {
+                log.warning(String.format("skipping tree because its size (%d nodes) exceeds max tree size (%d nodes)",
+                        treeTransforms.size, maxTreeSize));
+                return false;
+            }
+
+            if (expanded != null) {
+                expanded.putIfAbsent(subTree, node.get("key").asText());
+            }
+
+            List<StringTransform> transforms = treeTransforms.transforms;
+
+            if (transforms.isEmpty()) {
+                return false;
+            } else if (maxDepth > 0 && depth >= maxDepth) {
+                return true;
+            }
+
+            if (bounded) {
+                for (StringTransform transform : transforms) {
+                    worklist.addLast(new WorkItem(node, transform, depth + 1));
+                }
+            } else {
+                for (int i = transforms.size() - 1; i >= 0; i--) {
+                    worklist.addFirst(new WorkItem(node, transforms.get(i), depth + 1));
+                }
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     * Pending transform of the tree of an ancestor node
+     */
+    private static class WorkItem {
+        final ObjectNode ancestor;
+        final StringTransform transform;
+        final int depth;
+
+        WorkItem(ObjectNode ancestor, StringTransform transform, int depth) {
+            this.ancestor = ancestor;
+            this.transform = transform;
+            this.depth = depth;
         }
+    }
 
-        ObjectNode descendantNode;
-        String key, origin, subStr;
 
-        if (ancestorNode.has("origin")) {
-            origin = ancestorNode.get("origin").asText();
-        } else {
-            origin = ancestorNode.get("key").asText();
+    /**
+     * Apply all transformers to tree, unless tree exceeds maximum size
+     */
+    private TreeTransforms
+    transformTree(Tree tree, int maxTreeSize) {
+        TreeTransforms treeTransforms = new TreeTransforms(tree.size());
+
+        if (tree.size() > maxTreeSize) {
+            return treeTransforms;
         }
 
         for (TreeTransformer transformer : transformers) {
             for (Transform transform : transformer.transformTree(tree)) {
-                subStr = PTBTokenizer.ptb2Text(Sentence.listToString(transform.subTree.yield()));
-
-                // TODO: quick hack, needs to be resolved properly
-                if (Tree.valueOf(transform.subTree.toString()) == null) {
+                if (!transform.isWellFormed()) {
                     // transformation resulted in ill-formed tree, e.g. "NP"
-                    log.warning("skipping ill-formed tree: " + transform.subTree.toString());
+                    log.warning("skipping ill-formed tree: " + transform.subTree);
                     continue;
                 }
 
-                if (seen != null) {
-                    if (seen.contains(subStr)) {
-                        continue;
-                    } else {
-                        seen.add(subStr);
-                    }
-                }
+                // serialize each transform only once
+                String subTree = transform.subTree.toString();
+                String subStr = PTBTokenizer.ptb2Text(Sentence.listToString(transform.subTree.yield()));
+                treeTransforms.transforms.add(new StringTransform(transform.operationName, subTree, subStr));
+            }
+        }
+        return treeTransforms;
+    }
 
-                descendantNode = ancestorNode.deepCopy().remove(Collections.singletonList("descendants"));
-                key = ancestorNode.get("key").asText() + ":" + transform.operationName;
-                ancestorNode.withArray("descendants").add(key);
 
-                descendantNode.put("key", key);
-                descendantNode.put("origin", origin);
-                descendantNode.put("ancestor", ancestorNode.get("key").asText());
-                descendantNode.put("transformName", transform.operationName);
-                descendantNode.put("subTree", transform.subTree.toString());
-                descendantNode.put("subStr", subStr);
+    /**
+     * Size of a tree and its transforms by all transformers
+     */
+    private static class TreeTransforms {
+        final int size;
+        final List<StringTransform> transforms = new ArrayList<>();
 
-                descendants.add(descendantNode);
-                transformTree(descendantNode, descendants, seen, maxTreeSize);
-            }
+        TreeTransforms(int size) {
+            this.size = size;
+        }
+    }
+
+
+    /**
+     * Transform with its subtree already rendered as strings
+     */
+    private static class StringTransform {
+        final String operationName;
+        final String subTree;
+        final String subStr;
+
+        StringTransform(String operationName, String subTree, String subStr) {
+            this.operationName = operationName;
+            this.subTree = subTree;
+            this.subStr = subStr;
         }
     }
 
@@ -9,8 +9,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Extract of subtrees matching patterns
@@ -40,57 +44,212 @@ public class TreeExtractor extends TreeOperator {
     public List<Extract>
     extractTrees(Tree tree) {
         List<Extract> extracts = new ArrayList<>(25);
+        extractTrees(tree, operationArray(), extracts, null, null);
+        return extracts;
+    }
+
+    /**
+     * Extract subtrees by the given operations of this extractor only, with the extracts of each operation
+     * in order of the operations. Operations without extracts are left out.
+     * Operations whose evaluation exceeded the budget are added to aborted, as their lack of extracts is no result.
+     */
+    public Map<TreeOperation, List<Extract>>
+    extractTreesByOperation(Tree tree, List<TreeOperation> operations, Set<TreeOperation> aborted) {
+        Map<TreeOperation, List<Extract>> byOperation = new LinkedHashMap<>();
+        extractTrees(tree, operations.toArray(new TreeOperation[operations.size()]), new ArrayList<>(25),
+                byOperation, aborted);
+        return byOperation;
+    }
+
+    /**
+     * Add extracts by operations to extracts, and if byOperation is not null, to byOperation as well.
+     * Aborted operations are added to aborted, unless it is null.
+     */
+    private void
+    extractTrees(Tree tree,
+                 TreeOperation[] operations,
+                 List<Extract> extracts,
+                 Map<TreeOperation, List<Extract>> byOperation,
+                 Set<TreeOperation> aborted) {
+        // index is only needed once an operation matches, which is rare
+        TreeIndex index = null;
+        Set<String> values = Prerequisites.valuesOf(tree);
+        boolean timed = OperationMetrics.SHARED.isEnabled();
+        OperationBudget budget = getBudget();
+
+        for (TreeOperation operation: operations) {
+            if (!operation.prerequisites.isSatisfiedBy(values)) {
+                // tree lacks a label or word required by the pattern
+                continue;
+            }
+            int start = extracts.size();
+
+            if (budget != null) {
+                budget.begin();
+            }
+            try {
+                long matchStart = timed ? System.nanoTime() : 0;
+
+                // match once on the original tree, which is left untouched
+                Map<String, List<Tree>> wordMatches;
+                int matchCount = 0;
+
+                if (operation.isTemplate()) {
+                    wordMatches = operation.findWordMatches(tree);
+
+                    if (timed) {
+                        for (List<Tree> matches : wordMatches.values()) {
+                            matchCount += matches.size();
+                        }
+                    }
+                } else {
+                    List<Tree> matches = new ArrayList<>(5);
+                    TregexMatcher patternMatcher = operation.getPattern().matcher(tree);
+
+                    while (patternMatcher.findNextMatchingNode()) {
+                        matches.add(patternMatcher.getMatch());
+                    }
+                    wordMatches = matches.isEmpty()
+                            ? Collections.emptyMap() : Collections.singletonMap(null, matches);
+                    matchCount = matches.size();
+                }
 
-        for (TreeOperation operation: this.getOperationsAsList()) {
-            // take a deep copy, so the tree is not modified by next operation
-            extractTrees(operation, tree.deepCopy(), extracts);
+                if (timed) {
+                    operation.metrics().matched(matchStart, matchCount);
+                }
+                long actionStart = timed ? System.nanoTime() : 0;
+
+                for (Map.Entry<String, List<Tree>> entry : wordMatches.entrySet()) {
+                    if (index == null) {
+                        // the index serves all operations, so it is not charged to this one
+                        index = OperationBudget.uncounted(() -> new TreeIndex(tree));
+                    }
+                    extractTrees(operation, entry.getKey(), index, entry.getValue(), extracts);
+                }
+
+                if (timed && !wordMatches.isEmpty()) {
+                    operation.metrics().acted(actionStart);
+                }
+            } catch (OperationBudget.Exceeded x) {
+                // drop the extracts of the aborted evaluation, whose actions only changed copies
+                extracts.subList(start, extracts.size()).clear();
+                budget.quarantine(tree, operation.name, x);
+
+                if (aborted != null) {
+                    aborted.add(operation);
+                }
+                continue;
+            } finally {
+                if (budget != null) {
+                    budget.end();
+                }
+            }
+
+            if (byOperation != null && extracts.size() > start) {
+                byOperation.put(operation, new ArrayList<>(extracts.subList(start, extracts.size())));
+            }
         }
-        return extracts;
     }
 
+    /**
+     * Extract subtrees from matches of operation, where word is the word of a template or null
+     */
     private void
     extractTrees(TreeOperation operation,
-                 Tree tree,
+                 String word,
+                 TreeIndex index,
+                 List<Tree> matches,
                  List<Extract> extracts) {
-        /* Pattern matching is applied twice, which is inefficient, as are the deep copies.
-           However, if done in one iteration, the node numbers become incorrect,
-           because nodes are deleted from the original input tree. */
+        String name = operation.nameFor(word);
 
-        Integer nodeNumber = null;
-        Tree subTree = null;
-        List<Integer> nodeNumbers = new ArrayList<>(5);
+        if (!operation.hasAction()) {
+            // nothing to change, so no need for copies
+            for (Tree match : matches) {
+                extracts.add(new Extract(name, index.nodeNumber(match), match));
+            }
+        } else if (matches.size() > 1 || !extractSubTree(operation, word, index, matches.get(0), extracts)) {
+            extractTreesFromCopy(operation, word, index, matches, extracts);
+        }
+    }
 
-        TregexMatcher patternMatcher = operation.pattern.matcher(tree);
+    /**
+     * Apply action of operation to a copy of the matching subtree only.
+     * Returns false if the action involves nodes outside of the subtree, in which case nothing is extracted.
+     */
+    private boolean
+    extractSubTree(TreeOperation operation,
+                   String word,
+                   TreeIndex index,
+                   Tree match,
+                   List<Extract> extracts) {
+        Tree subTree = match.deepCopy();
+        // tree sharing all nodes with the original tree, except for the copied subtree
+        Tree tree = index.graft(match, subTree);
+        TregexMatcher patternMatcher = operation.getPattern().matcher(tree);
+        boolean found = patternMatcher.matchesAt(subTree);
 
-        // 1. get numbers of matching subtrees
-        while (patternMatcher.findNextMatchingNode()) {
-            subTree = patternMatcher.getMatch();
-            nodeNumber = subTree.nodeNumber(tree);
-            nodeNumbers.add(nodeNumber);
+        // first match on this node for the word of a template
+        while (found && !operation.bindsWord(patternMatcher, word)) {
+            found = patternMatcher.matches();
         }
 
-        // 2. apply operations (if defined) to subtree
-        nodeNumber = 0;
-        patternMatcher.reset();
-        TsurgeonMatcher actionMatcher = (operation.action != null) ? operation.action.matcher() : null;
+        if (!found) {
+            return false;
+        }
 
-        while (patternMatcher.findNextMatchingNode()) {
-            subTree = patternMatcher.getMatch();
-            if (actionMatcher != null) {
-                actionMatcher.evaluate(subTree, patternMatcher);
+        for (String name : patternMatcher.getNodeNames()) {
+            Tree node = patternMatcher.getNode(name);
+            if (node != subTree && !subTree.dominates(node)) {
+                // action might modify nodes shared with the original tree
+                return false;
             }
-            // make a copy, so the subtree is not modified by subsequent applications of this operation
-            Extract ext = new Extract(operation.name, nodeNumbers.get(nodeNumber++), subTree.deepCopy());
-            extracts.add(ext);
         }
 
+        operation.actionMatcher().evaluate(subTree, patternMatcher);
+        InternPool.SHARED.internLabels(subTree);
+        extracts.add(new Extract(operation.nameFor(word), index.nodeNumber(match), subTree));
+        return true;
+    }
+
+    private void
+    extractTreesFromCopy(TreeOperation operation,
+                         String word,
+                         TreeIndex index,
+                         List<Tree> matches,
+                         List<Extract> extracts) {
+        /* Multiple matches of an operation with an action are applied to a single copy of the tree,
+           so the action on one match may affect subsequent matches, as it always did.
+           Node numbers are taken from the matches on the original tree, because nodes are deleted from the copy. */
+
+        Tree tree = index.getRoot().deepCopy();
+        TregexMatcher patternMatcher = operation.getPattern().matcher(tree);
+        TsurgeonMatcher actionMatcher = operation.actionMatcher();
+        Tree lastSubTree = null;
+        int matchNumber = 0;
+
+        // as findNextMatchingNode, but skipping matches of a template for other words
+        while (patternMatcher.find()) {
+            Tree subTree = patternMatcher.getMatch();
+
+            if (subTree == lastSubTree || !operation.bindsWord(patternMatcher, word)) {
+                continue;
+            }
+            lastSubTree = subTree;
+            actionMatcher.evaluate(subTree, patternMatcher);
+            // labels created by the action are shared with other trees
+            InternPool.SHARED.internLabels(subTree);
+            // make a copy, so the subtree is not modified by subsequent applications of this operation
+            Tree match = matches.get(matchNumber++);
+            extracts.add(new Extract(operation.nameFor(word), index.nodeNumber(match), subTree.deepCopy()));
+        }
     }
 }
 
 
 
 /**
- * Result of extraction, that is, result of applying an operation to a tree to extract a subtree
+ * Result of extraction, that is, result of applying an operation to a tree to extract a subtree.
+ * The subtree may share nodes with the input tree, so it should not be modified.
  */
 class Extract {
     public final String operationName;
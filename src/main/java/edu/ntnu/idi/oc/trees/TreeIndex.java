@@ -0,0 +1,80 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.trees.Tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Index of the nodes of a tree in preorder, numbered as in Tree.nodeNumber (starting at 1 for the root).
+ * The tree must not be modified while the index is in use.
+ */
+class TreeIndex {
+    private final Tree root;
+    private final Tree[] nodes;
+    private final int[] parents;
+    private final IdentityHashMap<Tree, Integer> numbers;
+
+    TreeIndex(Tree root) {
+        this.root = root;
+        int size = root.size();
+        nodes = new Tree[size + 1];
+        parents = new int[size + 1];
+        numbers = new IdentityHashMap<>(size);
+        addNode(root, 0, 1);
+    }
+
+    private int addNode(Tree node, int parent, int number) {
+        nodes[number] = node;
+        parents[number] = parent;
+        numbers.put(node, number);
+        int next = number + 1;
+
+        for (Tree child : node.children()) {
+            next = addNode(child, number, next);
+        }
+        return next;
+    }
+
+    Tree getRoot() {
+        return root;
+    }
+
+    /**
+     * Node number of node in preorder, or -1 if node is not in the tree
+     */
+    int nodeNumber(Tree node) {
+        Integer number = numbers.get(node);
+        return (number == null) ? -1 : number;
+    }
+
+    Tree getNode(int number) {
+        return nodes[number];
+    }
+
+    /**
+     * New root of a tree in which node is replaced by replacement.
+     * Only the nodes on the path from root to node are copied; all other subtrees are shared with the indexed tree.
+     */
+    Tree graft(Tree node, Tree replacement) {
+        int number = nodeNumber(node);
+        Tree current = replacement;
+
+        for (int parent = parents[number]; parent != 0; number = parent, parent = parents[parent]) {
+            Tree original = nodes[parent];
+            List<Tree> children = new ArrayList<>(Arrays.asList(original.children()));
+
+            // compare by identity, because Tree.equals compares structure
+            for (int i = 0; i < children.size(); i++) {
+                if (children.get(i) == nodes[number]) {
+                    children.set(i, current);
+                    break;
+                }
+            }
+            current = original.treeFactory().newTreeNode(original.label(), children);
+        }
+        return current;
+    }
+}
@@ -1,83 +1,206 @@
 package edu.ntnu.idi.oc.trees;
 
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.tregex.TregexMatcher;
 import edu.stanford.nlp.trees.tregex.TregexPattern;
 import edu.stanford.nlp.trees.tregex.TregexPatternCompiler;
 import edu.stanford.nlp.trees.tregex.tsurgeon.Tsurgeon;
-import edu.stanford.nlp.trees.tregex.tsurgeon.TsurgeonParseException;
+import edu.stanford.nlp.trees.tregex.tsurgeon.TsurgeonMatcher;
 import edu.stanford.nlp.trees.tregex.tsurgeon.TsurgeonPattern;
 
+import org.apache.commons.io.IOUtils;
+
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Abstract class for operations on trees.
  * A tree operation is a named pair of pattern and action.
+ *
+ * A name containing a wildcard, as in "ATTR2_*", makes the operation a template for a family of operations
+ * differing only in a word. Its pattern must contain a node named "word" listing the words as alternatives,
+ * as in "NP < (VBN=d1 < add|boost=word)". A template behaves as the sequence of operations obtained by
+ * substituting each word in turn, named accordingly (e.g. "ATTR2_add" and "ATTR2_boost"),
+ * but its pattern is matched only once.
+ *
+ * An operator and its operations do not change once created, apart from the budget, so a single operator
+ * can be shared by any number of threads. Matchers of actions hold state while applied to a tree,
+ * so each thread reuses matchers of its own.
  */
 public abstract class TreeOperator {
-    private final LinkedHashMap<String, TreeOperation> operations;
+    /**
+     * System property naming a directory of rule snapshots.
+     * If set, rules are loaded from their snapshot, which is created when missing.
+     */
+    public static final String SNAPSHOT_DIR_PROPERTY = "baleen.rules";
+
+    private static final Pattern EMPTY_LINE = Pattern.compile("^\\s*$");
+    // as in Tsurgeon, where an escaped % does not start a comment
+    private static final Pattern COMMENT = Pattern.compile("(?<!\\\\)%.*$");
+    private static Logger log = Logger.getLogger("TreeOperator");
+
+    // operations by name, where a template appears under the name for each of its words
+    private final Map<String, TreeOperation> operations;
+    // operations in order of definition, with each template only once
+    private final TreeOperation[] operationArray;
+    private final List<TreeOperation> operationList;
+    // bound on each evaluation of an operation on a tree, or null
+    private volatile OperationBudget budget;
 
     public TreeOperator() {
-        operations = new LinkedHashMap<>();
+        this(Collections.emptyList());
     }
 
     public TreeOperator(List<TreeOperation> operations) {
-        this();
-        setOperationsFromList(operations);
+        LinkedHashMap<String, TreeOperation> byName = new LinkedHashMap<>();
+
+        for (TreeOperation operation: operations) {
+            for (String name : operation.getNames()) {
+                byName.put(name, operation);
+            }
+        }
+        this.operations = Collections.unmodifiableMap(byName);
+        operationArray = operations.toArray(new TreeOperation[operations.size()]);
+        operationList = Collections.unmodifiableList(Arrays.asList(operationArray));
     }
 
     public TreeOperator(Path filename) {
-        this();
-        setOperationsFromList(readOperations(filename));
+        this(readOperations(filename));
     }
 
     public TreeOperator(InputStream stream) throws IOException {
         // for use with cLoader.getResourceAsStream
-        this();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-        setOperationsFromList(readOperations(reader));
-        reader.close();
+        this(readOperations(readAndClose(stream)));
     }
 
-    private void setOperationsFromList(List<TreeOperation> operations) {
-        for (TreeOperation operation: operations) {
-            this.operations.put(operation.name, operation);
+    private static byte[] readAndClose(InputStream stream) throws IOException {
+        try {
+            return IOUtils.toByteArray(stream);
+        } finally {
+            stream.close();
         }
     }
 
-    public LinkedHashMap<String, TreeOperation> getOperations() {
+    /**
+     * Operations by name, where a template appears under the name for each of its words
+     */
+    public Map<String, TreeOperation> getOperations() {
         return operations;
     }
 
+    /**
+     * Operations in order of definition, with each template only once
+     */
     public List<TreeOperation> getOperationsAsList() {
-        return new ArrayList<>(operations.values());
+        return operationList;
+    }
+
+    /**
+     * Operations in order of definition, as getOperationsAsList, for iteration without an iterator.
+     * The array is shared, so it must not be modified.
+     */
+    TreeOperation[] operationArray() {
+        return operationArray;
     }
 
     public TreeOperation getOperation(String name) {
         return operations.get(name);
     }
 
-    private List<TreeOperation>
+    /**
+     * Bound each evaluation of an operation on a tree by budget, or by nothing if budget is null.
+     * Only trees of budgeted nodes are bounded.
+     */
+    public void setBudget(OperationBudget budget) {
+        this.budget = budget;
+    }
+
+    public OperationBudget getBudget() {
+        return budget;
+    }
+
+    private static List<TreeOperation>
     readOperations(Path filename) {
         List<TreeOperation> operations = null;
 
-        // use BufferedReader because Tsurgeon.getTregexPatternFromReader does
-        try (BufferedReader reader = Files.newBufferedReader(filename)) {
-            operations = readOperations(reader);
+        try {
+            operations = readOperations(Files.readAllBytes(filename));
         } catch (IOException x) {
             System.err.format("IOException: %s%n", x);
         }
         return operations;
     }
 
-    private List<TreeOperation>
+    /**
+     * Read operations from content of a file, using a snapshot if a snapshot directory is set
+     */
+    private static List<TreeOperation>
+    readOperations(byte[] source) {
+        Path snapshotDir = getSnapshotDir();
+
+        if (snapshotDir == null) {
+            return readSource(source);
+        }
+
+        String hash = RuleSnapshot.hash(source);
+        Path snapshot = RuleSnapshot.path(snapshotDir, hash);
+
+        if (Files.exists(snapshot)) {
+            try {
+                return RuleSnapshot.read(snapshot, hash);
+            } catch (IOException | RuntimeException x) {
+                log.warning(String.format("rebuilding invalid snapshot %s: %s", snapshot, x));
+            }
+        }
+
+        // snapshot is missing, because rules are new or changed
+        List<TreeOperation> operations = readSource(source);
+
+        try {
+            RuleSnapshot.write(snapshot, hash, operations);
+        } catch (IOException x) {
+            log.warning(String.format("cannot write snapshot %s: %s", snapshot, x));
+        }
+        return operations;
+    }
+
+    /**
+     * Read and compile operations from content of a file, ignoring snapshots
+     */
+    static List<TreeOperation>
+    readSource(byte[] source) {
+        // use BufferedReader because Tsurgeon.getTregexPatternFromReader does
+        return readOperations(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(source))));
+    }
+
+    /**
+     * Directory of rule snapshots as set by system property, or null if snapshots are not used
+     */
+    static Path getSnapshotDir() {
+        String dir = System.getProperty(SNAPSHOT_DIR_PROPERTY);
+        return (dir == null || dir.isEmpty()) ? null : Paths.get(dir);
+    }
+
+    private static List<TreeOperation>
     readOperations(BufferedReader reader) {
         List<TreeOperation> operations = new LinkedList<>();
         TreeOperation operation;
@@ -97,36 +220,42 @@ public abstract class TreeOperator {
     }
 
 
-    public TreeOperation
+    public static TreeOperation
     readOperation(BufferedReader reader) throws IOException {
         String name = readOperationName(reader);
 
-        // get compiled pattern for matching
+        // get pattern for matching
         String patternString = Tsurgeon.getTregexPatternFromReader(reader);
         if (patternString.isEmpty()) {
             return null;
         }
-        TregexPatternCompiler compiler = new TregexPatternCompiler();
-        TregexPattern pattern = compiler.compile(patternString);
 
-        // get compiled actions, possibly none
-        TsurgeonPattern action = null;
-        try {
-            action = Tsurgeon.getTsurgeonOperationsFromReader(reader);
-        } catch (TsurgeonParseException e) {
-            if (!("No Tsurgeon operation provided.".equals(e.getMessage()))) {
-                // another type of exception, e.g. parsing error
-                throw e;
-            }
+        // get actions, possibly none, and compile both
+        return new TreeOperation(name, patternString, readActionString(reader));
+    }
+
+    /**
+     * Read lines of actions up to the next empty line, as Tsurgeon.getTsurgeonOperationsFromReader does,
+     * returning null if there are no actions
+     */
+    private static String
+    readActionString(BufferedReader reader) throws IOException {
+        StringBuilder actionString = new StringBuilder();
+        boolean empty = true;
+
+        for (String line; (line = reader.readLine()) != null && !EMPTY_LINE.matcher(line).matches(); ) {
+            actionString.append(line).append('\n');
+            empty = empty && EMPTY_LINE.matcher(COMMENT.matcher(line).replaceFirst("")).matches();
         }
-        return new TreeOperation(name, pattern, action);
+        return empty ? null : actionString.toString();
     }
 
-    private String
+    private static String
     readOperationName(BufferedReader reader) throws IOException {
         // abusing method to read Tregex pattern
         String name = Tsurgeon.getTregexPatternFromReader(reader);
-        name = name.replaceAll("\\W*\\$\\W*", "");
+        // strip delimiters, but keep wildcard of templates
+        name = name.replaceAll("\\s*\\$\\s*", "");
         return name;
     }
 
@@ -134,20 +263,212 @@ public abstract class TreeOperator {
 }
 
 class TreeOperation {
+    // name of pattern node matching the word of a template
+    static final String WORD_NODE = "word";
+    private static final String WILDCARD = "*";
+    private static final Pattern WORDS = Pattern.compile("([^\\s()\\[\\]!@=]+)=" + WORD_NODE + "(?!\\w)");
+
     public final String name;
-    public final TregexPattern pattern;
-    public final TsurgeonPattern action;
+    // source of pattern and actions, where actions are null if there are none or if not known
+    final String patternString;
+    final String actionString;
+    // compiled on first use
+    private volatile TregexPattern pattern;
+    private volatile TsurgeonPattern action;
+    private final boolean hasAction;
+    // words of a template in order of substitution, or empty if not a template
+    final List<String> words;
+    // labels and words required for the pattern to match, to skip impossible operations
+    final Prerequisites prerequisites;
+    // run time of this operation, created when first counted while metrics are enabled
+    private volatile OperationMetrics.Counters metrics;
+    // matcher of actions per thread, or null if matchers cannot be reused
+    private final ThreadLocal<TsurgeonMatcher> actionMatchers;
 
-    TreeOperation(String name, TregexPattern pattern, TsurgeonPattern action) {
+    private TreeOperation(String name, String patternString, String actionString, boolean hasAction,
+                          Prerequisites prerequisites) {
         this.name = name;
+        this.patternString = patternString;
+        this.actionString = actionString;
+        this.hasAction = hasAction;
+        this.words = name.contains(WILDCARD) ? readWords(name, patternString) : Collections.emptyList();
+        this.prerequisites = prerequisites;
+        this.actionMatchers = isReusable(actionString) ? ThreadLocal.withInitial(() -> getAction().matcher()) : null;
+    }
+
+    /**
+     * Check if matchers of actions with the given source can be reused for another tree.
+     * A matcher remembers the nodes created under a name by an action, as in "insert (NP=np) $+ x",
+     * which would refer to nodes of an earlier tree, and its coindexation. Names are bound with "=",
+     * so actions without it or "coindex" leave nothing behind. Matchers of actions of unknown source
+     * are never reused.
+     */
+    private static boolean isReusable(String actionString) {
+        return actionString != null && actionString.indexOf('=') < 0 && !actionString.contains("coindex");
+    }
+
+    TreeOperation(String name, TregexPattern pattern, TsurgeonPattern action) {
+        this(name, pattern.pattern(), null, action != null, Prerequisites.of(pattern.pattern()));
         this.pattern = pattern;
         this.action = action;
     }
 
+    /**
+     * Operation from source, which is compiled at once to reveal any errors
+     */
+    TreeOperation(String name, String patternString, String actionString) {
+        this(name, patternString, actionString, actionString != null, Prerequisites.of(patternString));
+        getPattern();
+        getAction();
+    }
+
+    /**
+     * Operation from a snapshot, which was validated before, so compilation is deferred to first use
+     */
+    TreeOperation(String name, String patternString, String actionString, Prerequisites prerequisites) {
+        this(name, patternString, actionString, actionString != null, prerequisites);
+    }
+
+    private static List<String> readWords(String name, String patternString) {
+        Matcher matcher = WORDS.matcher(patternString);
+
+        if (!matcher.find()) {
+            throw new IllegalArgumentException(String.format(
+                    "pattern of template %s lacks a node named %s: %s", name, WORD_NODE, patternString));
+        }
+        return Collections.unmodifiableList(Arrays.asList(matcher.group(1).split("[|]")));
+    }
+
+    TregexPattern getPattern() {
+        TregexPattern compiled = pattern;
+
+        if (compiled == null) {
+            // threads racing here compile equal patterns, so no need to synchronize
+            pattern = compiled = new TregexPatternCompiler().compile(patternString);
+        }
+        return compiled;
+    }
+
+    /**
+     * Compiled actions, or null if there are none
+     */
+    TsurgeonPattern getAction() {
+        TsurgeonPattern compiled = action;
+
+        if (compiled == null && hasAction) {
+            try {
+                action = compiled = Tsurgeon.getTsurgeonOperationsFromReader(
+                        new BufferedReader(new StringReader(actionString)));
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Matcher of actions for applying them to a single tree on the current thread, which may be the matcher
+     * used for an earlier tree on the same thread
+     */
+    TsurgeonMatcher actionMatcher() {
+        return (actionMatchers != null) ? actionMatchers.get() : getAction().matcher();
+    }
+
+    /**
+     * Run time counters of this operation, registered with the shared metrics on first use,
+     * so operations are only registered once metrics are enabled
+     */
+    OperationMetrics.Counters metrics() {
+        OperationMetrics.Counters counters = metrics;
+
+        if (counters == null) {
+            synchronized (this) {
+                counters = metrics;
+
+                if (counters == null) {
+                    counters = OperationMetrics.SHARED.register(this);
+                    metrics = counters;
+                }
+            }
+        }
+        return counters;
+    }
+
+    boolean hasAction() {
+        return hasAction;
+    }
+
+    boolean isTemplate() {
+        return !words.isEmpty();
+    }
+
+    /**
+     * Name of operation for a word of a template
+     */
+    String nameFor(String word) {
+        return (word == null) ? name : name.replace(WILDCARD, word);
+    }
+
+    /**
+     * Word of a template from a name returned by nameFor
+     */
+    String wordOf(String operationName) {
+        int start = name.indexOf(WILDCARD);
+        return operationName.substring(start, operationName.length() - (name.length() - start - 1));
+    }
+
+    List<String> getNames() {
+        if (!isTemplate()) {
+            return Collections.singletonList(name);
+        }
+
+        List<String> names = new ArrayList<>(words.size());
+        for (String word : words) {
+            names.add(nameFor(word));
+        }
+        return names;
+    }
+
+    /**
+     * Check if current match of a template binds the given word, where a null word matches anything
+     */
+    boolean bindsWord(TregexMatcher matcher, String word) {
+        return word == null || word.equals(matcher.getNode(WORD_NODE).value());
+    }
+
+    /**
+     * Nodes matching a template per word, in order of words and nodes in preorder.
+     * Words without a match are left out.
+     */
+    LinkedHashMap<String, List<Tree>> findWordMatches(Tree tree) {
+        HashMap<String, List<Tree>> found = new HashMap<>();
+        TregexMatcher matcher = getPattern().matcher(tree);
+
+        // a node may match with different words, so all matches are needed
+        while (matcher.find()) {
+            List<Tree> matches = found.computeIfAbsent(matcher.getNode(WORD_NODE).value(),
+                    word -> new ArrayList<>(2));
+            Tree match = matcher.getMatch();
+
+            // matches on the same node are consecutive
+            if (matches.isEmpty() || matches.get(matches.size() - 1) != match) {
+                matches.add(match);
+            }
+        }
+
+        LinkedHashMap<String, List<Tree>> wordMatches = new LinkedHashMap<>();
+        for (String word : words) {
+            if (found.containsKey(word)) {
+                wordMatches.put(word, found.get(word));
+            }
+        }
+        return wordMatches;
+    }
+
     @Override
     public String toString() {
-        String actionStr = (action == null) ? "None" : action.toString();
-        return String.join("\n", name, pattern.toString(), actionStr);
+        String actionStr = hasAction ? getAction().toString() : "None";
+        return String.join("\n", name, getPattern().toString(), actionStr);
     }
 
 
@@ -0,0 +1,374 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.trees.LabeledScoredTreeNode;
+import edu.stanford.nlp.trees.PennTreebankLanguagePack;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreebankLanguagePack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser of trees in PTB format, giving the same trees as Tree.valueOf.
+ *
+ * Tree.valueOf creates a tree reader, tokenizer and tree factory for each tree, and copies the whole tree
+ * when normalizing it. This parser builds the normalized tree directly, reusing its buffers and caching
+ * the normalized labels and words, which are taken from the shared InternPool. Trees which normalization
+ * would change (e.g. with -NONE- elements or unary nodes over nodes with the same label), and any input
+ * the parser does not handle exactly like PennTreeReader, are left to Tree.valueOf.
+ *
+ * A budgeted parser makes trees of BudgetedTreeNode instead, whose evaluations an OperationBudget can bound.
+ *
+ * A parser is not thread-safe, so each thread needs a parser of its own.
+ */
+class TreeParser {
+    private static final TreebankLanguagePack tlp = new PennTreebankLanguagePack();
+
+    private final StringCache labels = new StringCache(true);
+    private final StringCache words = new StringCache(false);
+    // children of the open nodes, by depth
+    private final List<List<Tree>> children = new ArrayList<>();
+    private boolean budgeted;
+    private String text;
+    private int position;
+    private int wordIndex;
+    private boolean unusual;
+
+    TreeParser() {
+        this(false);
+    }
+
+    TreeParser(boolean budgeted) {
+        this.budgeted = budgeted;
+    }
+
+    /**
+     * Number of labels and words cached by this parser
+     */
+    int cacheSize() {
+        return labels.size() + words.size();
+    }
+
+    /**
+     * Make trees of BudgetedTreeNode from now on if budgeted, or of plain nodes otherwise
+     */
+    void setBudgeted(boolean budgeted) {
+        this.budgeted = budgeted;
+    }
+
+    /**
+     * Parse tree, which is null if text is not a tree, as with Tree.valueOf
+     */
+    Tree parse(String text) {
+        this.text = text;
+        position = 0;
+        wordIndex = 1;
+        unusual = false;
+        Tree tree = null;
+
+        skipWhitespace();
+
+        if (position < text.length() && text.charAt(position) == '(') {
+            tree = parseNode(0);
+        }
+
+        this.text = null;
+
+        for (List<Tree> list : children) {
+            list.clear();
+        }
+
+        if (tree == null || unusual) {
+            // PennTreeReader handles whatever is left, including reporting errors
+            tree = Tree.valueOf(text);
+
+            if (tree != null && budgeted) {
+                tree = tree.deepCopy(BudgetedTreeNode.budgetedFactory());
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Start building a tree from its nodes with label, leaf and node, as decoded from binary records,
+     * instead of parsing it
+     */
+    void startTree() {
+        wordIndex = 1;
+        unusual = false;
+    }
+
+    /**
+     * Normalized label of a node of a tree being built
+     */
+    String label(String label) {
+        checkToken(label);
+        return labels.get(label, 0, label.length());
+    }
+
+    /**
+     * Leaf of a tree being built, under a node with the given normalized label, in order of leaves
+     */
+    Tree leaf(String word, String label) {
+        checkToken(word);
+        return newLeaf(words.get(word, 0, word.length()), label);
+    }
+
+    /**
+     * Node of a tree being built, with the given normalized label and children
+     */
+    Tree node(String label, List<Tree> kids) {
+        return newNode(label, kids);
+    }
+
+    /**
+     * Finish building tree, whose text is text. Returns tree, or the tree parsed from text if building
+     * would give a different tree than parsing.
+     */
+    Tree finishTree(Tree tree, String text) {
+        return unusual ? parse(text) : tree;
+    }
+
+    /**
+     * Mark tree as unusual if token has characters which PennTreeReader treats specially, as tokenEnd does
+     */
+    private void checkToken(String token) {
+        if (token.indexOf('\\') >= 0 || token.indexOf('\u007f') >= 0) {
+            unusual = true;
+        }
+    }
+
+    /**
+     * Parse node starting with the left parenthesis at the current position, at depth in the tree.
+     * Returns null at the end of the text.
+     */
+    private Tree parseNode(int depth) {
+        position++;
+        skipWhitespace();
+
+        if (position >= text.length()) {
+            return null;
+        }
+
+        String label;
+        char c = text.charAt(position);
+
+        if (c == '(') {
+            // no label, e.g. the outermost level of the Penn Treebank
+            label = normalizeLabel(null);
+        } else {
+            int end = tokenEnd();
+
+            if (end == position) {
+                // empty tree or unusual character
+                unusual = true;
+                return null;
+            }
+            label = labels.get(text, position, end);
+            position = end;
+        }
+
+        if (depth == children.size()) {
+            children.add(new ArrayList<>());
+        }
+        List<Tree> kids = children.get(depth);
+
+        while (true) {
+            skipWhitespace();
+
+            if (position >= text.length()) {
+                return null;
+            }
+
+            c = text.charAt(position);
+
+            if (c == ')') {
+                position++;
+                break;
+            } else if (c == '(') {
+                Tree child = parseNode(depth + 1);
+
+                if (child == null) {
+                    return null;
+                }
+                kids.add(child);
+            } else {
+                int end = tokenEnd();
+
+                if (end == position) {
+                    unusual = true;
+                    return null;
+                }
+                kids.add(newLeaf(words.get(text, position, end), label));
+                position = end;
+            }
+        }
+
+        Tree node = newNode(label, kids);
+        kids.clear();
+        return node;
+    }
+
+    private Tree newNode(String label, List<Tree> kids) {
+        int n = kids.size();
+        boolean preTerminal = n == 1 && kids.get(0).isLeaf();
+
+        if (n == 0 || label.equals("-NONE-")) {
+            // node becomes leaf, or normalization removes empty elements
+            unusual = true;
+        } else if (!preTerminal && (label.equals("EDITED") || label.equals("CODE")
+                || n == 1 && label.equals(kids.get(0).value()))) {
+            // normalization splices out node
+            unusual = true;
+        }
+
+        CoreLabel coreLabel = new CoreLabel();
+        coreLabel.setValue(label);
+        Tree node = budgeted ? new BudgetedTreeNode(coreLabel) : new LabeledScoredTreeNode(coreLabel);
+        node.setChildren(kids.toArray(new Tree[n]));
+        return node;
+    }
+
+    private Tree newLeaf(String word, String parentLabel) {
+        // same annotations as set by PennTreeReader
+        CoreLabel coreLabel = new CoreLabel();
+        coreLabel.setValue(word);
+        coreLabel.setIndex(wordIndex++);
+        coreLabel.setWord(word);
+        coreLabel.setTag(parentLabel);
+        return budgeted ? new BudgetedTreeNode(coreLabel) : new LabeledScoredTreeNode(coreLabel);
+    }
+
+    /**
+     * Normalized label as in BobChrisTreeNormalizer
+     */
+    private static String normalizeLabel(String label) {
+        return (label == null || label.isEmpty()) ? "ROOT" : InternPool.SHARED.intern(tlp.basicCategory(label));
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && text.charAt(position) <= ' ') {
+            position++;
+        }
+    }
+
+    /**
+     * End of token starting at the current position, as in PennTreebankTokenizer
+     */
+    private int tokenEnd() {
+        int i = position;
+
+        while (i < text.length()) {
+            char c = text.charAt(i);
+
+            if (c <= ' ' || c == '(' || c == ')') {
+                break;
+            } else if (c == '\u007f' || c == '\\') {
+                // single character token, or escaped characters which PennTreeReader unescapes
+                unusual = true;
+                return position;
+            }
+            i++;
+        }
+        return i;
+    }
+
+
+    /**
+     * Cache of strings for substrings of text, so no substring is created for strings found in the cache.
+     * The cache is local to the parser, so only strings missing from it are looked up in the shared pool.
+     * Parsers live as long as their threads, so the cache is cleared when it is full, rather than holding
+     * every word of a corpus.
+     */
+    private static class StringCache {
+        // slots of a full cache, which holds at most half as many strings
+        static final int MAX_SLOTS = 1 << 16;
+
+        private final boolean normalize;
+        private String[] keys = new String[256];
+        private String[] values = new String[256];
+        private int size = 0;
+
+        /**
+         * Cache of normalized labels if normalize is true, or else of words
+         */
+        StringCache(boolean normalize) {
+            this.normalize = normalize;
+        }
+
+        /**
+         * Cached value for substring of text from start to end
+         */
+        String get(String text, int start, int end) {
+            int length = end - start;
+            int hash = 0;
+
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + text.charAt(i);
+            }
+
+            int mask = keys.length - 1;
+            int slot = mix(hash) & mask;
+
+            for (String key = keys[slot]; key != null; key = keys[slot]) {
+                if (key.length() == length && text.regionMatches(start, key, 0, length)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            String key = text.substring(start, end);
+            String value = normalize ? normalizeLabel(key) : InternPool.SHARED.internWord(key);
+            keys[slot] = key;
+            values[slot] = value;
+
+            if (++size > keys.length / 2) {
+                if (keys.length < MAX_SLOTS) {
+                    rehash();
+                } else {
+                    clear();
+                }
+            }
+            return value;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        /**
+         * Drop all strings, after which frequent strings are soon cached again
+         */
+        private void clear() {
+            Arrays.fill(keys, null);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void rehash() {
+            String[] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new String[2 * oldKeys.length];
+            values = new String[2 * oldValues.length];
+            int mask = keys.length - 1;
+
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    int slot = mix(oldKeys[i].hashCode()) & mask;
+
+                    while (keys[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
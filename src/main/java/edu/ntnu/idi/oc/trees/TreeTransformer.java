@@ -10,14 +10,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
 
 
 /**
  * Transform trees matching patterns with actions
  */
 public class TreeTransformer extends TreeOperator {
+    private static Logger log = Logger.getLogger("TreeTransformer");
 
     public TreeTransformer(List<TreeOperation> operations) {
         super(operations);
@@ -35,32 +39,220 @@ public class TreeTransformer extends TreeOperator {
     transformTree(Tree tree) {
         List<Transform> transforms = new ArrayList<>(100);
         Transform transform;
+        Set<String> values = Prerequisites.valuesOf(tree);
+        boolean timed = OperationMetrics.SHARED.isEnabled();
+        OperationBudget budget = getBudget();
 
-        for (TreeOperation operation: this.getOperationsAsList()) {
-            transform = transformTree(tree, operation);
-            if (transform != null) {
-                transforms.add(transform);
+        for (TreeOperation operation: operationArray()) {
+            if (!operation.prerequisites.isSatisfiedBy(values)) {
+                // tree lacks a label or word required by the pattern
+                continue;
+            }
+            int first = transforms.size();
+
+            if (budget != null) {
+                budget.begin();
+            }
+            try {
+                if (operation.isTemplate()) {
+                    long start = timed ? System.nanoTime() : 0;
+                    Set<String> words = operation.findWordMatches(tree).keySet();
+
+                    if (timed) {
+                        // a single evaluation, whatever the number of words
+                        operation.metrics().matched(start, words.size());
+                    }
+
+                    // a template applies once for each word it matches
+                    for (String word : words) {
+                        transforms.add(transformTree(tree, operation, word));
+                    }
+                } else {
+                    transform = evaluate(tree, operation, null);
+                    if (transform != null) {
+                        transforms.add(transform);
+                    }
+                }
+            } catch (OperationBudget.Exceeded x) {
+                // drop the transforms of the aborted evaluation, which were made on copies
+                transforms.subList(first, transforms.size()).clear();
+                budget.quarantine(tree, operation.name, x);
+            } finally {
+                if (budget != null) {
+                    budget.end();
+                }
             }
         }
         return transforms;
     }
 
-    public Transform  transformTree(Tree tree, TreeOperation operation) {
+    public Transform transformTree(Tree tree, TreeOperation operation) {
+        return evaluate(tree, operation, null);
+    }
+
+    /**
+     * Transform tree by operation as in transformTree, counted as a single evaluation of operation
+     */
+    private Transform evaluate(Tree tree, TreeOperation operation, String word) {
+        Transform transform = transformTree(tree, operation, word);
+
+        if (OperationMetrics.SHARED.isEnabled()) {
+            operation.metrics().evaluated((transform == null) ? 0 : 1);
+        }
+        return transform;
+    }
+
+    /**
+     * Transform tree by the first match of operation, where word is the word of a template or null.
+     * Time spent matching and acting is counted, but the evaluation is counted by the caller.
+     */
+    private Transform transformTree(Tree tree, TreeOperation operation, String word) {
         // transform copy of tree, leaving original tree untouched
         Tree treeCopy = tree.deepCopy();
-        TregexMatcher patternMatcher = operation.pattern.matcher(treeCopy);
-        TsurgeonMatcher actionMatcher = operation.action.matcher();
+        // copying is not part of matching
+        boolean timed = OperationMetrics.SHARED.isEnabled();
+        long start = timed ? System.nanoTime() : 0;
+        TregexMatcher patternMatcher = operation.getPattern().matcher(treeCopy);
+        TsurgeonMatcher actionMatcher = operation.actionMatcher();
         Transform transform = null;
 
-        if (patternMatcher.find()) {
-            actionMatcher.evaluate(treeCopy, patternMatcher);
-            transform = new Transform(operation.name, treeCopy);
+        while (patternMatcher.find()) {
+            if (operation.bindsWord(patternMatcher, word)) {
+                if (timed) {
+                    operation.metrics().matchedAgain(start);
+                    start = System.nanoTime();
+                }
+                actionMatcher.evaluate(treeCopy, patternMatcher);
+                // labels created by the action are shared with other trees
+                InternPool.SHARED.internLabels(treeCopy);
+                transform = new Transform(operation.nameFor(word), treeCopy);
+
+                if (timed) {
+                    operation.metrics().acted(start);
+                }
+                return transform;
+            }
+        }
+
+        if (timed) {
+            operation.metrics().matchedAgain(start);
+        }
+        return transform;
+    }
+
+    /**
+     * Apply operations to tree in place, without copying it, until none of them matches any more,
+     * applying each operation as long as it matches. Returns the root of the transformed tree, which differs from
+     * tree if an action replaced the root, or null if an action deleted the whole tree.
+     *
+     * Operations are meant to shrink trees, as deleting nodes does. To stop operations which undo each other,
+     * at most maxApplications actions are applied, after which the tree is returned as it is.
+     */
+    public Tree transformInPlace(Tree tree, int maxApplications) {
+        return transformInPlace(tree, maxApplications, null);
+    }
+
+    /**
+     * As transformInPlace, adding operations whose evaluation exceeded the budget to aborted, unless it is null.
+     * Operations in aborted are not tried on the tree.
+     */
+    public Tree transformInPlace(Tree tree, int maxApplications, Set<TreeOperation> aborted) {
+        Set<String> values = Prerequisites.valuesOf(tree);
+        boolean timed = OperationMetrics.SHARED.isEnabled();
+        OperationBudget budget = getBudget();
+        // operations counted as evaluated on this tree, which is once for all rounds
+        Set<TreeOperation> evaluated = timed ? new HashSet<>() : null;
+        int applications = 0;
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (TreeOperation operation : operationArray()) {
+                // values are updated after each round with changes, so the last round misses no operation
+                if (!operation.prerequisites.isSatisfiedBy(values)
+                        || (aborted != null && aborted.contains(operation))) {
+                    continue;
+                }
+
+                if (timed && evaluated.add(operation)) {
+                    operation.metrics().evaluated(0);
+                }
+                long start = timed ? System.nanoTime() : 0;
+                TregexMatcher patternMatcher = operation.getPattern().matcher(tree);
+                TsurgeonMatcher actionMatcher = operation.actionMatcher();
+
+                try {
+                    while (find(patternMatcher, budget)) {
+                        if (applications++ == maxApplications) {
+                            log.warning(String.format("stopped after %d applications of %s: %s",
+                                    maxApplications, operation.name, tree));
+                            return tree;
+                        }
+
+                        if (timed) {
+                            operation.metrics().matchedAgain(start);
+                            operation.metrics().found(1);
+                            start = System.nanoTime();
+                        }
+                        tree = actionMatcher.evaluate(tree, patternMatcher);
+
+                        if (timed) {
+                            operation.metrics().acted(start);
+                            start = System.nanoTime();
+                        }
+
+                        if (tree == null) {
+                            return null;
+                        }
+                        changed = true;
+                        // matches may refer to nodes changed by the action
+                        patternMatcher = operation.getPattern().matcher(tree);
+                    }
+                } catch (OperationBudget.Exceeded x) {
+                    // actions are not bounded, so the tree is as the last complete action left it
+                    budget.quarantine(tree, operation.name, x);
+
+                    // not tried again on this tree
+                    if (aborted == null) {
+                        aborted = new HashSet<>();
+                    }
+                    aborted.add(operation);
+                    continue;
+                }
+
+                if (timed) {
+                    operation.metrics().matchedAgain(start);
+                }
+            }
+
+            if (changed) {
+                InternPool.SHARED.internLabels(tree);
+                values = Prerequisites.valuesOf(tree);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Find the next match of matcher, bounded by budget if it is not null
+     */
+    private static boolean find(TregexMatcher matcher, OperationBudget budget) {
+        if (budget == null) {
+            return matcher.find();
+        }
+        budget.begin();
+
+        try {
+            return matcher.find();
+        } finally {
+            budget.end();
         }
-    return transform;
     }
 
     public Transform transformTree(Tree tree, String operationName) {
-        return transformTree(tree, getOperation(operationName));
+        TreeOperation operation = getOperation(operationName);
+        return evaluate(tree, operation, operation.isTemplate() ? operation.wordOf(operationName) : null);
     }
 
 }
@@ -0,0 +1,81 @@
+package edu.ntnu.idi.oc.trees;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+import static org.junit.Assert.*;
+
+
+public class BackgroundInputStreamTest {
+
+    /**
+     * Source of bytes failing with failure once they are read
+     */
+    private static InputStream failingSource(byte[] bytes, Throwable failure) {
+        InputStream failing = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+        };
+        return new SequenceInputStream(new ByteArrayInputStream(bytes), failing);
+    }
+
+    /**
+     * Test that all bytes are read as from the source itself
+     */
+    @Test(timeout = 10000)
+    public void testRead() throws Exception {
+        byte[] bytes = new byte[300000];
+
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 31);
+        }
+
+        try (InputStream in = new BackgroundInputStream(new ByteArrayInputStream(bytes), "test")) {
+            byte[] read = new byte[bytes.length];
+            int length = 0;
+            int n;
+
+            while ((n = in.read(read, length, read.length - length)) > 0) {
+                length += n;
+            }
+            assertEquals(bytes.length, length);
+            assertArrayEquals(bytes, read);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    /**
+     * Test that a failure of any kind on the reading thread is thrown by the reader,
+     * rather than leaving the reader waiting for the end
+     */
+    @Test(timeout = 10000)
+    public void testFailingSource() throws Exception {
+        byte[] bytes = {1, 2, 3};
+        Throwable[] failures = {new IOException("disk"), new IllegalStateException("corrupt"),
+                new AssertionError("broken")};
+
+        for (Throwable failure : failures) {
+            try (InputStream in = new BackgroundInputStream(failingSource(bytes, failure), "test")) {
+                try {
+                    while (in.read() >= 0) {
+                        // bytes of the block being read when the source failed are dropped with it
+                    }
+                    fail("no failure for " + failure);
+                } catch (IOException x) {
+                    assertSame(failure, (failure instanceof IOException) ? x : x.getCause());
+                }
+            }
+        }
+    }
+}
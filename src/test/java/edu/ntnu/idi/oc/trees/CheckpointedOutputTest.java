@@ -0,0 +1,121 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class CheckpointedOutputTest {
+
+    /**
+     * Test that output interrupted after a checkpoint and resumed from it equals uninterrupted output,
+     * in every format, uncompressed and in gzip format
+     */
+    @Test
+    public void testResume() throws Exception {
+        List<ObjectNode> records = RecordFormatTest.readRecords(
+                Paths.get("src/test/resources/vars/10.1038#ngeo1571#abs#sent#scnlp_v3.5.1#var.json"));
+        Path dir = Paths.get("src/test/out/checkpoint");
+
+        if (Files.exists(dir)) {
+            FileUtils.cleanDirectory(dir.toFile());
+        }
+        FileUtils.forceMkdir(dir.toFile());
+
+        for (RecordFormat format : RecordFormat.values()) {
+            for (Compression compression : new Compression[] {Compression.NONE, Compression.GZIP}) {
+                String name = "records" + format.getExtension() + compression.getExtension();
+                Path expected = dir.resolve("expected-" + name);
+                Path file = dir.resolve(name);
+                int half = records.size() / 2;
+
+                try (CheckpointedOutput output = new CheckpointedOutput(expected, format, 0, false)) {
+                    for (ObjectNode record : records) {
+                        output.write(record);
+                    }
+                    output.commit();
+                }
+
+                // interrupted after records following the checkpoint
+                try (CheckpointedOutput output = new CheckpointedOutput(file, format, 0, true)) {
+                    for (int i = 0; i < records.size() - 2; i++) {
+                        output.write(records.get(i));
+
+                        if (i < half) {
+                            output.checkpoint(i + 1, i + 1);
+                        }
+                    }
+                }
+                assertFalse(Files.exists(file));
+
+                try (CheckpointedOutput output = new CheckpointedOutput(file, format, 0, true)) {
+                    CheckpointedOutput.Checkpoint resumed = output.getResumed();
+                    assertEquals(half, resumed.input);
+                    assertEquals(half, resumed.treeNumber);
+
+                    for (int i = (int) resumed.input; i < records.size(); i++) {
+                        output.write(records.get(i));
+                    }
+                    output.commit();
+                }
+
+                assertEquals(records, RecordFormatTest.readRecords(file));
+                assertFalse(Files.exists(dir.resolve(name + CheckpointedOutput.PART_EXTENSION)));
+
+                if (compression == Compression.NONE) {
+                    assertArrayEquals(Files.readAllBytes(expected), Files.readAllBytes(file));
+                }
+
+                // without resume, output starts from the beginning
+                try (CheckpointedOutput output = new CheckpointedOutput(file, format, 0, false)) {
+                    assertEquals(0, output.getResumed().input);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that at commit, the part file holds all output while the journal is kept,
+     * and that the output file is only complete once the journal is deleted
+     */
+    @Test
+    public void testCommit() throws Exception {
+        List<ObjectNode> records = RecordFormatTest.readRecords(
+                Paths.get("src/test/resources/vars/10.1038#ngeo1571#abs#sent#scnlp_v3.5.1#var.json"));
+        Path dir = Paths.get("src/test/out/checkpoint-commit");
+        FileUtils.forceMkdir(dir.toFile());
+        FileUtils.cleanDirectory(dir.toFile());
+
+        for (Compression compression : new Compression[] {Compression.NONE, Compression.GZIP}) {
+            Path file = dir.resolve("records.json" + compression.getExtension());
+            Path partFile = dir.resolve(file.getFileName() + CheckpointedOutput.PART_EXTENSION);
+            Path journalFile = dir.resolve(partFile.getFileName() + CheckpointedOutput.JOURNAL_EXTENSION);
+
+            try (CheckpointedOutput output = new CheckpointedOutput(file, RecordFormat.JSON, 0, false)) {
+                for (int i = 0; i < records.size(); i++) {
+                    output.write(records.get(i));
+                    output.checkpoint(i + 1, i + 1);
+                }
+                output.completePart();
+
+                // complete part file, with the journal left for resuming until it is renamed
+                byte[] part = Files.readAllBytes(partFile);
+                assertTrue(Files.exists(journalFile));
+                assertFalse(Files.exists(file));
+
+                output.commit();
+                assertArrayEquals(part, Files.readAllBytes(file));
+                assertFalse(Files.exists(partFile));
+                assertFalse(Files.exists(journalFile));
+            }
+            assertEquals(records, RecordFormatTest.readRecords(file));
+        }
+    }
+}
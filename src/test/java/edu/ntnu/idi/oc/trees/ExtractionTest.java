@@ -2,11 +2,23 @@ package edu.ntnu.idi.oc.trees;
 
 import org.junit.Test;
 
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 
 public class ExtractionTest {
@@ -31,6 +43,214 @@ public class ExtractionTest {
 
     }
 
+    @Test
+    public void testExtractParallel() throws Exception {
+        Extraction extraction = new Extraction();
+        extraction.addExtractor("change", Paths.get("src/main/resources/tsurgeon/extract/change.tfm"));
+        extraction.addExtractor("increase", Paths.get("src/main/resources/tsurgeon/extract/increase.tfm"));
+        extraction.addExtractor("decrease", Paths.get("src/main/resources/tsurgeon/extract/decrease.tfm"));
+
+        Path treesPath = Paths.get("src/test/resources/trees");
+        Path sequentialDir = Paths.get("src/test/out/ext-seq");
+        Path parallelDir = Paths.get("src/test/out/ext-par");
+
+        for (Path dir : Arrays.asList(sequentialDir, parallelDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+        }
+
+        extraction.apply(treesPath, sequentialDir);
+        extraction.setThreads(4);
+        extraction.apply(treesPath, parallelDir);
+
+        // parallel processing of files yields the same output files
+        for (File file : sequentialDir.toFile().listFiles()) {
+            assertTrue(FileUtils.contentEquals(file, parallelDir.resolve(file.getName()).toFile()));
+        }
+    }
+
+    @Test
+    public void testExtractPipeline() throws Exception {
+        Extraction extraction = new Extraction();
+        extraction.addExtractor("change", Paths.get("src/main/resources/tsurgeon/extract/change.tfm"));
+        extraction.addExtractor("increase", Paths.get("src/main/resources/tsurgeon/extract/increase.tfm"));
+        extraction.addExtractor("decrease", Paths.get("src/main/resources/tsurgeon/extract/decrease.tfm"));
+
+        // single large file, including ill-formed trees which do not count as trees
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            for (File file : Paths.get("src/test/resources/trees").toFile().listFiles()) {
+                lines.addAll(Files.readAllLines(file.toPath()));
+            }
+            lines.add("NP");
+        }
+        Path treesPath = Paths.get("src/test/out/pipe-trees/large.parse");
+        FileUtils.forceMkdir(treesPath.getParent().toFile());
+        Files.write(treesPath, lines);
+
+        Path sequentialDir = Paths.get("src/test/out/pipe-seq");
+        Path pipelineDir = Paths.get("src/test/out/pipe-par");
+
+        for (Path dir : Arrays.asList(sequentialDir, pipelineDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+        }
+
+        extraction.apply(treesPath, sequentialDir);
+        extraction.setWorkers(4);
+        extraction.apply(treesPath, pipelineDir);
+
+        File expected = sequentialDir.resolve("large#var.json").toFile();
+        assertTrue(FileUtils.contentEquals(expected, pipelineDir.resolve("large#var.json").toFile()));
+    }
+
+    @Test
+    public void testExtractCompressed() throws Exception {
+        Extraction extraction = new Extraction();
+        extraction.addExtractor("change", Paths.get("src/main/resources/tsurgeon/extract/change.tfm"));
+        extraction.addExtractor("increase", Paths.get("src/main/resources/tsurgeon/extract/increase.tfm"));
+        extraction.addExtractor("decrease", Paths.get("src/main/resources/tsurgeon/extract/decrease.tfm"));
+
+        Path treesPath = Paths.get("src/test/resources/trees");
+        Path compressedTreesPath = Paths.get("src/test/out/trees-gz");
+        Path plainDir = Paths.get("src/test/out/ext-plain");
+        Path compressedDir = Paths.get("src/test/out/ext-gz");
+
+        for (Path dir : Arrays.asList(compressedTreesPath, plainDir, compressedDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+        }
+        FileUtils.forceMkdir(compressedTreesPath.toFile());
+
+        for (File file : treesPath.toFile().listFiles()) {
+            try (OutputStream out = new GZIPOutputStream(
+                    Files.newOutputStream(compressedTreesPath.resolve(file.getName() + ".gz")))) {
+                Files.copy(file.toPath(), out);
+            }
+        }
+
+        extraction.apply(treesPath, plainDir);
+        extraction.setCompression(Compression.GZIP);
+        extraction.apply(compressedTreesPath, compressedDir);
+
+        // compressed trees yield the same extractions, including keys
+        for (File file : plainDir.toFile().listFiles()) {
+            Path compressedFile = compressedDir.resolve(file.getName() + ".gz");
+
+            try (InputStream expected = Files.newInputStream(file.toPath());
+                 InputStream in = new GZIPInputStream(Files.newInputStream(compressedFile))) {
+                assertTrue(IOUtils.contentEquals(expected, in));
+            }
+        }
+    }
+
+    @Test
+    public void testExtractCached() throws Exception {
+        Path treesPath = Paths.get("src/test/resources/trees");
+        Path cacheDir = Paths.get("src/test/out/ext-cache");
+        Path uncachedDir = Paths.get("src/test/out/ext-uncached");
+        Path cachedDir = Paths.get("src/test/out/ext-cached");
+
+        for (Path dir : Arrays.asList(cacheDir, uncachedDir, cachedDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+        }
+
+        Extraction extraction = new Extraction();
+        extraction.addExtractor("change", Paths.get("src/main/resources/tsurgeon/extract/change.tfm"));
+        extraction.addExtractor("increase", Paths.get("src/main/resources/tsurgeon/extract/increase.tfm"));
+        extraction.addExtractor("decrease", Paths.get("src/main/resources/tsurgeon/extract/decrease.tfm"));
+        extraction.apply(treesPath, uncachedDir);
+
+        // fill cache with results of some of the operations
+        Extraction partial = new Extraction();
+        partial.addExtractor("change", Paths.get("src/main/resources/tsurgeon/extract/change.tfm"));
+        partial.addExtractor("increase", Paths.get("src/main/resources/tsurgeon/extract/increase.tfm"));
+        partial.setCache(new ExtractionCache(cacheDir, ExtractionCache.DEFAULT_MAX_SIZE));
+        partial.apply(treesPath, cachedDir);
+
+        // only the added operations are applied, and output equals that without cache
+        ExtractionCache cache = new ExtractionCache(cacheDir, ExtractionCache.DEFAULT_MAX_SIZE);
+        extraction.setCache(cache);
+        extraction.setWorkers(4);
+        extraction.apply(treesPath, cachedDir);
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getMisses() > 0);
+
+        for (File file : uncachedDir.toFile().listFiles()) {
+            assertTrue(FileUtils.contentEquals(file, cachedDir.resolve(file.getName()).toFile()));
+        }
+
+        // all results are cached now
+        ExtractionCache full = new ExtractionCache(cacheDir, ExtractionCache.DEFAULT_MAX_SIZE);
+        extraction.setCache(full);
+        extraction.apply(treesPath, cachedDir);
+        assertEquals(0, full.getMisses());
+
+        for (File file : uncachedDir.toFile().listFiles()) {
+            assertTrue(FileUtils.contentEquals(file, cachedDir.resolve(file.getName()).toFile()));
+        }
+
+        // nothing fits in an empty cache
+        ExtractionCache empty = new ExtractionCache(cacheDir, 0);
+        extraction.setCache(empty);
+        extraction.apply(treesPath, cachedDir);
+        assertTrue(empty.getEvictions() >= treesPath.toFile().listFiles().length);
+        assertEquals(0, cacheDir.toFile().listFiles().length);
+    }
+
+    @Test
+    public void testExtractTransform() throws Exception {
+        Path treesPath = Paths.get("src/test/resources/trees");
+        Path varDir = Paths.get("src/test/out/fused-var");
+        Path transDir = Paths.get("src/test/out/fused-trans");
+        Path fusedVarDir = Paths.get("src/test/out/fused-fused-var");
+        Path fusedTransDir = Paths.get("src/test/out/fused-fused-trans");
+
+        for (Path dir : Arrays.asList(varDir, transDir, fusedVarDir, fusedTransDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+        }
+
+        Extraction extraction = new Extraction();
+        extraction.addExtractor("change", Paths.get("src/main/resources/tsurgeon/extract/change.tfm"));
+        extraction.addExtractor("increase", Paths.get("src/main/resources/tsurgeon/extract/increase.tfm"));
+        extraction.addExtractor("decrease", Paths.get("src/main/resources/tsurgeon/extract/decrease.tfm"));
+        Transformation transformation = new Transformation();
+        transformation.addTransformer(Paths.get("src/main/resources/tsurgeon/prune/coordination.tfm"));
+        transformation.addTransformer(Paths.get("src/main/resources/tsurgeon/prune/modifiers.tfm"));
+
+        extraction.apply(treesPath, varDir, false, "#var");
+        transformation.apply(varDir, transDir, true, 100, false, "#prune");
+
+        // transforming extracts in memory yields the same files as transforming the files of extracts
+        extraction.setTransformation(transformation, true, 100, "#prune");
+        extraction.setWorkers(2);
+        extraction.apply(treesPath, fusedVarDir, fusedTransDir, false, "#var");
+
+        for (Path dir : Arrays.asList(varDir, transDir)) {
+            Path fusedDir = (dir == varDir) ? fusedVarDir : fusedTransDir;
+            assertEquals(dir.toFile().listFiles().length, fusedDir.toFile().listFiles().length);
+
+            for (File file : dir.toFile().listFiles()) {
+                assertTrue(FileUtils.contentEquals(file, fusedDir.resolve(file.getName()).toFile()));
+            }
+        }
+
+        // extracts need not be written
+        FileUtils.cleanDirectory(fusedTransDir.toFile());
+        extraction.apply(treesPath, null, fusedTransDir, false, "#var");
+
+        for (File file : transDir.toFile().listFiles()) {
+            assertTrue(FileUtils.contentEquals(file, fusedTransDir.resolve(file.getName()).toFile()));
+        }
+    }
+
     @Test
     public void testMain() throws Exception {
         String[] args = {
@@ -0,0 +1,164 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.tregex.TregexPattern;
+import edu.stanford.nlp.trees.tregex.tsurgeon.Tsurgeon;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class OperationBudgetTest {
+
+    /**
+     * Tree of many nouns, on which a pattern chaining precedence without a match takes many steps
+     */
+    private static String nouns(int n) {
+        StringBuilder tree = new StringBuilder("(ROOT (S (NP");
+
+        for (int i = 0; i < n; i++) {
+            tree.append(" (NN n").append(i).append(')');
+        }
+        return tree.append(") (VP (VBZ sing))))").toString();
+    }
+
+    /**
+     * Test that an operation exceeding its step budget on a tree is aborted and quarantined,
+     * while other operations on the tree go on, and that trees of plain nodes are not bounded
+     */
+    @Test
+    public void testQuarantine() throws Exception {
+        Path dir = Paths.get("src/test/out/budget");
+        FileUtils.forceMkdir(dir.toFile());
+        Path quarantine = dir.resolve("quarantine.json");
+        Files.deleteIfExists(quarantine);
+
+        String text = nouns(40);
+        TreeExtractor extractor = new TreeExtractor("budget", Arrays.asList(
+                new TreeOperation("budget slow", TregexPattern.compile("NN .. (NN .. (NN .. (VP !< VBZ)))"), null),
+                new TreeOperation("budget VP", TregexPattern.compile("VP < VBZ"), null)));
+        TreeTransformer preprocessor = new TreeTransformer(Arrays.asList(
+                new TreeOperation("budget slow", TregexPattern.compile("NN=nn .. (NN .. (NN .. (VP !< VBZ)))"),
+                        Tsurgeon.parseOperation("delete nn")),
+                new TreeOperation("budget VBZ", TregexPattern.compile("VBZ=vbz"),
+                        Tsurgeon.parseOperation("relabel vbz VB"))));
+
+        try (OperationBudget budget = new OperationBudget(2000, 0, quarantine)) {
+            extractor.setBudget(budget);
+            preprocessor.setBudget(budget);
+
+            List<Extract> extracts = extractor.extractTrees(new TreeParser(true).parse(text));
+            assertEquals(1, extracts.size());
+            assertEquals("budget VP", extracts.get(0).operationName);
+            assertEquals(1, budget.getAborted());
+
+            // the slow operation is aborted before any deletion, and not tried again after the relabeling
+            Tree tree = preprocessor.transformInPlace(new TreeParser(true).parse(text), 100);
+            assertEquals(Tree.valueOf(text.replace("VBZ", "VB")), tree);
+            assertEquals(2, budget.getAborted());
+
+            // plain trees are not counted
+            assertEquals(1, extractor.extractTrees(new TreeParser().parse(text)).size());
+            assertEquals(2, budget.getAborted());
+        }
+
+        List<String> lines = Files.readAllLines(quarantine, StandardCharsets.UTF_8);
+        assertEquals(2, lines.size());
+
+        for (String line : lines) {
+            JsonNode record = new ObjectMapper().readTree(line);
+            assertEquals("budget slow", record.get("operation").asText());
+            assertEquals("steps", record.get("exceeded").asText());
+            assertTrue(record.get("steps").asLong() >= 2000);
+            assertEquals(Tree.valueOf(text), Tree.valueOf(record.get("tree").asText()));
+        }
+    }
+
+    /**
+     * Test that a cache keeps no results of an aborted evaluation, so the operation is tried again on the tree,
+     * while the results of trees without aborted evaluations are cached
+     */
+    @Test
+    public void testCacheWithoutAborted() throws Exception {
+        Path dir = Paths.get("src/test/out/budget");
+        Path treesDir = dir.resolve("trees");
+        Path cacheDir = dir.resolve("cache");
+
+        for (Path path : Arrays.asList(treesDir, cacheDir)) {
+            FileUtils.forceMkdir(path.toFile());
+            FileUtils.cleanDirectory(path.toFile());
+        }
+        Files.write(treesDir.resolve("nouns.parse"), Arrays.asList(nouns(40), nouns(2)), StandardCharsets.UTF_8);
+        String operations = "$ budget slow $\n\nNN .. (NN .. (NN .. (VP !< VBZ)))\n\n\n$ budget VP $\n\nVP < VBZ\n";
+
+        try (OperationBudget budget = new OperationBudget(2000, 0, null)) {
+            for (int run = 1; run <= 2; run++) {
+                Extraction extraction = new Extraction();
+                extraction.addExtractor("budget",
+                        new ByteArrayInputStream(operations.getBytes(StandardCharsets.UTF_8)));
+                extraction.setBudget(budget);
+                ExtractionCache cache = new ExtractionCache(cacheDir, ExtractionCache.DEFAULT_MAX_SIZE);
+                extraction.setCache(cache);
+                extraction.apply(treesDir, dir.resolve("extracts"));
+
+                // the slow operation is aborted on the long tree in each run
+                assertEquals(run, budget.getAborted());
+                // the long tree is missed again in the second run, the short one is not
+                assertEquals(run == 1 ? 4 : 2, cache.getMisses());
+            }
+        }
+    }
+
+    /**
+     * Test that a budget set after trees were parsed bounds the trees parsed from then on
+     */
+    @Test
+    public void testLateBudget() throws Exception {
+        Path dir = Paths.get("src/test/out/budget");
+        Path treesDir = dir.resolve("late-trees");
+        FileUtils.forceMkdir(treesDir.toFile());
+        FileUtils.cleanDirectory(treesDir.toFile());
+        Files.write(treesDir.resolve("nouns.parse"), Arrays.asList(nouns(40)), StandardCharsets.UTF_8);
+        String operations = "$ budget slow $\n\nNN .. (NN .. (NN .. (VP !< VBZ)))\n";
+
+        Extraction extraction = new Extraction();
+        extraction.addExtractor("budget", new ByteArrayInputStream(operations.getBytes(StandardCharsets.UTF_8)));
+        extraction.apply(treesDir, dir.resolve("late-extracts"));
+
+        try (OperationBudget budget = new OperationBudget(2000, 0, null)) {
+            extraction.setBudget(budget);
+            extraction.apply(treesDir, dir.resolve("late-extracts"));
+            assertEquals(1, budget.getAborted());
+        }
+    }
+
+    /**
+     * Test that indexing a large tree for the extracts of an operation is not charged to the operation
+     */
+    @Test
+    public void testIndexNotCounted() throws Exception {
+        String text = nouns(3000);
+        TreeExtractor extractor = new TreeExtractor("budget", Arrays.asList(
+                new TreeOperation("budget VP", TregexPattern.compile("VP < VBZ"), null),
+                new TreeOperation("budget VBZ", TregexPattern.compile("VBZ < sing"), null)));
+
+        // enough for matching each pattern, which visits each node about once, but not for indexing as well
+        try (OperationBudget budget = new OperationBudget(9000, 0, null)) {
+            extractor.setBudget(budget);
+            List<Extract> extracts = extractor.extractTrees(new TreeParser(true).parse(text));
+            assertEquals(2, extracts.size());
+            assertEquals(0, budget.getAborted());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.tregex.TregexPattern;
+import edu.stanford.nlp.trees.tregex.tsurgeon.Tsurgeon;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class OperationMetricsTest {
+
+    /**
+     * Test that operations are counted only while metrics are enabled, and that their statistics are
+     * available through JMX and in the report
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        Tree tree = Tree.valueOf("(ROOT (S (NP (JJ small) (JJ blue) (NN bird)) (VP (VBZ sing))))");
+        TreeOperation adjective = new TreeOperation("metrics JJ", TregexPattern.compile("JJ=jj > NP"),
+                Tsurgeon.parseOperation("delete jj"));
+        TreeOperation adverb = new TreeOperation("metrics RB", TregexPattern.compile("RB=rb > VP"),
+                Tsurgeon.parseOperation("delete rb"));
+        TreeTransformer transformer = new TreeTransformer(Arrays.asList(adjective, adverb));
+        TreeExtractor extractor = new TreeExtractor("metrics", Arrays.asList(
+                new TreeOperation("metrics NP", TregexPattern.compile("NP < JJ"), null)));
+
+        transformer.transformTree(tree);
+        assertNull(statistics("metrics JJ"));
+
+        OperationMetrics.SHARED.setEnabled(true);
+
+        try {
+            transformer.transformTree(tree);
+            extractor.extractTrees(tree);
+            extractor.extractTrees(tree);
+        } finally {
+            OperationMetrics.SHARED.setEnabled(false);
+        }
+
+        OperationStatistics jj = statistics("metrics JJ");
+        assertEquals(1, jj.getEvaluations());
+        assertEquals(1, jj.getMatches());
+        assertTrue(jj.getActionNanos() > 0);
+        // the tree lacks RB, so its pattern was never matched
+        assertNull(statistics("metrics RB"));
+        OperationStatistics np = statistics("metrics NP");
+        assertEquals(2, np.getEvaluations());
+        assertEquals(2, np.getMatches());
+
+        OperationMetrics.SHARED.registerMBean();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        CompositeData[] top = (CompositeData[]) server.getAttribute(
+                new ObjectName(OperationMetrics.OBJECT_NAME), "TopOperations");
+        assertTrue(Arrays.stream(top).anyMatch(data -> data.get("name").equals("metrics JJ")));
+
+        JsonNode report = new ObjectMapper().readTree(OperationMetrics.SHARED.getReport());
+        assertTrue(report.get("evaluations").asLong() >= 3);
+
+        OperationMetrics.SHARED.reset();
+        assertNull(statistics("metrics JJ"));
+    }
+
+    /**
+     * Test that each operation counts a single evaluation per tree, for a template matching several words
+     * or none, and for operations applied in place over several rounds
+     */
+    @Test
+    public void testEvaluations() throws Exception {
+        Tree tree = Tree.valueOf("(ROOT (S (NP (JJ small) (JJ blue) (NN bird)) (VP (VBZ sing))))");
+        TreeOperation template = new TreeOperation("metrics template *",
+                TregexPattern.compile("JJ=jj < small|blue|green=word"), Tsurgeon.parseOperation("delete jj"));
+        TreeOperation none = new TreeOperation("metrics template none *",
+                TregexPattern.compile("JJ=jj < small|blue=word > VP"), Tsurgeon.parseOperation("delete jj"));
+        TreeOperation adjective = new TreeOperation("metrics in place JJ", TregexPattern.compile("JJ=jj > NP"),
+                Tsurgeon.parseOperation("delete jj"));
+        TreeOperation noun = new TreeOperation("metrics in place NN", TregexPattern.compile("NN=nn > NP !$ JJ"),
+                Tsurgeon.parseOperation("relabel nn NNS"));
+        OperationMetrics.SHARED.setEnabled(true);
+
+        try {
+            assertEquals(2, new TreeTransformer(Arrays.asList(template, none)).transformTree(tree).size());
+            Tree result = new TreeTransformer(Arrays.asList(adjective, noun)).transformInPlace(tree.deepCopy(), 10);
+            assertEquals(Tree.valueOf("(ROOT (S (NP (NNS bird)) (VP (VBZ sing))))"), result);
+        } finally {
+            OperationMetrics.SHARED.setEnabled(false);
+        }
+
+        OperationStatistics templateStatistics = statistics("metrics template *");
+        assertEquals(1, templateStatistics.getEvaluations());
+        assertEquals(2, templateStatistics.getMatches());
+        OperationStatistics noneStatistics = statistics("metrics template none *");
+        assertEquals(1, noneStatistics.getEvaluations());
+        assertEquals(0, noneStatistics.getMatches());
+
+        // both operations are tried in two rounds, and the adjective operation applies twice
+        OperationStatistics adjectiveStatistics = statistics("metrics in place JJ");
+        assertEquals(1, adjectiveStatistics.getEvaluations());
+        assertEquals(2, adjectiveStatistics.getMatches());
+        OperationStatistics nounStatistics = statistics("metrics in place NN");
+        assertEquals(1, nounStatistics.getEvaluations());
+        assertEquals(1, nounStatistics.getMatches());
+        OperationMetrics.SHARED.reset();
+    }
+
+    private static OperationStatistics statistics(String name) {
+        List<OperationStatistics> statistics = OperationMetrics.SHARED.statistics();
+        return statistics.stream().filter(s -> s.getName().equals(name)).findFirst().orElse(null);
+    }
+}
@@ -0,0 +1,67 @@
+package edu.ntnu.idi.oc.trees;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class OrderedPipelineTest {
+
+    /**
+     * Source of the numbers up to n, which fails with failure instead of returning n
+     */
+    private static OrderedPipeline.Source<Integer> failingSource(int n, Exception failure) {
+        int[] next = {0};
+
+        return () -> {
+            if (next[0] == n) {
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                throw (RuntimeException) failure;
+            }
+            return next[0]++;
+        };
+    }
+
+    /**
+     * Test that results are written in input order
+     */
+    @Test(timeout = 10000)
+    public void testOrder() throws Exception {
+        int[] next = {0};
+        List<Integer> written = new ArrayList<>();
+        List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            expected.add(2 * i);
+        }
+        new OrderedPipeline<Integer, Integer>(4, 8).run(() -> (next[0] < 1000) ? next[0]++ : null,
+                i -> 2 * i, written::add);
+        assertEquals(expected, written);
+    }
+
+    /**
+     * Test that a failing source fails the run with its exception, after the results of the inputs read before,
+     * instead of leaving the writer waiting for more input
+     */
+    @Test(timeout = 10000)
+    public void testFailingSource() throws Exception {
+        for (Exception failure : Arrays.asList(new IllegalStateException("bad input"), new IOException("bad file"))) {
+            List<Integer> written = new ArrayList<>();
+
+            try {
+                new OrderedPipeline<Integer, Integer>(2, 4).run(failingSource(10, failure), i -> i, written::add);
+                fail("no exception from failing source");
+            } catch (IllegalStateException | IOException x) {
+                assertSame(failure, x);
+            }
+            assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), written);
+        }
+    }
+}
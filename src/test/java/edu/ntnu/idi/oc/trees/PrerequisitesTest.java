@@ -0,0 +1,43 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.trees.Tree;
+import org.junit.Test;
+
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+
+public class PrerequisitesTest {
+
+    @Test
+    public void testRequired() throws Exception {
+        // duplicates are dropped
+        assertEquals("[NP, VBN|VBD|VBG, adapt, PP]",
+                Prerequisites.of("NP < (NP < (VBN|VBD|VBG=d1 < adapt) $. PP)").toString());
+        assertEquals("[NP, S, VP, adapt]",
+                Prerequisites.of("NP > (S <+(S|VP) (VP <<# adapt !< NP))").toString());
+        assertEquals("[NP, PP, in|of|to, change]",
+                Prerequisites.of("NP > (PP <<# (in|of|to) $, (NP <<# change))").toString());
+    }
+
+    @Test
+    public void testNotRequired() throws Exception {
+        // negated, optional, disjunctive and regular expression descriptions are not required
+        assertEquals("[NP]", Prerequisites.of("NP !< PP ?< JJ").toString());
+        assertEquals("[NP]", Prerequisites.of("NP [< PP | < SBAR]").toString());
+        assertEquals("[NP]", Prerequisites.of("NP <- (/NN/=d1 < !change)").toString());
+        assertTrue(Prerequisites.of("__ <1 /^,/").isEmpty());
+        assertTrue(Prerequisites.of("NP | VP").isEmpty());
+    }
+
+    @Test
+    public void testSatisfied() throws Exception {
+        Set<String> values = Prerequisites.valuesOf(Tree.valueOf("(S (NP (NN climate) (NN change)) (VP (VBZ varies)))"));
+
+        assertTrue(Prerequisites.of("NP <- (NN < change)").isSatisfiedBy(values));
+        assertTrue(Prerequisites.of("VBZ|VBD < varies|vary").isSatisfiedBy(values));
+        assertFalse(Prerequisites.of("NP <- (NN < loss)").isSatisfiedBy(values));
+        assertFalse(Prerequisites.of("NP $. PP").isSatisfiedBy(values));
+    }
+}
@@ -0,0 +1,183 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.trees.Tree;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class RecordFormatTest {
+
+    /**
+     * Test that records read back in every format equal the records written
+     */
+    @Test
+    public void testWriteRead() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<ObjectNode> records = new ArrayList<>();
+
+        ObjectNode origin = mapper.createObjectNode();
+        origin.put("key", "a.parse:1:2:ATTR1_modify");
+        origin.put("label", "change");
+        origin.put("treeNumber", 1);
+        origin.put("nodeNumber", 2);
+        origin.put("subTree", "(NP (JJ blue) (NN bird))");
+        origin.put("subStr", "blue bird");
+        origin.put("truncated", true);
+        origin.withArray("descendants").add("a.parse:1:2:ATTR1_modify:prune JJ");
+        records.add(origin);
+
+        ObjectNode descendant = mapper.createObjectNode();
+        descendant.put("key", "a.parse:1:2:ATTR1_modify:prune JJ");
+        descendant.put("origin", "a.parse:1:2:ATTR1_modify");
+        descendant.put("ancestor", "a.parse:1:2:ATTR1_modify");
+        descendant.put("transformName", "prune JJ");
+        descendant.put("subTree", "(NP (NN bird))");
+        descendant.put("link", "a.parse:1:2:ATTR1_modify");
+        descendant.putNull("comment");
+        records.add(descendant);
+
+        // trees which cannot be restored from their nodes are stored as strings
+        ObjectNode other = mapper.createObjectNode();
+        other.put("key", "b:1");
+        other.put("subTree", "( (NP (NN bird)))");
+        other.put("label", "change");
+        other.put("count", 1L << 40);
+        other.put("score", -0.25);
+        other.put("empty", "");
+        other.putObject("extra").put("subTree", "(NP  (NN bird))").put("negative", -3);
+        records.add(other);
+
+        Path dir = Paths.get("src/test/out/records");
+        FileUtils.forceMkdir(dir.toFile());
+
+        for (RecordFormat format : RecordFormat.values()) {
+            Path file = dir.resolve("records" + format.getExtension());
+
+            try (RecordWriter writer = RecordWriter.open(file, format)) {
+                for (ObjectNode record : records) {
+                    writer.write(record);
+                }
+            }
+
+            try (RecordReader reader = RecordReader.open(file)) {
+                assertEquals(format, reader.getFormat());
+            }
+            assertEquals(records, readRecords(file));
+        }
+    }
+
+    /**
+     * Test that trees decoded from binary records equal the trees parsed from their text, in labels and
+     * annotations of leaves, including trees left to the parser because building them would differ
+     */
+    @Test
+    public void testBinaryTrees() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        List<String> trees = new ArrayList<>(TreeExtractorTest.readTrees());
+        trees.add("(NP (NN a\\/b) (NN bird))");
+        trees.add("(NP (NP (NN bird)))");
+        trees.add("(S (NP-SBJ (-NONE- *)) (VP (VBZ sings)))");
+        trees.add("(NP (NN bird)) ");
+        Path file = Paths.get("src/test/out/records/trees.bin");
+        FileUtils.forceMkdir(file.getParent().toFile());
+
+        try (RecordWriter writer = RecordWriter.open(file, RecordFormat.BINARY)) {
+            for (int i = 0; i < trees.size(); i++) {
+                writer.write(mapper.createObjectNode().put("key", "t:" + i).put("subTree", trees.get(i)));
+            }
+        }
+
+        TreeParser parser = new TreeParser();
+
+        try (RecordReader reader = RecordReader.open(file)) {
+            reader.setTreeParser(new TreeParser());
+
+            for (String text : trees) {
+                ObjectNode record = reader.next();
+                assertEquals(text, record.get("subTree").asText());
+                Tree expected = parser.parse(text);
+                Tree tree = reader.getTree();
+
+                if (text.endsWith(" ")) {
+                    // not written as a tree, so it is parsed as before
+                    assertNull(tree);
+                    continue;
+                }
+                assertEquals(expected, tree);
+                assertEquals(expected.toString(), tree.toString());
+                List<Tree> expectedLeaves = expected.getLeaves();
+                List<Tree> leaves = tree.getLeaves();
+
+                for (int i = 0; i < leaves.size(); i++) {
+                    assertEquals(((CoreLabel) expectedLeaves.get(i).label()).toString(CoreLabel.OutputFormat.ALL),
+                            ((CoreLabel) leaves.get(i).label()).toString(CoreLabel.OutputFormat.ALL));
+                }
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    /**
+     * Test that binary records of transformed variables are smaller than JSON records and hold the same records
+     */
+    @Test
+    public void testBinary() throws Exception {
+        Transformation transformation = new Transformation();
+        transformation.addTransformer(Paths.get("src/main/resources/tsurgeon/prune/coordination.tfm"));
+
+        Path varRecords = Paths.get("src/test/resources/vars");
+        Path jsonDir = Paths.get("src/test/out/records-json");
+        Path binaryDir = Paths.get("src/test/out/records-binary");
+
+        for (Path dir : Arrays.asList(jsonDir, binaryDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+        }
+
+        transformation.apply(varRecords, jsonDir, false);
+        transformation.setFormat(RecordFormat.BINARY);
+        transformation.apply(varRecords, binaryDir, false);
+
+        long jsonSize = 0;
+        long binarySize = 0;
+
+        for (File file : jsonDir.toFile().listFiles()) {
+            Path binaryFile = binaryDir.resolve(file.getName().replaceFirst("[.]json$", ".bin"));
+            List<ObjectNode> records = readRecords(file.toPath());
+
+            assertFalse(records.isEmpty());
+            assertEquals(records, readRecords(binaryFile));
+            jsonSize += file.length();
+            binarySize += Files.size(binaryFile);
+        }
+        assertTrue(binarySize < jsonSize / 2);
+    }
+
+    static List<ObjectNode> readRecords(Path file) throws IOException {
+        List<ObjectNode> records = new ArrayList<>();
+
+        try (RecordReader reader = RecordReader.open(file)) {
+            ObjectNode record;
+
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.ntnu.idi.oc.trees;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class RecordIndexTest {
+
+    /**
+     * Test that the records of each origin read through the index equal those read from the whole file,
+     * in every format, looking up both origins and descendants
+     */
+    @Test
+    public void testReadFamily() throws Exception {
+        Transformation transformation = new Transformation();
+        transformation.addTransformer(Paths.get("src/main/resources/tsurgeon/prune/coordination.tfm"));
+        Path varRecords = Paths.get("src/test/resources/vars");
+
+        for (RecordFormat format : RecordFormat.values()) {
+            Path dir = Paths.get("src/test/out/index-" + format.getName());
+
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+
+            transformation.setFormat(format);
+            transformation.apply(varRecords, dir, false);
+
+            for (File file : dir.toFile().listFiles()) {
+                List<List<ObjectNode>> families = new ArrayList<>();
+
+                try (FamilyReader reader = new FamilyReader(RecordReader.open(file.toPath()))) {
+                    List<ObjectNode> family;
+
+                    while ((family = reader.next()) != null) {
+                        families.add(family);
+                    }
+                }
+                assertFalse(families.isEmpty());
+
+                try (RecordIndex index = RecordIndex.open(file.toPath())) {
+                    assertEquals(families.size(), index.size());
+
+                    for (List<ObjectNode> family : families) {
+                        // origin and last descendant
+                        assertEquals(family, index.readFamily(family.get(0).get("key").asText()));
+                        assertEquals(family, index.readFamily(family.get(family.size() - 1).get("key").asText()));
+                    }
+                    assertTrue(index.readFamily(families.get(0).get(0).get("key").asText() + ":none").isEmpty());
+                    assertTrue(index.readFamily("none").isEmpty());
+                }
+
+                // index is reused, and the family is found without it as well
+                assertTrue(Files.exists(RecordIndex.indexFile(file.toPath())));
+                List<ObjectNode> last = families.get(families.size() - 1);
+                assertEquals(last, RecordIndex.scanFamily(file.toPath(), last.get(0).get("key").asText()));
+            }
+        }
+    }
+}
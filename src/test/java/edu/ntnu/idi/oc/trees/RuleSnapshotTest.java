@@ -0,0 +1,65 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.trees.Tree;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class RuleSnapshotTest {
+
+    @Test
+    public void testWriteRead() throws Exception {
+        byte[] source = Files.readAllBytes(Paths.get("src/main/resources/tsurgeon/extract/increase.tfm"));
+        Path snapshotDir = Paths.get("src/test/out/snapshots");
+
+        if (Files.exists(snapshotDir)) {
+            FileUtils.cleanDirectory(snapshotDir.toFile());
+        }
+
+        String hash = RuleSnapshot.hash(source);
+        Path snapshot = RuleSnapshot.path(snapshotDir, hash);
+        List<TreeOperation> operations = TreeOperator.readSource(source);
+        RuleSnapshot.write(snapshot, hash, operations);
+        List<TreeOperation> snapshotOperations = RuleSnapshot.read(snapshot, hash);
+
+        assertEquals(operations.size(), snapshotOperations.size());
+
+        for (int i = 0; i < operations.size(); i++) {
+            TreeOperation operation = operations.get(i);
+            TreeOperation snapshotOperation = snapshotOperations.get(i);
+            assertEquals(operation.name, snapshotOperation.name);
+            assertEquals(operation.words, snapshotOperation.words);
+            assertEquals(operation.prerequisites.toString(), snapshotOperation.prerequisites.toString());
+            assertEquals(operation.hasAction(), snapshotOperation.hasAction());
+            assertEquals(operation.toString(), snapshotOperation.toString());
+        }
+
+        // operations from snapshot are compiled on first use, with the same results
+        Tree tree = Tree.valueOf("(ROOT (S (NP (NP (VBN increase) (NN temperature)) (PP (IN of) (NP (NN water)))) " +
+                "(VP (VBD cause) (NP (NN growth)))))");
+        List<Extract> expected = new TreeExtractor("increase", operations).extractTrees(tree);
+        List<Extract> extracts = new TreeExtractor("increase", snapshotOperations).extractTrees(tree);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected.size(), extracts.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).operationName, extracts.get(i).operationName);
+            assertEquals(expected.get(i).subTree, extracts.get(i).subTree);
+        }
+    }
+
+    @Test
+    public void testHash() throws Exception {
+        assertEquals(16, RuleSnapshot.hash(new byte[0]).length());
+        assertEquals(RuleSnapshot.hash("NP < JJ".getBytes()), RuleSnapshot.hash("NP < JJ".getBytes()));
+        assertNotEquals(RuleSnapshot.hash("NP < JJ".getBytes()), RuleSnapshot.hash("NP < DT".getBytes()));
+    }
+}
@@ -0,0 +1,110 @@
+package edu.ntnu.idi.oc.trees;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class TraceTest {
+
+    /**
+     * Test that traces written to a directory in parallel equal those written one file after another,
+     * and that filters select origins by label and transformation
+     */
+    @Test
+    public void testTrace() throws Exception {
+        Transformation transformation = new Transformation();
+        transformation.addTransformer(Paths.get("src/main/resources/tsurgeon/prune/coordination.tfm"));
+        Path transDir = Paths.get("src/test/out/trace-records");
+        Path traceDir = Paths.get("src/test/out/trace");
+
+        for (Path dir : Arrays.asList(transDir, traceDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+        }
+        transformation.apply(Paths.get("src/test/resources/vars"), transDir, false);
+
+        Trace trace = new Trace();
+        trace.setThreads(2);
+        trace.apply(transDir, traceDir);
+        StringWriter all = new StringWriter();
+
+        for (File file : transDir.toFile().listFiles()) {
+            StringWriter out = new StringWriter();
+            trace.traceFile(file.toPath(), out);
+            all.write(out.toString());
+
+            Path traceFile = traceDir.resolve(file.getName().replaceFirst("[.]json$", ".trace"));
+            assertEquals(out.toString(), new String(Files.readAllBytes(traceFile), StandardCharsets.UTF_8));
+        }
+        assertTrue(all.toString().startsWith("key = "));
+
+        Trace ellipsis = new Trace();
+        ellipsis.addTransformNames(Collections.singletonList("Coordination Ellipsis 2.1"));
+        StringWriter out = new StringWriter();
+        ellipsis.apply(transDir, out);
+        assertTrue(out.toString().contains("=== Coordination Ellipsis 2.1 ===>"));
+        assertTrue(out.toString().length() < all.toString().length());
+
+        Trace none = new Trace();
+        none.addLabels(Collections.singletonList("no such label"));
+        out = new StringWriter();
+        none.apply(transDir, out);
+        assertEquals("", out.toString());
+    }
+
+    /**
+     * Test that traces of keys read from a directory equal those read from the record file of each key,
+     * also when the index of a file cannot be written, and that missing keys are skipped
+     */
+    @Test
+    public void testTraceKeys() throws Exception {
+        Transformation transformation = new Transformation();
+        transformation.addTransformer(Paths.get("src/main/resources/tsurgeon/prune/coordination.tfm"));
+        Path transDir = Paths.get("src/test/out/trace-keys");
+
+        if (Files.exists(transDir)) {
+            FileUtils.deleteDirectory(transDir.toFile());
+        }
+        transformation.apply(Paths.get("src/test/resources/vars"), transDir, false);
+
+        File[] files = transDir.toFile().listFiles();
+        Arrays.sort(files);
+        // a directory in place of the index of the last file, so that it is scanned
+        Files.createDirectory(RecordIndex.indexFile(files[files.length - 1].toPath()));
+
+        Trace trace = new Trace();
+        List<String> keys = new ArrayList<>();
+        StringWriter expected = new StringWriter();
+
+        for (File file : files) {
+            try (RecordReader reader = RecordReader.open(file.toPath())) {
+                String key = reader.next().get("key").asText();
+                keys.add(key);
+                trace.traceKeys(file.toPath(), Collections.singletonList(key), expected);
+            }
+        }
+        assertTrue(expected.toString().startsWith("key = "));
+
+        StringWriter out = new StringWriter();
+        trace.traceKeys(transDir, keys, out);
+        assertEquals(expected.toString(), out.toString());
+
+        out = new StringWriter();
+        trace.traceKeys(transDir, Arrays.asList("no such key", ""), out);
+        assertEquals("", out.toString());
+    }
+}
@@ -1,12 +1,23 @@
 package edu.ntnu.idi.oc.trees;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import edu.stanford.nlp.trees.tregex.TregexPattern;
+import edu.stanford.nlp.trees.tregex.tsurgeon.Tsurgeon;
 import org.junit.Test;
 
+import java.io.File;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+
+import static org.junit.Assert.*;
 
 /**
  * Created by work on 05/06/15.
@@ -29,4 +40,120 @@ public class TransformationTest {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * Test that a tree reached along two orders of transformations is linked rather than transformed again
+     */
+    @Test
+    public void testTransformDag() throws Exception {
+        TreeTransformer transformer = new TreeTransformer(Arrays.asList(
+                new TreeOperation("prune JJ", TregexPattern.compile("JJ=jj > NP"), Tsurgeon.parseOperation("delete jj")),
+                new TreeOperation("prune DT", TregexPattern.compile("DT=dt > NP"), Tsurgeon.parseOperation("delete dt"))));
+        ObjectMapper mapper = new ObjectMapper();
+
+        for (boolean dag : new boolean[]{false, true}) {
+            Transformation transformation = new Transformation(Arrays.asList(transformer));
+            transformation.setDag(dag);
+            ObjectNode origin = mapper.createObjectNode();
+            origin.put("key", "k");
+            origin.put("subTree", "(NP (DT a) (JJ blue) (NN bird))");
+            List<ObjectNode> descendants = new ArrayList<>();
+
+            transformation.transformTree(origin, descendants, null, 100);
+
+            assertEquals(4, descendants.size());
+            assertEquals("k:prune JJ:prune DT", descendants.get(1).get("key").asText());
+            assertEquals("k:prune DT:prune JJ", descendants.get(3).get("key").asText());
+            assertEquals("(NP (NN bird))", descendants.get(3).get("subTree").asText());
+
+            if (dag) {
+                assertEquals("k:prune JJ:prune DT", descendants.get(3).get("link").asText());
+            } else {
+                assertFalse(descendants.get(3).has("link"));
+            }
+        }
+    }
+
+    /**
+     * Test that limits produce the least transformed descendants first and mark the origin as truncated
+     */
+    @Test
+    public void testTransformLimits() throws Exception {
+        TreeTransformer transformer = new TreeTransformer(Arrays.asList(
+                new TreeOperation("prune JJ", TregexPattern.compile("JJ=jj > NP"), Tsurgeon.parseOperation("delete jj")),
+                new TreeOperation("prune DT", TregexPattern.compile("DT=dt > NP"), Tsurgeon.parseOperation("delete dt"))));
+        ObjectMapper mapper = new ObjectMapper();
+
+        for (int limit = 0; limit < 3; limit++) {
+            Transformation transformation = new Transformation(Arrays.asList(transformer));
+            if (limit == 1) {
+                transformation.setMaxDepth(1);
+            } else if (limit == 2) {
+                transformation.setMaxDescendants(2);
+            }
+            ObjectNode origin = mapper.createObjectNode();
+            origin.put("key", "k");
+            origin.put("subTree", "(NP (DT a) (JJ blue) (NN bird))");
+            List<ObjectNode> descendants = new ArrayList<>();
+
+            transformation.transformTree(origin, descendants, null, 100);
+
+            if (limit == 0) {
+                assertEquals(4, descendants.size());
+                assertFalse(origin.has("truncated"));
+            } else {
+                // breadth-first, so both single transformations come first
+                assertEquals(2, descendants.size());
+                assertEquals("k:prune JJ", descendants.get(0).get("key").asText());
+                assertEquals("k:prune DT", descendants.get(1).get("key").asText());
+                assertTrue(origin.get("truncated").asBoolean());
+            }
+        }
+    }
+
+    /**
+     * Test that JSON Lines output holds the same records as JSON output, and that it is accepted as input
+     */
+    @Test
+    public void testTransformJsonLines() throws Exception {
+        Transformation transformation = new Transformation();
+        transformation.addTransformer(Paths.get("src/main/resources/tsurgeon/prune/coordination.tfm"));
+
+        Path varRecords = Paths.get("src/test/resources/vars");
+        Path varLines = Paths.get("src/test/out/vars-jsonl");
+        Path jsonDir = Paths.get("src/test/out/trans-json");
+        Path linesDir = Paths.get("src/test/out/trans-jsonl");
+        Path fromLinesDir = Paths.get("src/test/out/trans-from-jsonl");
+
+        for (Path dir : Arrays.asList(varLines, jsonDir, linesDir, fromLinesDir)) {
+            if (Files.exists(dir)) {
+                FileUtils.cleanDirectory(dir.toFile());
+            }
+        }
+        FileUtils.forceMkdir(varLines.toFile());
+
+        for (File file : varRecords.toFile().listFiles()) {
+            Path linesFile = varLines.resolve(FilenameUtils.getBaseName(file.getName()) + ".jsonl");
+
+            try (RecordWriter writer = RecordWriter.open(linesFile, RecordFormat.JSONL)) {
+                for (ObjectNode record : RecordFormatTest.readRecords(file.toPath())) {
+                    writer.write(record);
+                }
+            }
+        }
+
+        transformation.apply(varRecords, jsonDir, true);
+        transformation.apply(varLines, fromLinesDir, true);
+        transformation.setFormat(RecordFormat.JSONL);
+        transformation.apply(varRecords, linesDir, true);
+
+        for (File file : jsonDir.toFile().listFiles()) {
+            Path linesFile = linesDir.resolve(FilenameUtils.getBaseName(file.getName()) + ".jsonl");
+            List<ObjectNode> records = RecordFormatTest.readRecords(file.toPath());
+
+            assertFalse(records.isEmpty());
+            assertEquals(records, RecordFormatTest.readRecords(linesFile));
+            assertEquals(records.size(), Files.readAllLines(linesFile).size());
+            assertTrue(FileUtils.contentEquals(file, fromLinesDir.resolve(file.getName()).toFile()));
+        }
+    }
+}
@@ -6,8 +6,17 @@ import edu.stanford.nlp.trees.tregex.tsurgeon.Tsurgeon;
 import edu.stanford.nlp.trees.tregex.tsurgeon.TsurgeonPattern;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -153,4 +162,122 @@ public class TreeExtractorTest {
 
 
     }
-}
\ No newline at end of file
+
+    /**
+     * Test matching a single pattern without action, which leaves the input tree untouched
+     */
+    @Test
+    public void testExtractWithoutAction() throws Exception {
+        Tree tree = Tree.valueOf("(S (NP (JJ blue) (NN bird)) (VP (V sings) (NP (NN songs))))");
+        TregexPattern pattern = TregexPattern.compile("NP > VP");
+
+        TreeOperation operation = new TreeOperation("name", pattern, null);
+        List<TreeOperation> operations = Arrays.asList(operation);
+        TreeExtractor extractor = new TreeExtractor("label", operations);
+
+        List<Extract> extracts = extractor.extractTrees(tree);
+
+        assertEquals(1, extracts.size());
+        assertEquals(10, extracts.get(0).nodeNumber);
+        assertEquals(Tree.valueOf("(NP (NN songs))"), extracts.get(0).subTree);
+        assertEquals(Tree.valueOf("(S (NP (JJ blue) (NN bird)) (VP (V sings) (NP (NN songs))))"), tree);
+    }
+
+    /**
+     * Test that a template extracts the same as the operations for each of its words
+     */
+    @Test
+    public void testExtractTemplate() throws Exception {
+        Tree tree = Tree.valueOf("(S (NP (NP (JJ rising) (NN sea) (NN level)) (CC and) (NP (JJ warm) (NN water))) " +
+                "(VP (VBP cause) (NP (JJ warm) (JJ rising) (NNS seas))))");
+        TsurgeonPattern action = Tsurgeon.parseOperation("delete d1");
+
+        TreeOperation template = new TreeOperation("ATTR_*",
+                TregexPattern.compile("NP < (JJ=d1 < rising|warm|cold=word)"), action);
+        TreeExtractor templateExtractor = new TreeExtractor("label", Arrays.asList(template));
+
+        List<TreeOperation> operations = Arrays.asList(
+                new TreeOperation("ATTR_rising", TregexPattern.compile("NP < (JJ=d1 < rising)"), action),
+                new TreeOperation("ATTR_warm", TregexPattern.compile("NP < (JJ=d1 < warm)"), action),
+                new TreeOperation("ATTR_cold", TregexPattern.compile("NP < (JJ=d1 < cold)"), action));
+        TreeExtractor extractor = new TreeExtractor("label", operations);
+
+        List<Extract> expected = extractor.extractTrees(tree);
+        List<Extract> extracts = templateExtractor.extractTrees(tree);
+
+        assertEquals(4, extracts.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).operationName, extracts.get(i).operationName);
+            assertEquals(expected.get(i).nodeNumber, extracts.get(i).nodeNumber);
+            assertEquals(expected.get(i).subTree, extracts.get(i).subTree);
+        }
+
+        assertEquals("ATTR_warm", extracts.get(3).operationName);
+        assertEquals(Tree.valueOf("(NP (JJ rising) (NNS seas))"), extracts.get(3).subTree);
+        assertEquals(Arrays.asList("ATTR_rising", "ATTR_warm", "ATTR_cold"), template.getNames());
+        assertEquals("warm", template.wordOf("ATTR_warm"));
+    }
+
+    /**
+     * Lines of the test tree files
+     */
+    static List<String> readTrees() throws Exception {
+        List<String> lines = new ArrayList<>();
+
+        for (Path file : Files.list(Paths.get("src/test/resources/trees")).sorted().collect(Collectors.toList())) {
+            lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static String render(List<Extract> extracts) {
+        return extracts.stream()
+                .map(extract -> extract.operationName + " " + extract.nodeNumber + " " + extract.subTree)
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * Test that a single extractor shared by many threads extracts from each tree what it extracts on a single
+     * thread, with threads matching different trees at the same time
+     */
+    @Test
+    public void testSharedExtractor() throws Exception {
+        int threads = 8;
+        int rounds = 4;
+        TreeExtractor extractor = new TreeExtractor("change",
+                Paths.get("src/main/resources/tsurgeon/extract/change.tfm"));
+        List<String> trees = readTrees();
+        List<String> expected = new ArrayList<>();
+
+        for (String tree : trees) {
+            expected.add(render(extractor.extractTrees(Tree.valueOf(tree))));
+        }
+        assertTrue(expected.stream().anyMatch(extracts -> !extracts.isEmpty()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> mismatches = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            mismatches.add(executor.submit(() -> {
+                TreeParser parser = new TreeParser();
+                int count = 0;
+
+                for (int i = 0; i < rounds * trees.size(); i++) {
+                    int j = (i + offset) % trees.size();
+
+                    if (!expected.get(j).equals(render(extractor.extractTrees(parser.parse(trees.get(j)))))) {
+                        count++;
+                    }
+                }
+                return count;
+            }));
+        }
+        executor.shutdown();
+
+        for (Future<Integer> count : mismatches) {
+            assertEquals(0, (int) count.get());
+        }
+    }
+}
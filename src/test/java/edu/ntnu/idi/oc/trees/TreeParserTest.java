@@ -0,0 +1,127 @@
+package edu.ntnu.idi.oc.trees;
+
+import edu.stanford.nlp.trees.Tree;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+
+public class TreeParserTest {
+
+    /**
+     * Test that parsing gives the same trees as Tree.valueOf, with the same labels
+     */
+    @Test
+    public void testParse() throws Exception {
+        List<String> texts = new ArrayList<>();
+
+        for (File file : Paths.get("src/test/resources/trees").toFile().listFiles()) {
+            texts.addAll(Files.readAllLines(file.toPath()));
+        }
+
+        // unusual input, which is left to Tree.valueOf
+        texts.addAll(Arrays.asList(
+                "NP",
+                "",
+                "( (S (NP (NN climate) (NN change))))",
+                "(NP-SBJ (NN climate))",
+                "(S (NP (NN climate)) (-NONE- *))",
+                "(NP (NP (NN climate)))",
+                "(NP)",
+                "(NP (NN a\\/b))",
+                "(NP (NN climate)",
+                "(NP (NN climate)) (NP (NN change))",
+                "(ROOT (NP (-LRB- -LRB-) (NN climate) (-RRB- -RRB-)))"));
+
+        TreeParser parser = new TreeParser();
+
+        for (String text : texts) {
+            Tree expected = Tree.valueOf(text);
+            Tree tree = parser.parse(text);
+
+            if (expected == null) {
+                assertNull(tree);
+            } else {
+                assertEquals(expected.toString(), tree.toString());
+                assertSameLabels(expected, tree);
+            }
+        }
+    }
+
+    private static void assertSameLabels(Tree expected, Tree tree) {
+        assertEquals(expected.label(), tree.label());
+        assertEquals(expected.numChildren(), tree.numChildren());
+
+        for (int i = 0; i < expected.numChildren(); i++) {
+            assertSameLabels(expected.getChild(i), tree.getChild(i));
+        }
+    }
+
+    /**
+     * Test that trees from different parsers share the labels and words of the shared pool
+     */
+    @Test
+    public void testSharedStrings() throws Exception {
+        String text = "(ROOT (S (NP (NN climate) (NN change)) (VP (VBZ is) (ADJP (JJ real)))))";
+        Tree tree = new TreeParser().parse(text);
+        Tree other = new TreeParser().parse(new String(text));
+
+        assertSame(tree.getChild(0).getChild(0).value(), other.getChild(0).getChild(0).value());
+        assertSame(tree.getLeaves().get(1).value(), other.getLeaves().get(1).value());
+        assertSame(tree.getLeaves().get(1).value(), InternPool.SHARED.internWord(new String("change")));
+
+        // label created by an action is replaced by the pooled one
+        Tree copy = tree.deepCopy();
+        copy.getChild(0).getChild(0).label().setValue(new String("NP"));
+        InternPool.SHARED.internLabels(copy);
+        assertSame(tree.getChild(0).getChild(0).value(), copy.getChild(0).getChild(0).value());
+        assertTrue(InternPool.SHARED.getHitRate() > 0);
+        assertTrue(InternPool.SHARED.getFootprint() > 0);
+    }
+
+    /**
+     * Test that a full pool still pools labels, but rejects new words and counts them
+     */
+    @Test
+    public void testBoundedPool() throws Exception {
+        InternPool pool = new InternPool(2);
+        String first = pool.internWord(new String("first"));
+        pool.internWord(new String("second"));
+
+        assertSame(first, pool.internWord(new String("first")));
+        String third = new String("third");
+        assertSame(third, pool.internWord(third));
+        assertNotSame(third, pool.internWord(new String("third")));
+        assertEquals(2, pool.getRejected());
+
+        String label = pool.intern(new String("NP"));
+        assertSame(label, pool.intern(new String("NP")));
+        assertEquals(3, pool.size());
+    }
+
+    /**
+     * Test that the caches of a parser are bounded, while trees are parsed as before
+     */
+    @Test
+    public void testBoundedCache() throws Exception {
+        StringBuilder text = new StringBuilder("(ROOT (NP");
+        int words = 40000;
+
+        for (int i = 0; i < words; i++) {
+            text.append(" (NN w").append(i).append(')');
+        }
+        String tree = text.append("))").toString();
+        TreeParser parser = new TreeParser();
+
+        assertEquals(Tree.valueOf(tree), parser.parse(tree));
+        // the word cache was cleared when it was full
+        assertTrue(parser.cacheSize() < words);
+    }
+}
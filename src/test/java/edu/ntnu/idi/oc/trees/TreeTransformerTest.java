@@ -7,8 +7,13 @@ import edu.stanford.nlp.trees.tregex.tsurgeon.Tsurgeon;
 import edu.stanford.nlp.trees.tregex.tsurgeon.TsurgeonPattern;
 import org.junit.Test;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -60,4 +65,98 @@ public class TreeTransformerTest {
         assertEquals(Tree.valueOf("(ROOT (NP (JJ blue) (NN bird) (PP (P with) (NP mark))))"), transforms.get(0).subTree);
         assertEquals(Tree.valueOf("(ROOT (NP (JJ small) (JJ blue) (NN bird)))"), transforms.get(1).subTree);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testWellFormed() throws Exception {
+        Tree tree = Tree.valueOf("(ROOT (NP (JJ blue) (NN bird)))");
+        TreeTransformer transformer = new TreeTransformer(Arrays.asList(
+                new TreeOperation("prune JJ", TregexPattern.compile("JJ=jj > NP"), Tsurgeon.parseOperation("delete jj")),
+                new TreeOperation("prune NP", TregexPattern.compile("NP=np > ROOT"), Tsurgeon.parseOperation("delete np"))));
+
+        List<Transform> transforms = transformer.transformTree(tree);
+
+        assertEquals(2, transforms.size());
+        assertTrue(transforms.get(0).isWellFormed());
+        // deleting the only child of the root leaves a bare label, which is not a tree
+        assertEquals("ROOT", transforms.get(1).subTree.toString());
+        assertNull(Tree.valueOf(transforms.get(1).subTree.toString()));
+        assertFalse(transforms.get(1).isWellFormed());
+    }
+
+    @Test
+    public void testTransformInPlace() throws Exception {
+        Tree tree = Tree.valueOf("(ROOT (S (NP (DT the) (JJ small) (NN bird)) (VP (VBD saw) (NP (PRP it)))))");
+        TreeTransformer transformer = new TreeTransformer(
+                Paths.get("src/main/resources/tsurgeon/preproc/preproc.tfm"));
+
+        // all matches are deleted, including the NP left empty by deleting its pronoun
+        Tree result = transformer.transformInPlace(tree, tree.size());
+        assertSame(tree, result);
+        assertEquals(Tree.valueOf("(ROOT (S (NP (JJ small) (NN bird)) (VP (VBD saw))))"), result);
+
+        // operations which never stop matching stop after the maximum number of applications
+        TreeOperation grow = new TreeOperation("grow", TregexPattern.compile("NN=n !< NN"),
+                Tsurgeon.parseOperation("adjoin (NN NN@) n"));
+        Tree bird = Tree.valueOf("(NP (NN bird))");
+        result = new TreeTransformer(Arrays.asList(grow)).transformInPlace(bird, 3);
+        assertEquals("(NP (NN (NN (NN (NN bird)))))", result.toString());
+    }
+
+    /**
+     * Transforms of tree, followed by the tree transformed in place by preprocessor
+     */
+    private static List<String> transform(TreeTransformer transformer, TreeTransformer preprocessor, Tree tree) {
+        List<String> transforms = new ArrayList<>();
+
+        for (Transform transform : transformer.transformTree(tree)) {
+            transforms.add(transform.operationName + " " + transform.subTree);
+        }
+        transforms.add(String.valueOf(preprocessor.transformInPlace(tree, tree.size())));
+        return transforms;
+    }
+
+    /**
+     * Test that transformers shared by many threads transform each tree as they do on a single thread,
+     * with threads reusing matchers of actions for different trees
+     */
+    @Test
+    public void testSharedTransformer() throws Exception {
+        int threads = 8;
+        int rounds = 4;
+        TreeTransformer transformer = new TreeTransformer(
+                Paths.get("src/main/resources/tsurgeon/prune/coordination.tfm"));
+        TreeTransformer preprocessor = new TreeTransformer(
+                Paths.get("src/main/resources/tsurgeon/preproc/preproc.tfm"));
+        List<String> trees = TreeExtractorTest.readTrees();
+        List<List<String>> expected = new ArrayList<>();
+
+        for (String tree : trees) {
+            expected.add(transform(transformer, preprocessor, Tree.valueOf(tree)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> mismatches = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            mismatches.add(executor.submit(() -> {
+                TreeParser parser = new TreeParser();
+                int count = 0;
+
+                for (int i = 0; i < rounds * trees.size(); i++) {
+                    int j = (i + offset) % trees.size();
+
+                    if (!expected.get(j).equals(transform(transformer, preprocessor, parser.parse(trees.get(j))))) {
+                        count++;
+                    }
+                }
+                return count;
+            }));
+        }
+        executor.shutdown();
+
+        for (Future<Integer> count : mismatches) {
+            assertEquals(0, (int) count.get());
+        }
+    }
+}